@@ -15,14 +15,75 @@ java {
     }
 }
 
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+val loadtest: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+val jmhImplementation: Configuration by configurations.getting
+val jmhAnnotationProcessor: Configuration by configurations.getting
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     testImplementation("org.mockito:mockito-core:5.5.0")
     testImplementation("org.mockito:mockito-junit-jupiter:5.5.0")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    jmhImplementation("org.openjdk.jmh:jmh-core:1.37")
+    jmhAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+// The vectorized cipher uses the incubating Vector API, which has to be added explicitly,
+// and memory segments over direct buffers, which are a preview API on Java 21.
+val vectorModule = listOf("--add-modules", "jdk.incubator.vector", "--enable-preview")
+
+tasks.withType<JavaCompile>().configureEach {
+    options.release.set(21)
+    options.compilerArgs.addAll(vectorModule)
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+    jvmArgs(vectorModule)
+}
+
+// Runs the JMH benchmarks in src/jmh with the GC profiler for allocation rates.
+// Extra JMH options go through -PjmhArgs, e.g. -PjmhArgs="CipherBenchmark -p size=1024".
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    jvmArgs(vectorModule)
+
+    val results = layout.buildDirectory.file("reports/jmh/results.json")
+    outputs.file(results)
+    outputs.upToDateWhen { false }
+    doFirst { results.get().asFile.parentFile.mkdirs() }
+
+    args("-bm", "thrpt,avgt", "-prof", "gc", "-rf", "json", "-rff", results.get().asFile.absolutePath)
+    providers.gradleProperty("jmhArgs").orNull?.let { args(it.trim().split(Regex("\\s+"))) }
+}
+
+// Runs the load generator in src/loadtest against a synthetic data folder in build/loadtest.
+// Options go through -PloadArgs, e.g. -PloadArgs="--workers=64 --threads=platform --duration=60",
+// JVM options through -PloadJvmArgs, e.g. -PloadJvmArgs="-Xmx2g -XX:+UseZGC".
+tasks.register<JavaExec>("loadTest") {
+    group = "benchmark"
+    description = "Runs the concurrent load test."
+    classpath = loadtest.runtimeClasspath
+    mainClass.set("LoadTest")
+    jvmArgs(vectorModule)
+    providers.gradleProperty("loadJvmArgs").orNull?.let { jvmArgs(it.trim().split(Regex("\\s+"))) }
+
+    val root = layout.buildDirectory.dir("loadtest")
+    outputs.upToDateWhen { false }
+    args("--root=" + root.get().asFile.absolutePath)
+    providers.gradleProperty("loadArgs").orNull?.let { args(it.trim().split(Regex("\\s+"))) }
+}
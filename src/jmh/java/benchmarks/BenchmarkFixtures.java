@@ -0,0 +1,107 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import utilities.Cipher;
+
+// Builds the keys and data files the benchmarks run against. Everything is
+// generated from fixed seeds so runs are comparable.
+final class BenchmarkFixtures {
+
+    static final String KEY_FILE = "key.txt";
+
+    private BenchmarkFixtures() {
+    }
+
+    // "ascii" is every printable ASCII character, "unicode" adds Greek,
+    // Cyrillic and CJK characters so lookups leave the Latin-1 table
+    static char[] alphabet(String name) {
+        StringBuilder alphabet = new StringBuilder();
+        for (char c = '!'; c <= '~'; c++) {
+            alphabet.append(c);
+        }
+        if (name.equals("unicode")) {
+            appendRange(alphabet, 0x0391, 0x03A9);
+            appendRange(alphabet, 0x0410, 0x044F);
+            appendRange(alphabet, 0x4E00, 0x55FF);
+        } else if (!name.equals("ascii")) {
+            throw new IllegalArgumentException("unknown alphabet " + name);
+        }
+        return alphabet.toString().toCharArray();
+    }
+
+    private static void appendRange(StringBuilder alphabet, int first, int last) {
+        for (int c = first; c <= last; c++) {
+            if (Character.isDefined(c)) {
+                alphabet.append((char) c);
+            }
+        }
+    }
+
+    // writes a key mapping the alphabet onto a shuffled copy of itself
+    static Path writeKey(Path keysFolder, char[] alphabet) throws IOException {
+        char[] shuffled = alphabet.clone();
+        Random random = new Random(42);
+        for (int i = shuffled.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            char swap = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = swap;
+        }
+        Files.createDirectories(keysFolder);
+        Path keyFile = keysFolder.resolve(KEY_FILE);
+        Files.write(keyFile, List.of(new String(alphabet), new String(shuffled)));
+        return keyFile;
+    }
+
+    // random text drawn from the alphabet, with spaces and line breaks mixed in
+    static String text(char[] alphabet, int length, long seed) {
+        Random random = new Random(seed);
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            int roll = random.nextInt(100);
+            if (roll < 15) {
+                text[i] = ' ';
+            } else if (roll < 17) {
+                text[i] = '\n';
+            } else {
+                text[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+        }
+        return new String(text);
+    }
+
+    // writes roughly the given number of UTF-8 bytes of encrypted text
+    static void writeEncryptedFile(Path file, Cipher cipher, char[] alphabet, long bytes) throws IOException {
+        Files.createDirectories(file.getParent());
+        long written = 0;
+        long seed = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            while (written < bytes) {
+                int chunk = (int) Math.min(64 * 1024, bytes - written);
+                String ciphertext = cipher.encrypt(text(alphabet, chunk, seed++));
+                byte[] encoded = ciphertext.getBytes(StandardCharsets.UTF_8);
+                writer.write(ciphertext);
+                written += encoded.length;
+            }
+        }
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
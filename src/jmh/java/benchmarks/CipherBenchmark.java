@@ -0,0 +1,111 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import utilities.Cipher;
+import utilities.CipherInterface;
+import utilities.Ciphers;
+import utilities.CompiledKey;
+
+// Measures the in-memory cipher paths. The String benchmarks stop at 64 MB by
+// default because a 1 GB String needs several GB of heap; run them bigger with
+// -PjmhArgs="CipherBenchmark -p size=1073741824 -jvmArgsAppend -Xmx16g".
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "--add-modules", "jdk.incubator.vector", "--enable-preview" })
+public class CipherBenchmark {
+
+    @Param({ "1024", "1048576", "67108864" })
+    public int size;
+
+    @Param({ "ascii", "unicode" })
+    public String alphabet;
+
+    private Path keysFolder;
+    private Path compiledKey;
+    private Cipher cipher;
+    private String plaintext;
+    private String ciphertext;
+    private char[] buffer;
+    private CipherInterface fastest;
+    private ByteBuffer bytes;
+    private ByteBuffer decrypted;
+
+    @Setup
+    public void setUp() throws IOException {
+        char[] characters = BenchmarkFixtures.alphabet(alphabet);
+        keysFolder = Files.createTempDirectory("cipher-bench");
+        cipher = new Cipher(BenchmarkFixtures.writeKey(keysFolder, characters).toString());
+        plaintext = BenchmarkFixtures.text(characters, size, 1);
+        ciphertext = cipher.encrypt(plaintext);
+        buffer = ciphertext.toCharArray();
+        Path compiledFolder = Files.createDirectories(keysFolder.resolve("compiled"));
+        compiledKey = CompiledKey.compile(Files.copy(keysFolder.resolve(BenchmarkFixtures.KEY_FILE),
+                compiledFolder.resolve(BenchmarkFixtures.KEY_FILE)));
+        // compiled next to a copy, so loadKey still parses the text key
+        fastest = Ciphers.fastest(cipher);
+        bytes = ByteBuffer.wrap(ciphertext.getBytes(StandardCharsets.UTF_8));
+        decrypted = ByteBuffer.allocate(bytes.capacity());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(keysFolder);
+    }
+
+    @Benchmark
+    public Cipher loadKey() {
+        return new Cipher(keysFolder.resolve(BenchmarkFixtures.KEY_FILE).toString());
+    }
+
+    @Benchmark
+    public Cipher loadCompiledKey() {
+        return new Cipher(compiledKey.toString());
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return cipher.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return cipher.decrypt(ciphertext);
+    }
+
+    // reuses one buffer, so this should show no allocation at all
+    @Benchmark
+    public char[] decryptInPlace() {
+        cipher.decrypt(buffer, 0, buffer.length);
+        return buffer;
+    }
+
+    // byte path used for .cip files, only runs for the ascii alphabet
+    @Benchmark
+    public ByteBuffer decryptBytes() {
+        return decryptBytes(cipher);
+    }
+
+    // same with the Vector API engine when the module is loaded
+    @Benchmark
+    public ByteBuffer decryptBytesFastest() {
+        return decryptBytes(fastest);
+    }
+
+    private ByteBuffer decryptBytes(CipherInterface with) {
+        bytes.clear();
+        decrypted.clear();
+        if (with.isAscii()) {
+            with.decrypt(bytes, decrypted);
+        }
+        return decrypted;
+    }
+}
@@ -0,0 +1,51 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import utilities.Cipher;
+
+// Measures reading an encrypted file from 1 KB up to 1 GB through the
+// streaming path, which keeps memory flat whatever the size.
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileHandlerBenchmark {
+
+    static final String FILE_NAME = "bench.cip";
+
+    @Param({ "1024", "1048576", "67108864", "1073741824" })
+    public long size;
+
+    @Param({ "ascii", "unicode" })
+    public String alphabet;
+
+    private Path root;
+    private Object fileHandler;
+
+    @Setup
+    public void setUp() throws Throwable {
+        char[] characters = BenchmarkFixtures.alphabet(alphabet);
+        root = Files.createTempDirectory("file-bench");
+        Path keyFile = BenchmarkFixtures.writeKey(root.resolve("ciphers"), characters);
+        BenchmarkFixtures.writeEncryptedFile(root.resolve("data").resolve(FILE_NAME),
+                new Cipher(keyFile.toString()), characters, size);
+        fileHandler = FileHandlerBridge.create(root.resolve("data").toString(), root.resolve("ciphers").toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public void readFileStream() throws Throwable {
+        FileHandlerBridge.readFile(fileHandler, FILE_NAME, BenchmarkFixtures.KEY_FILE, OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+// JMH needs benchmarks in a named package, while FileHandler lives in the
+// default package and cannot be imported. This reaches it through method
+// handles held in static finals, which the JIT inlines like direct calls.
+final class FileHandlerBridge {
+
+    private static final MethodHandle CONSTRUCTOR;
+    private static final MethodHandle GET_FILES;
+    private static final MethodHandle READ_FILE;
+    private static final MethodHandle READ_FILE_STREAM;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> type = Class.forName("FileHandler");
+            CONSTRUCTOR = lookup.findConstructor(type, MethodType.methodType(void.class, String.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class, String.class));
+            GET_FILES = lookup.findVirtual(type, "getFiles", MethodType.methodType(List.class))
+                    .asType(MethodType.methodType(List.class, Object.class));
+            READ_FILE = lookup.findVirtual(type, "readFile",
+                    MethodType.methodType(String.class, String.class, String.class))
+                    .asType(MethodType.methodType(String.class, Object.class, String.class, String.class));
+            READ_FILE_STREAM = lookup.findVirtual(type, "readFile",
+                    MethodType.methodType(void.class, String.class, String.class, OutputStream.class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class, String.class,
+                            OutputStream.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private FileHandlerBridge() {
+    }
+
+    static Object create(String filesFolder, String keysFolder) throws Throwable {
+        return CONSTRUCTOR.invokeExact(filesFolder, keysFolder);
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<String> getFiles(Object fileHandler) throws Throwable {
+        return (List<String>) GET_FILES.invokeExact(fileHandler);
+    }
+
+    static String readFile(Object fileHandler, String fileName, String keyFile) throws Throwable {
+        return (String) READ_FILE.invokeExact(fileHandler, fileName, keyFile);
+    }
+
+    static void readFile(Object fileHandler, String fileName, String keyFile, OutputStream out) throws Throwable {
+        READ_FILE_STREAM.invokeExact(fileHandler, fileName, keyFile, out);
+    }
+}
@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Measures listing a data folder holding a growing number of files.
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetFilesBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    public int fileCount;
+
+    private Path root;
+    private Object fileHandler;
+
+    @Setup
+    public void setUp() throws Throwable {
+        root = Files.createTempDirectory("list-bench");
+        Path data = Files.createDirectories(root.resolve("data"));
+        for (int i = 0; i < fileCount; i++) {
+            Files.createFile(data.resolve(String.format("file%06d.cip", i)));
+        }
+        fileHandler = FileHandlerBridge.create(data.toString(), root.resolve("ciphers").toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public List<String> getFiles() throws Throwable {
+        return FileHandlerBridge.getFiles(fileHandler);
+    }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import utilities.Cipher;
+
+// Measures the original String-returning readFile, which holds the whole file
+// in memory, so the sizes stop at 64 MB by default.
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class ReadFileStringBenchmark {
+
+    @Param({ "1024", "1048576", "67108864" })
+    public long size;
+
+    @Param({ "ascii", "unicode" })
+    public String alphabet;
+
+    private Path root;
+    private Object fileHandler;
+
+    @Setup
+    public void setUp() throws Throwable {
+        char[] characters = BenchmarkFixtures.alphabet(alphabet);
+        root = Files.createTempDirectory("string-bench");
+        Path keyFile = BenchmarkFixtures.writeKey(root.resolve("ciphers"), characters);
+        BenchmarkFixtures.writeEncryptedFile(root.resolve("data").resolve(FileHandlerBenchmark.FILE_NAME),
+                new Cipher(keyFile.toString()), characters, size);
+        fileHandler = FileHandlerBridge.create(root.resolve("data").toString(), root.resolve("ciphers").toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public String readFile() throws Throwable {
+        return FileHandlerBridge.readFile(fileHandler, FileHandlerBenchmark.FILE_NAME, BenchmarkFixtures.KEY_FILE);
+    }
+}
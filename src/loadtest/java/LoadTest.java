@@ -0,0 +1,358 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+import utilities.CipherRegistry;
+import utilities.ContentCache;
+
+// Drives ProgramController with many concurrent workers to see how it holds up
+// under real traffic, which the single-call microbenchmarks in src/jmh don't
+// show. Every worker repeatedly picks an operation and a file from the mixes,
+// runs the same command line the user would type and times it. After a warm-up
+// it reports throughput, latency percentiles per operation, and GC and
+// allocation figures for the measured period.
+//
+// Run with ./gradlew loadTest -PloadArgs="--workers=64 --threads=platform".
+// Options (defaults in brackets):
+//   --root=DIR          where the synthetic data and ciphers folders go [build/loadtest]
+//   --workers=N         concurrent workers [number of processors]
+//   --threads=KIND      virtual or platform [virtual]
+//   --duration=S        measured seconds [30]
+//   --warmup=S          seconds run first and not measured [5]
+//   --rate=N            operations per second over all workers, 0 runs flat out [0]
+//   --files=N           files in the data folder [50]
+//   --file-mix=MIX      file types [cip:70,cipz:20,txt:10]
+//   --size-mix=MIX      file sizes [4k:50,64k:35,1m:12,16m:3]
+//   --key-mix=MIX       keys the files are encrypted with [key.txt:80,key2.txt:20]
+//   --ops=MIX           operations [read:80,head:10,list:5,search:5]
+//   --cache-mb=N        decrypted contents cache like the daemon's, 0 is off [0]
+//   --seed=N            seed for the data and the choices [1]
+// A mix is name:weight pairs separated by commas.
+public class LoadTest {
+
+    private static final List<String> OPERATIONS = List.of("read", "head", "list", "search");
+
+    private final Map<String, String> options = new HashMap<>();
+
+    private LoadTest(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("options look like --name=value, not " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        try {
+            new LoadTest(args).run(System.out);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private long number(String name, long defaultValue) {
+        String value = options.get(name);
+        try {
+            long number = value == null ? defaultValue : Long.parseLong(value);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            //reported below
+        }
+        throw new IllegalArgumentException("--" + name + " needs a number that isn't negative, not " + value);
+    }
+
+    private void run(PrintStream report) throws Exception {
+        Path root = Paths.get(option("root", "build/loadtest")).toAbsolutePath();
+        int workers = (int) number("workers", Runtime.getRuntime().availableProcessors());
+        String threads = option("threads", "virtual");
+        long duration = number("duration", 30);
+        long warmup = number("warmup", 5);
+        long rate = number("rate", 0);
+        int files = (int) number("files", 50);
+        long seed = number("seed", 1);
+        long cacheBytes = number("cache-mb", 0) * 1024 * 1024;
+        WeightedMix fileMix = new WeightedMix(option("file-mix", "cip:70,cipz:20,txt:10"));
+        WeightedMix sizeMix = new WeightedMix(option("size-mix", "4k:50,64k:35,1m:12,16m:3"));
+        WeightedMix keyMix = new WeightedMix(option("key-mix", "key.txt:80,key2.txt:20"));
+        WeightedMix ops = new WeightedMix(option("ops", "read:80,head:10,list:5,search:5"));
+        if (workers < 1 || files < 1 || duration < 1) {
+            throw new IllegalArgumentException("--workers, --files and --duration need to be at least 1");
+        }
+        if (!threads.equals("virtual") && !threads.equals("platform")) {
+            throw new IllegalArgumentException("--threads is virtual or platform, not " + threads);
+        }
+        for (String operation : ops.names()) {
+            if (!OPERATIONS.contains(operation)) {
+                throw new IllegalArgumentException("operations are " + OPERATIONS + ", not " + operation);
+            }
+        }
+
+        List<LoadTestData.FileSpec> plan = LoadTestData.plan(files, fileMix, sizeMix, keyMix, seed);
+        String description = "files=" + files + " file-mix=" + fileMix + " size-mix=" + sizeMix + " key-mix="
+                + keyMix + " seed=" + seed;
+        long started = System.nanoTime();
+        if (LoadTestData.generate(root, plan, new ArrayList<>(new LinkedHashSet<>(keyMix.names())), description)) {
+            report.printf(Locale.ROOT, "generated %d files in %s in %.1f s%n", files, root,
+                    (System.nanoTime() - started) / 1e9);
+        }
+
+        ContentCache cache = cacheBytes > 0 ? new ContentCache(cacheBytes) : null;
+        FileHandler fileHandler = new FileHandler(List.of(root.resolve(LoadTestData.DATA_FOLDER).toString()),
+                root.resolve(LoadTestData.KEYS_FOLDER).toString(), ForkJoinPool.commonPool(), new CipherRegistry(),
+                cache);
+        ProgramController controller = new ProgramController(fileHandler);
+        List<String> numbered = fileHandler.getFiles();
+        Map<String, String> keyOf = new HashMap<>();
+        for (LoadTestData.FileSpec file : plan) {
+            keyOf.put(file.name(), file.keyFile());
+        }
+
+        Worker[] running = new Worker[workers];
+        ThreadFactory factory = threads.equals("virtual")
+                ? Thread.ofVirtual().name("load-", 0).factory()
+                : Thread.ofPlatform().name("load-", 0).factory();
+        long intervalNanos = rate == 0 ? 0 : Math.max(1, 1_000_000_000L * workers / rate);
+        long start = System.nanoTime();
+        long measureFrom = start + warmup * 1_000_000_000L;
+        long stopAt = measureFrom + duration * 1_000_000_000L;
+        List<Thread> workerThreads = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            running[i] = new Worker(controller, numbered, keyOf, ops, new Random(seed * 1_000_003L + i),
+                    intervalNanos, start + i * intervalNanos / workers, measureFrom, stopAt);
+            Thread thread = factory.newThread(running[i]);
+            thread.start();
+            workerThreads.add(thread);
+        }
+
+        while (System.nanoTime() < measureFrom) {
+            LockSupport.parkNanos(measureFrom - System.nanoTime());
+        }//parkNanos may return early
+        ResourceUsage before = ResourceUsage.now();
+        for (Thread thread : workerThreads) {
+            thread.join();
+        }
+        ResourceUsage after = ResourceUsage.now();
+        double seconds = (after.nanos - before.nanos) / 1e9;
+
+        report.printf(Locale.ROOT, "%d %s workers, %d s after %d s warm-up, %s%n", workers, threads, duration, warmup,
+                rate == 0 ? "closed loop" : rate + " ops/s target");
+        report.println(description + " ops=" + ops + " cache-mb=" + cacheBytes / (1024 * 1024));
+        report.println();
+        report.printf(Locale.ROOT, "%-8s %10s %10s %10s %10s %10s %10s %10s %8s%n", "op", "count", "ops/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        LatencyHistogram all = new LatencyHistogram();
+        long errors = 0;
+        long bytes = 0;
+        for (int op = 0; op < OPERATIONS.size(); op++) {
+            LatencyHistogram merged = new LatencyHistogram();
+            long failed = 0;
+            for (Worker worker : running) {
+                merged.add(worker.latencies[op]);
+                failed += worker.errors[op];
+            }
+            if (merged.count() > 0 || failed > 0) {
+                printRow(report, OPERATIONS.get(op), merged, failed, seconds);
+            }
+            all.add(merged);
+            errors += failed;
+        }
+        for (Worker worker : running) {
+            bytes += worker.output.count;
+        }
+        printRow(report, "all", all, errors, seconds);
+
+        report.println();
+        report.printf(Locale.ROOT, "output     %.1f MB, %.1f MB/s%n", bytes / 1e6, bytes / 1e6 / seconds);
+        after.printDifference(before, all.count(), seconds, report);
+        for (Worker worker : running) {
+            if (worker.firstError != null) {
+                report.println("first error: " + worker.firstError);
+                break;
+            }
+        }
+    }
+
+    private static void printRow(PrintStream report, String name, LatencyHistogram latencies, long errors,
+            double seconds) {
+        report.printf(Locale.ROOT, "%-8s %10d %10.1f %10.3f %10.3f %10.3f %10.3f %10.3f %8d%n", name,
+                latencies.count(), latencies.count() / seconds, latencies.percentile(0.50) / 1e6,
+                latencies.percentile(0.90) / 1e6, latencies.percentile(0.99) / 1e6,
+                latencies.percentile(0.999) / 1e6, latencies.max() / 1e6, errors);
+    }
+
+    // One worker's loop. With a target rate every operation has a start time
+    // it is due at, and latency is counted from then rather than from when it
+    // actually started, so a stall also counts against the operations that
+    // queued up behind it instead of hiding them.
+    private static final class Worker implements Runnable {
+        private final ProgramController controller;
+        private final List<String> numbered;
+        private final Map<String, String> keyOf;
+        private final WeightedMix ops;
+        private final Random random;
+        private final long intervalNanos;
+        private final long firstStart;
+        private final long measureFrom;
+        private final long stopAt;
+
+        final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.size()];
+        final long[] errors = new long[OPERATIONS.size()];
+        final CountingOutputStream output = new CountingOutputStream();
+        volatile String firstError;
+
+        Worker(ProgramController controller, List<String> numbered, Map<String, String> keyOf, WeightedMix ops,
+                Random random, long intervalNanos, long firstStart, long measureFrom, long stopAt) {
+            this.controller = controller;
+            this.numbered = numbered;
+            this.keyOf = keyOf;
+            this.ops = ops;
+            this.random = random;
+            this.intervalNanos = intervalNanos;
+            this.firstStart = firstStart;
+            this.measureFrom = measureFrom;
+            this.stopAt = stopAt;
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        @Override
+        public void run() {
+            long due = firstStart;
+            while (true) {
+                long now = System.nanoTime();
+                if (intervalNanos > 0) {
+                    if (due > now) {
+                        LockSupport.parkNanos(due - now);
+                    }
+                } else {
+                    due = now;
+                }
+                if (due >= stopAt) {
+                    return;
+                }
+                String operation = ops.pick(random);
+                String[] args = commandLine(operation);
+                long before = output.count;
+                boolean failed = false;
+                try {
+                    controller.run(args, output);
+                } catch (IOException | RuntimeException e) {
+                    failed = true;
+                    if (firstError == null) {
+                        firstError = String.join(" ", args) + ": " + e;
+                    }
+                }
+                long end = System.nanoTime();
+                if (due >= measureFrom) {
+                    int op = OPERATIONS.indexOf(operation);
+                    latencies[op].record(end - due);
+                    if (failed) {
+                        errors[op]++;
+                    }
+                } else {
+                    output.count = before;
+                }//warm-up isn't counted
+                due += intervalNanos;
+            }
+        }
+
+        // The same arguments TopSecret would get for the operation
+        private String[] commandLine(String operation) {
+            int number = 1 + random.nextInt(numbered.size());
+            String name = numbered.get(number - 1);
+            String key = keyOf.get(name);
+            return switch (operation) {
+                case "read" -> key == null ? new String[] { String.valueOf(number) }
+                        : new String[] { String.valueOf(number), key };
+                case "head" -> key == null ? new String[] { String.valueOf(number), "--head=20" }
+                        : new String[] { String.valueOf(number), key, "--head=20" };
+                case "list" -> new String[] { "list", "--sort=name", "--page=" + (1 + random.nextInt(3)),
+                        "--page-size=20" };
+                default -> new String[] { "search", LoadTestData.WORDS[random.nextInt(LoadTestData.WORDS.length)],
+                        key == null ? "key.txt" : key };
+            };
+        }
+    }
+
+    // Throws the output away, only counting it
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+
+    // GC and allocation counters at one moment
+    private static final class ResourceUsage {
+        final long nanos = System.nanoTime();
+        final Map<String, long[]> collections = new LinkedHashMap<>();
+        final long allocated;
+
+        private ResourceUsage(long allocated) {
+            this.allocated = allocated;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                collections.put(collector.getName(), new long[] { collector.getCollectionCount(),
+                        collector.getCollectionTime() });
+            }
+        }
+
+        static ResourceUsage now() {
+            long allocated = -1;
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                    && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                allocated = threads.getTotalThreadAllocatedBytes();
+            }//includes virtual threads, their allocations are counted on the carrier threads
+            return new ResourceUsage(allocated);
+        }
+
+        void printDifference(ResourceUsage before, long operations, double seconds, PrintStream report) {
+            for (Map.Entry<String, long[]> collector : collections.entrySet()) {
+                long[] earlier = before.collections.getOrDefault(collector.getKey(), new long[2]);
+                long count = collector.getValue()[0] - earlier[0];
+                long millis = collector.getValue()[1] - earlier[1];
+                report.printf(Locale.ROOT, "gc         %s: %d collections, %d ms (%.2f%% of the time)%n",
+                        collector.getKey(), count, millis, millis / 10.0 / seconds);
+            }
+            if (allocated < 0 || before.allocated < 0) {
+                report.println("allocated  not available on this JVM");
+                return;
+            }
+            long bytes = allocated - before.allocated;
+            report.printf(Locale.ROOT, "allocated  %.1f MB, %.1f MB/s, %.1f KB per operation%n", bytes / 1e6,
+                    bytes / 1e6 / seconds, operations == 0 ? 0 : bytes / 1024.0 / operations);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import utilities.Cipher;
+import utilities.CompressedCipherFile;
+import utilities.EncryptingWriter;
+
+// Builds the synthetic data and ciphers folders the load test runs against.
+// Which files there are, their sizes and keys are drawn from the mixes with a
+// fixed seed, so the same options always give the same folder. The plan is
+// saved next to the folders and the files are only written again when it
+// changes.
+public class LoadTestData {
+
+    static final String DATA_FOLDER = "data";
+    static final String KEYS_FOLDER = "ciphers";
+    private static final String PLAN_FILE = "plan.txt";
+
+    static final String[] WORDS = { "agent", "asset", "cipher", "courier", "dossier", "embassy", "handler",
+            "station", "signal", "safehouse", "operation", "report", "source", "contact", "border", "channel",
+            "network", "briefing", "surveillance", "Federal", "Bureau", "Moscow", "Berlin", "Vienna", "night",
+            "morning", "meeting", "drop", "package", "photograph", "document", "transfer", "priority", "urgent",
+            "the", "a", "of", "to", "and", "in", "was", "at", "on", "for", "with", "from", "by", "2048", "1975" };
+    //words the text is made of, so searches and line reads find something.
+
+    private static final String KEY_CHARACTERS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890";
+
+    // One generated file: its name in the data folder, the key it is encrypted
+    // with (null for plain files) and roughly how many bytes it holds
+    record FileSpec(String name, String keyFile, long bytes) {
+    }
+
+    private LoadTestData() {
+    }
+
+    static List<FileSpec> plan(int files, WeightedMix types, WeightedMix sizes, WeightedMix keys, long seed) {
+        Random random = new Random(seed);
+        List<FileSpec> plan = new ArrayList<>();
+        for (int i = 1; i <= files; i++) {
+            String type = types.pick(random);
+            String size = sizes.pick(random);
+            String key = keys.pick(random);
+            String extension = switch (type) {
+                case "txt" -> ".txt";
+                case "cip" -> ".cip";
+                case "cipz" -> CompressedCipherFile.EXTENSION;
+                default -> throw new IllegalArgumentException("file types are txt, cip and cipz, not " + type);
+            };
+            plan.add(new FileSpec(String.format(Locale.ROOT, "f%05d-%s%s", i, size, extension),
+                    type.equals("txt") ? null : key, parseSize(size)));
+        }
+        return plan;
+    }
+
+    // "512", "64k", "4m" or "1g" bytes
+    static long parseSize(String size) {
+        String lowerCase = size.trim().toLowerCase(Locale.ROOT);
+        long unit = switch (lowerCase.isEmpty() ? ' ' : lowerCase.charAt(lowerCase.length() - 1)) {
+            case 'k' -> 1024L;
+            case 'm' -> 1024L * 1024;
+            case 'g' -> 1024L * 1024 * 1024;
+            default -> 1;
+        };
+        String digits = unit == 1 ? lowerCase : lowerCase.substring(0, lowerCase.length() - 1);
+        try {
+            long bytes = Long.parseLong(digits) * unit;
+            if (bytes > 0) {
+                return bytes;
+            }
+        } catch (NumberFormatException e) {
+            //reported below
+        }
+        throw new IllegalArgumentException("sizes look like 512, 64k, 4m or 1g, not " + size);
+    }
+
+    // Writes the folders for the plan under root unless they are already
+    // there. Returns false if nothing had to be written.
+    static boolean generate(Path root, List<FileSpec> plan, List<String> keyFiles, String description)
+            throws IOException {
+        Path planFile = root.resolve(PLAN_FILE);
+        StringBuilder expected = new StringBuilder(description).append('\n');
+        for (FileSpec file : plan) {
+            expected.append(file).append('\n');
+        }
+        if (Files.exists(planFile) && Files.readString(planFile).contentEquals(expected)) {
+            return false;
+        }
+        if (!Files.exists(planFile) && Files.exists(root.resolve(DATA_FOLDER))) {
+            throw new IOException(root + " already has a data folder the load test didn't make, use another --root=");
+        }//never wipe a folder the load test doesn't own
+
+        Files.deleteIfExists(planFile);
+        deleteRecursively(root.resolve(DATA_FOLDER));
+        deleteRecursively(root.resolve(KEYS_FOLDER));
+        deleteRecursively(root.resolve(".data-cache"));
+        Path data = Files.createDirectories(root.resolve(DATA_FOLDER));
+        Path keys = Files.createDirectories(root.resolve(KEYS_FOLDER));
+
+        for (String keyFile : keyFiles) {
+            writeKey(keys.resolve(keyFile));
+        }
+        long seed = 0;
+        for (FileSpec file : plan) {
+            Path target = data.resolve(file.name());
+            if (file.keyFile() == null) {
+                writeText(target, null, file.bytes(), seed++);
+            } else if (CompressedCipherFile.isCompressed(file.name())) {
+                Path source = data.resolve(file.name() + ".tmp");
+                writeText(source, new Cipher(keys.resolve(file.keyFile()).toString()), file.bytes(), seed++);
+                CompressedCipherFile.compress(source, target, CompressedCipherFile.DEFAULT_BLOCK_SIZE,
+                        ForkJoinPool.commonPool());
+                Files.delete(source);
+            } else {
+                writeText(target, new Cipher(keys.resolve(file.keyFile()).toString()), file.bytes(), seed++);
+            }
+        }
+        Files.writeString(planFile, expected);
+        //written last, so an interrupted run starts over
+        return true;
+    }
+
+    // A key mapping letters and digits onto a shuffled copy of themselves,
+    // shuffled by the key's name so every key is different
+    private static void writeKey(Path keyFile) throws IOException {
+        char[] shuffled = KEY_CHARACTERS.toCharArray();
+        Random random = new Random(keyFile.getFileName().toString().hashCode());
+        for (int i = shuffled.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            char swap = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = swap;
+        }
+        Files.write(keyFile, List.of(KEY_CHARACTERS, new String(shuffled)));
+    }
+
+    // Lines of 6 to 15 random words, streamed through the cipher so big files
+    // are never held in memory
+    private static void writeText(Path file, Cipher cipher, long bytes, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter buffered = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                Writer out = cipher == null ? buffered : new EncryptingWriter(buffered, cipher)) {
+            long written = 0;
+            while (written < bytes) {
+                int words = 6 + random.nextInt(10);
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < words; i++) {
+                    if (i > 0) {
+                        line.append(' ');
+                    }
+                    line.append(WORDS[random.nextInt(WORDS.length)]);
+                }
+                line.append('\n');
+                out.write(line.toString());
+                written += line.length();
+            }
+        }//the words are ASCII, so characters and bytes are the same
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
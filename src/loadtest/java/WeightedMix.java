@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// A choice between named options in given proportions, written like
+// "read:80,head:10,list:10". Weights are relative and don't have to add up to
+// 100; an option without a weight counts as 1.
+public class WeightedMix {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Long> cumulative = new ArrayList<>();
+    private final String text;
+
+    public WeightedMix(String text) {
+        long total = 0;
+        for (String part : text.split(",")) {
+            if (part.isBlank()) {
+                continue;
+            }
+            int colon = part.lastIndexOf(':');
+            String name = (colon < 0 ? part : part.substring(0, colon)).trim();
+            long weight;
+            try {
+                weight = colon < 0 ? 1 : Long.parseLong(part.substring(colon + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("weight of " + name + " needs to be a number in " + text);
+            }
+            if (name.isEmpty() || weight < 0) {
+                throw new IllegalArgumentException("invalid mix " + text);
+            }
+            if (weight == 0) {
+                continue;
+            }
+            total += weight;
+            names.add(name);
+            cumulative.add(total);
+        }
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("mix needs at least one option with a weight: " + text);
+        }
+        this.text = text;
+    }
+
+    public String pick(Random random) {
+        long roll = (long) (random.nextDouble() * cumulative.get(cumulative.size() - 1));
+        for (int i = 0; i < names.size(); i++) {
+            if (roll < cumulative.get(i)) {
+                return names.get(i);
+            }
+        }
+        return names.get(names.size() - 1);
+    }
+
+    public List<String> names() {
+        return names;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,296 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import utilities.CipherInterface;
+import utilities.CompressedCipherFile;
+import utilities.ParallelFileCipher;
+import utilities.ZipStreamWriter;
+
+// Writes many files, decrypted, into one zip archive as a pipeline of three
+// stages joined by bounded queues. A reader thread cuts the files into chunks
+// (decompressing .cipz files on the way), decrypt workers decrypt and deflate
+// the chunks in parallel, and the calling thread writes them into the archive
+// in the order they were read. Every chunk holds a permit from the reader
+// until it is written, so memory stays within the budget however big or many
+// the files are, and a slow disk on either end holds the whole pipeline back
+// instead of filling memory.
+public class ArchiveExport {
+
+    public static final long DEFAULT_MEMORY = 64L * 1024 * 1024;
+    public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+    private static final int DEFAULT_CHUNK_SIZE = ParallelFileCipher.DEFAULT_CHUNK_SIZE;
+    private static final long PROGRESS_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final int workers;
+    private final int chunkSize;
+    private final int chunksInFlight;
+    private final int level;
+
+    // A file to export: its name in the archive, where it is and the cipher it
+    // is decrypted with, null for plain files which are copied as they are
+    public record Source(String name, Path path, CipherInterface cipher, long modified) {
+    }//modified is in milliseconds
+
+    // How far an export has got. bytes counts the decrypted contents, archiveBytes
+    // what was written to the archive so far.
+    public record Progress(int files, int totalFiles, long bytes, long archiveBytes, long nanos) {
+        public double megabytesPerSecond() {
+            return nanos == 0 ? 0 : bytes / 1e6 / (nanos / 1e9);
+        }
+    }
+
+    public ArchiveExport(int workers, long memoryBytes, int level) {
+        this(workers, memoryBytes, level, DEFAULT_CHUNK_SIZE);
+    }
+
+    ArchiveExport(int workers, long memoryBytes, int level, int chunkSize) {
+        if (workers < 1 || chunkSize < 4 || memoryBytes < 1) {
+            throw new IllegalArgumentException("workers, chunk size and memory need to be positive");
+        }
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("compression level needs to be between 0 and 9");
+        }
+        this.workers = workers;
+        this.chunkSize = chunkSize;
+        this.chunksInFlight = (int) Math.max(2, Math.min(Integer.MAX_VALUE / 2, memoryBytes / (3L * chunkSize)));
+        this.level = level;
+    }//a chunk in flight holds its ciphertext, the plaintext and the deflated plaintext, so about three chunk sizes
+
+    // One piece of a file on its way through the pipeline. The reader fills in
+    // the ciphertext, a worker completes done with the result.
+    private static final class Chunk {
+        final int source;
+        final CipherInterface cipher;
+        final byte[] bytes;
+        final int length;
+        final boolean first;
+        final boolean last;
+        final CompletableFuture<Result> done = new CompletableFuture<>();
+
+        Chunk(int source, CipherInterface cipher, byte[] bytes, int length, boolean first, boolean last) {
+            this.source = source;
+            this.cipher = cipher;
+            this.bytes = bytes;
+            this.length = length;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    private record Result(ByteBuffer plain, byte[] deflated, int deflatedLength) {
+    }
+
+    private static final Chunk END = new Chunk(-1, null, new byte[0], 0, false, false);
+
+    // Writes the sources into out as a zip archive, one entry per source in
+    // the given order, calling progress about once a second. Returns the
+    // totals. The stream is flushed but not closed. A source that can't be
+    // read stops the export with an IOException naming the file.
+    public Progress export(List<Source> sources, OutputStream out, Consumer<Progress> progress) throws IOException {
+        long started = System.nanoTime();
+        Semaphore permits = new Semaphore(chunksInFlight);
+        BlockingQueue<Chunk> ordered = new ArrayBlockingQueue<>(chunksInFlight + 1);
+        BlockingQueue<Chunk> work = new ArrayBlockingQueue<>(chunksInFlight + workers);
+        //a permit is taken before a chunk is queued, so neither queue is ever full and the ends always fit
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(Thread.ofPlatform().name("export-read").daemon().start(
+                () -> read(sources, permits, ordered, work)));
+        for (int i = 0; i < workers; i++) {
+            threads.add(Thread.ofPlatform().name("export-decrypt-" + i).daemon().start(() -> deflate(work)));
+        }//platform threads as decrypting and deflating are all CPU work
+
+        ZipStreamWriter zip = new ZipStreamWriter(out);
+        CRC32 crc = new CRC32();
+        long entrySize = 0;
+        int files = 0;
+        long bytes = 0;
+        long nextProgress = started + PROGRESS_INTERVAL_NANOS;
+        try {
+            while (true) {
+                Chunk chunk = ordered.poll(nextProgress - System.nanoTime(), TimeUnit.NANOSECONDS);
+                Result result = null;
+                while (chunk != null && chunk != END && result == null) {
+                    try {
+                        result = chunk.done.get(Math.max(0, nextProgress - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    } catch (ExecutionException e) {
+                        throw failure(sources.get(chunk.source), e.getCause());
+                    } catch (TimeoutException e) {
+                        progress.accept(new Progress(files, sources.size(), bytes, zip.bytesWritten(),
+                                System.nanoTime() - started));
+                        nextProgress = System.nanoTime() + PROGRESS_INTERVAL_NANOS;
+                    }
+                }//report progress even while one big chunk holds everything up
+                if (chunk == END) {
+                    break;
+                }
+                if (result != null) {
+                    Source source = sources.get(chunk.source);
+                    if (chunk.first) {
+                        zip.beginEntry(source.name(), source.modified());
+                    }
+                    crc.update(result.plain().duplicate());
+                    entrySize += result.plain().remaining();
+                    bytes += result.plain().remaining();
+                    zip.writeDeflated(result.deflated(), 0, result.deflatedLength());
+                    permits.release();
+                    if (chunk.last) {
+                        zip.endEntry(crc.getValue(), entrySize);
+                        crc.reset();
+                        entrySize = 0;
+                        files++;
+                    }
+                }
+                if (System.nanoTime() >= nextProgress) {
+                    progress.accept(new Progress(files, sources.size(), bytes, zip.bytesWritten(),
+                            System.nanoTime() - started));
+                    nextProgress = System.nanoTime() + PROGRESS_INTERVAL_NANOS;
+                }
+            }
+            zip.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("export interrupted");
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }//on failure the reader and workers are stopped wherever they are blocked
+        return new Progress(files, sources.size(), bytes, zip.bytesWritten(), System.nanoTime() - started);
+    }
+
+    // The reader stage. Cuts every source into chunks in order and hands each
+    // one both to the workers and, in the same order, to the writer. A failure
+    // is passed on as a chunk that fails, which the writer reaches in turn.
+    private void read(List<Source> sources, Semaphore permits, BlockingQueue<Chunk> ordered,
+            BlockingQueue<Chunk> work) {
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                Source source = sources.get(i);
+                boolean splitCharacters = source.cipher() != null && !source.cipher().isAscii();
+                try (SeekableByteChannel in = CompressedCipherFile.openContents(source.path())) {
+                    byte[] carry = new byte[0];
+                    boolean first = true;
+                    boolean last = false;
+                    while (!last) {
+                        permits.acquire();
+                        byte[] bytes = Arrays.copyOf(carry, carry.length + chunkSize);
+                        ByteBuffer buffer = ByteBuffer.wrap(bytes, carry.length, chunkSize);
+                        while (buffer.hasRemaining() && !last) {
+                            last = in.read(buffer) < 0;
+                        }
+                        int length = buffer.position();
+                        int end = last || !splitCharacters ? length : characterStart(bytes, length);
+                        carry = Arrays.copyOfRange(bytes, end, length);
+                        //the start of a character cut off at the end goes into the next chunk
+
+                        Chunk chunk = new Chunk(i, source.cipher(), bytes, end, first, last);
+                        ordered.put(chunk);
+                        work.put(chunk);
+                        first = false;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Chunk failed = new Chunk(i, null, new byte[0], 0, false, false);
+                    failed.done.completeExceptionally(e);
+                    ordered.put(failed);
+                    return;
+                }
+            }
+            ordered.put(END);
+        } catch (InterruptedException e) {
+            //the writer gave up
+        } finally {
+            for (int i = 0; i < workers; i++) {
+                work.offer(END);
+            }
+        }
+    }
+
+    // The worker stage. Decrypts a chunk and deflates it into raw deflate data
+    // that follows on from the previous chunk of the same file: every chunk
+    // but the last ends with a sync flush, the last one ends the stream.
+    private void deflate(BlockingQueue<Chunk> work) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            while (true) {
+                Chunk chunk = work.take();
+                if (chunk == END) {
+                    return;
+                }
+                try {
+                    ByteBuffer ciphertext = ByteBuffer.wrap(chunk.bytes, 0, chunk.length);
+                    ByteBuffer plain = chunk.cipher == null ? ciphertext
+                            : ParallelFileCipher.decryptChunk(ciphertext, chunk.cipher);
+
+                    deflater.reset();
+                    deflater.setInput(plain.duplicate());
+                    if (chunk.last) {
+                        deflater.finish();
+                    }
+                    byte[] deflated = new byte[plain.remaining() + plain.remaining() / 8 + 64];
+                    int length = 0;
+                    do {
+                        if (length == deflated.length) {
+                            deflated = Arrays.copyOf(deflated, deflated.length * 2);
+                        }
+                        length += deflater.deflate(deflated, length, deflated.length - length,
+                                chunk.last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                    } while (chunk.last ? !deflater.finished() : length == deflated.length);
+                    //a flush that filled the buffer may have more to write
+                    chunk.done.complete(new Result(plain, deflated, length));
+                } catch (IOException | RuntimeException e) {
+                    chunk.done.completeExceptionally(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            //the writer gave up
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Where the last character that starts in bytes[0, length) begins, or
+    // length if no character start is found in the last four bytes
+    private static int characterStart(byte[] bytes, int length) {
+        for (int i = length - 1; i >= Math.max(0, length - 4); i--) {
+            if ((bytes[i] & 0xC0) != 0x80) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static IOException failure(Source source, Throwable cause) {
+        if (cause instanceof UncheckedIOException unchecked) {
+            cause = unchecked.getCause();
+        }
+        String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+        return new IOException(source.name() + ": " + message, cause);
+    }//names the file, NoSuchFileException and the like only give a path
+}
@@ -0,0 +1,270 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Non-blocking front end to FileHandler for services that embed it. Reads run
+// on a dedicated executor, never on the caller's thread. Small files come back
+// whole through a CompletableFuture; big files are published as decrypted
+// chunks that are only handed over as fast as the subscriber asks for them.
+public class AsyncFileHandler implements AutoCloseable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    //bytes per published chunk, only the last chunk of a file is smaller.
+
+    private final FileHandler fileHandler;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int chunkSize;
+
+    public AsyncFileHandler(FileHandler fileHandler) {
+        this(fileHandler, Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("topsecret-io-", 0).factory()),
+                true, DEFAULT_CHUNK_SIZE);
+    }//every read gets its own virtual thread, the executor is shut down by close()
+
+    public AsyncFileHandler(FileHandler fileHandler, ExecutorService executor, int chunkSize) {
+        this(fileHandler, executor, false, chunkSize);
+    }//executor is left running on close(). A publisher keeps one of its threads while the subscriber has no demand
+
+    private AsyncFileHandler(FileHandler fileHandler, ExecutorService executor, boolean ownsExecutor, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this.fileHandler = fileHandler;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.chunkSize = chunkSize;
+    }
+
+    public CompletableFuture<List<String>> getFiles() {
+        return supply(fileHandler::getFiles);
+    }
+
+    // Whole file as a String, like FileHandler.readFile. The file is held in
+    // memory, so use publishFile for big files. Cancelling the future
+    // interrupts the read.
+    public CompletableFuture<String> readFile(String fileName, String keyFile) {
+        return supply(() -> fileHandler.readFile(fileName, keyFile));
+    }
+
+    // Decrypted UTF-8 bytes of a file in chunks. Every subscriber gets its own
+    // read, which blocks before each chunk until the subscriber has requested
+    // it. The decryption under it still runs a little ahead: files of
+    // ParallelFileCipher.DEFAULT_THRESHOLD or more keep up to 2 x pool
+    // parallelism 1 MB chunks in flight (.cipz files as many blocks), and files
+    // that fit the content cache are decrypted whole into it. Memory per
+    // subscriber is one published chunk plus that read-ahead, which doesn't
+    // grow with the file size. Cancelling the subscription stops the read at
+    // the next chunk.
+    public Flow.Publisher<ByteBuffer> publishFile(String fileName, String keyFile) {
+        return subscriber -> {
+            Objects.requireNonNull(subscriber);
+            ChunkSubscription subscription = new ChunkSubscription(subscriber, fileName, keyFile);
+            subscriber.onSubscribe(subscription);
+            try {
+                executor.execute(subscription::run);
+            } catch (RejectedExecutionException e) {
+                subscription.fail(e);
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }//reads still running are interrupted
+
+    private <T> CompletableFuture<T> supply(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> running;
+        try {
+            running = executor.submit(() -> {
+                try {
+                    result.complete(task.call());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                running.cancel(true);
+            }
+        });//CompletableFuture.cancel doesn't reach the thread doing the work by itself
+        return result;
+    }
+
+    // Thrown into the read to stop it once the subscriber went away
+    private static class StoppedException extends IOException {
+        StoppedException() {
+            super("subscription cancelled");
+        }
+    }
+
+    // One subscriber's read. Demand is counted under a lock, and the reading
+    // thread waits for it before handing over each chunk, so onNext is only
+    // ever called on that one thread and never ahead of request(n).
+    private final class ChunkSubscription extends OutputStream implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final String fileName;
+        private final String keyFile;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition demandChanged = lock.newCondition();
+        private long demand;
+        private boolean cancelled;
+        private IllegalArgumentException invalidRequest;
+        //guarded by lock
+
+        private byte[] chunk;
+        private int filled;
+        //only touched by the reading thread
+
+        ChunkSubscription(Flow.Subscriber<? super ByteBuffer> subscriber, String fileName, String keyFile) {
+            this.subscriber = subscriber;
+            this.fileName = fileName;
+            this.keyFile = keyFile;
+        }
+
+        @Override
+        public void request(long n) {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    invalidRequest = new IllegalArgumentException("request must be positive, was " + n);
+                    cancelled = true;
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }//more than Long.MAX_VALUE in total means unbounded
+                demandChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                demandChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void run() {
+            Throwable failure = null;
+            try {
+                fileHandler.readFile(fileName, keyFile, this);
+                if (filled > 0) {
+                    emit();
+                }//last, partial chunk
+            } catch (StoppedException e) {
+                //cancelled, or stopped by an invalid request below
+            } catch (Throwable e) {
+                failure = e;
+            }
+            finish(failure);
+        }
+
+        void fail(Throwable error) {
+            finish(error);
+        }//reading never started
+
+        private void finish(Throwable failure) {
+            IllegalArgumentException error;
+            boolean stopped;
+            lock.lock();
+            try {
+                error = invalidRequest;
+                stopped = cancelled;
+            } finally {
+                lock.unlock();
+            }
+            if (error != null) {
+                subscriber.onError(error);
+            } else if (stopped) {
+                return;
+            } else if (failure != null) {
+                subscriber.onError(failure);
+            } else {
+                subscriber.onComplete();
+            }
+        }//exactly one terminal signal, none after cancel()
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (chunk == null) {
+                    chunk = new byte[chunkSize];
+                }
+                int count = Math.min(length, chunk.length - filled);
+                System.arraycopy(bytes, offset, chunk, filled, count);
+                filled += count;
+                offset += count;
+                length -= count;
+                if (filled == chunk.length) {
+                    emit();
+                }
+            }
+        }//decrypted bytes from FileHandler are cut into chunks here
+
+        private void emit() throws IOException {
+            awaitDemand();
+            ByteBuffer next = ByteBuffer.wrap(chunk, 0, filled).asReadOnlyBuffer();
+            chunk = null;
+            filled = 0;
+            try {
+                subscriber.onNext(next);
+            } catch (RuntimeException e) {
+                cancel();
+                throw new StoppedException();
+            }//a subscriber that throws is treated as gone
+        }//a new array per chunk, the subscriber may keep the buffer
+
+        private void awaitDemand() throws IOException {
+            lock.lock();
+            try {
+                while (demand == 0 && !cancelled) {
+                    demandChanged.await();
+                }
+                if (cancelled) {
+                    throw new StoppedException();
+                }
+                if (demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("read interrupted");
+            } finally {
+                lock.unlock();
+            }
+        }//the read itself waits here, only the decryption's own read-ahead gets past it
+    }
+}
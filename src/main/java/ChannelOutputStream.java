@@ -0,0 +1,28 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+// Buffered output over a channel, like stdout or a daemon client's socket, that
+// also hands out the channel itself. Small writes such as listings and headers
+// are buffered as usual, while FileHandler flushes the buffer and copies whole
+// plain files straight into the channel with FileChannel.transferTo, which the
+// kernel does without the bytes ever reaching the Java heap.
+public class ChannelOutputStream extends BufferedOutputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+
+    public ChannelOutputStream(WritableByteChannel channel) {
+        super(Channels.newOutputStream(channel), BUFFER_SIZE);
+        this.channel = channel;
+    }
+
+    // The channel, after everything buffered so far has been written to it so
+    // the order of the output is kept
+    public synchronized WritableByteChannel channel() throws IOException {
+        flush();
+        return channel;
+    }
+}
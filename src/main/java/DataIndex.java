@@ -0,0 +1,328 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class DataIndex {
+
+    private static final int MAGIC = 0x54534958;
+    private static final int VERSION = 1;
+    //identifies the index file format.
+
+    private static final long RACY_WINDOW_MICROS = 2_000_000;
+    //a folder changed this close to the last scan could have changed again in the same clock tick, so it is rescanned.
+
+    private final Path folder;
+    private final Path indexFile;
+    //folder being indexed and the file the index is saved to.
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Entry> byName = new HashMap<>();
+    private List<String> names = Collections.emptyList();
+    //files in index order. names is an unmodifiable snapshot handed out to callers.
+
+    private long folderModified = -1;
+    private long scannedAt;
+    private boolean loaded;
+    //folder mtime when it was last listed, and when that listing happened.
+
+    public DataIndex(Path folder) {
+        this(folder, defaultIndexFile(folder));
+    }
+
+    public DataIndex(Path folder, Path indexFile) {
+        this.folder = folder;
+        this.indexFile = indexFile;
+    }
+
+    public static Path defaultIndexFile(Path folder) {
+        Path absolute = folder.toAbsolutePath().normalize();
+        return absolute.resolveSibling("." + absolute.getFileName() + "-cache").resolve("index");
+    }//index is kept next to the folder, not inside it, so saving it doesn't change the folder's mtime
+
+    public static class Entry {
+        private final String name;
+        private long size;
+        private long modified;
+
+        Entry(String name, long size, long modified) {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }//modification time in milliseconds
+
+        public boolean isEncrypted() {
+            String lowerCase = name.toLowerCase();
+            return lowerCase.endsWith(".cip") || lowerCase.endsWith(".cipz");
+        }
+    }
+
+    public synchronized List<String> names() throws IOException {
+        refresh();
+        return names;
+    }//numbering is stable: existing files keep their place and new files are added at the end
+
+    public synchronized String resolve(int number) throws IOException {
+        refresh();
+        if (number < 1 || number > entries.size()) {
+            return null;
+        }
+        return entries.get(number - 1).name;
+    }//turn a 1-based file number into a name without copying the listing
+
+    public synchronized Entry entry(String name) throws IOException {
+        refresh();
+        Entry entry = byName.get(name);
+        if (entry != null) {
+            restat(entry);
+        }
+        return entry;
+    }//size and mtime are refreshed for the one file asked for
+
+    public synchronized int size() throws IOException {
+        refresh();
+        return entries.size();
+    }
+
+    public synchronized void refresh() throws IOException {
+        if (!loaded) {
+            load();
+        }
+
+        long modified = modifiedTime(folder);
+        if (modified == folderModified && folderModified < scannedAt - RACY_WINDOW_MICROS) {
+            return;
+        }//folder hasn't gained or lost files since the last listing
+
+        scannedAt = microsNow();
+        Map<String, Boolean> present = new HashMap<>();
+        List<String> added = new ArrayList<>();
+        try (DirectoryStream<Path> listing = Files.newDirectoryStream(folder)) {
+            for (Path path : listing) {
+                String name = path.getFileName().toString();
+                present.put(name, Boolean.TRUE);
+                if (!byName.containsKey(name)) {
+                    added.add(name);
+                }
+            }
+        }//only names are read here, files already in the index are not looked at again
+
+        boolean changed = entries.removeIf(entry -> !present.containsKey(entry.name));
+        byName.keySet().retainAll(present.keySet());
+        //drop files that are gone
+
+        Collections.sort(added);
+        for (String name : added) {
+            Path path = folder.resolve(name);
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            if (attributes.isRegularFile()) {
+                Entry entry = new Entry(name, attributes.size(), attributes.lastModifiedTime().toMillis());
+                entries.add(entry);
+                byName.put(name, entry);
+                changed = true;
+            }
+        }//new files go at the end in name order
+
+        if (changed) {
+            snapshotNames();
+        }
+        if (changed || modified != folderModified || !Files.exists(indexFile)) {
+            folderModified = modified;
+            trySave();
+        }
+    }
+
+    public synchronized void rebuild() throws IOException {
+        entries.clear();
+        byName.clear();
+        loaded = true;
+        folderModified = -1;
+        refresh();
+    }//throw away the saved index and number the folder from scratch
+
+    public Closeable watch() throws IOException {
+        WatchService watcher = folder.getFileSystem().newWatchService();
+        folder.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        refresh();
+
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    List<WatchEvent<?>> events = key.pollEvents();
+                    applyEvents(events);
+                    if (!key.reset()) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                //watcher was closed
+            }
+        }, "data-index-watcher");
+        thread.setDaemon(true);
+        thread.start();
+
+        return () -> {
+            watcher.close();
+            thread.interrupt();
+        };
+    }//keep the index up to date from file system events in long running processes
+
+    private synchronized void applyEvents(List<WatchEvent<?>> events) {
+        boolean changed = false;
+        try {
+            for (WatchEvent<?> event : events) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    folderModified = -1;
+                    refresh();
+                    return;
+                }//too many events were dropped, fall back to a listing
+
+                String name = event.context().toString();
+                Path path = folder.resolve(name);
+                Entry entry = byName.get(name);
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    if (entry != null) {
+                        entries.remove(entry);
+                        byName.remove(name);
+                        changed = true;
+                    }
+                } else if (entry != null) {
+                    restat(entry);
+                } else if (Files.isRegularFile(path)) {
+                    entry = new Entry(name, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+                    entries.add(entry);
+                    byName.put(name, entry);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                snapshotNames();
+            }
+            folderModified = modifiedTime(folder);
+            scannedAt = microsNow();
+            trySave();
+        }
+        catch (IOException e) {
+            folderModified = -1;
+            //next call lists the folder again
+        }
+    }
+
+    private void restat(Entry entry) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(folder.resolve(entry.name), BasicFileAttributes.class);
+            entry.size = attributes.size();
+            entry.modified = attributes.lastModifiedTime().toMillis();
+        } catch (NoSuchFileException e) {
+            folderModified = -1;
+        }//file vanished, the next refresh will drop it
+    }
+
+    private void snapshotNames() {
+        List<String> snapshot = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            snapshot.add(entry.name);
+        }
+        names = Collections.unmodifiableList(snapshot);
+    }
+
+    private void load() throws IOException {
+        loaded = true;
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }//unknown format, start over
+            long savedFolderModified = in.readLong();
+            long savedScannedAt = in.readLong();
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("bad entry count " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong());
+                if (byName.putIfAbsent(entry.name, entry) != null) {
+                    throw new IOException("duplicate entry " + entry.name);
+                }
+                entries.add(entry);
+            }
+            folderModified = savedFolderModified;
+            scannedAt = savedScannedAt;
+            snapshotNames();
+        }
+        catch (IOException | RuntimeException e) {
+            entries.clear();
+            byName.clear();
+            names = Collections.emptyList();
+            //truncated, damaged or unreadable index, the folder is numbered again from scratch
+        }
+    }
+
+    private void trySave() {
+        try {
+            save();
+        }
+        catch (IOException e) {
+            System.err.println("error saving data index " + e.getMessage());
+        }//the index is only a cache, the listing in memory is still right
+    }
+
+    private void save() throws IOException {
+        Files.createDirectories(indexFile.getParent());
+        Path temp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(folderModified);
+                out.writeLong(scannedAt);
+                out.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    out.writeUTF(entry.name);
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.modified);
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+        //write then rename so a crash never leaves half an index behind,
+        //unique temp name because several runs can save the same index at once
+    }
+
+    private static long modifiedTime(Path path) throws IOException {
+        return Files.getLastModifiedTime(path).to(TimeUnit.MICROSECONDS);
+    }
+
+    private static long microsNow() {
+        return TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    }
+}
@@ -1,21 +1,188 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
 import utilities.Cipher;
+import utilities.CipherInterface;
+import utilities.CipherRegistry;
+import utilities.Ciphers;
+import utilities.CompiledKey;
+import utilities.CompressedCipherFile;
+import utilities.ContentCache;
+import utilities.DecryptingReader;
+import utilities.EncryptingWriter;
+import utilities.ListFilesEvent;
+import utilities.ParallelFileCipher;
+import utilities.ReadFileEvent;
+import utilities.RekeyCipher;
 
 public class FileHandler {
 
-    private static final String filesFolder = "data";
+    private static final String DEFAULT_FILES_FOLDER = "data";
+    private static final String DEFAULT_KEYS_FOLDER = "ciphers";
+    private static final String DEFAULT_KEY_FILE = "key.txt";
+    //default folders and key used by the command line.
+
+    private final String filesFolder;
     //variable that stores file name for data.
 
+    private final FileListing listing;
+    //data folder plus any other folders the list command scans.
+
+    private final String keysFolder;
+    //folder holding the cipher key files.
+
+    private static final int BUFFER_SIZE = 8192;
+    //number of characters decrypted per chunk when streaming.
+
+    private final ParallelFileCipher parallelCipher;
+    private final ForkJoinPool decryptPool;
+    //splits big encrypted files into chunks decrypted on all cores.
+
+    private final CipherRegistry cipherRegistry;
+    //loaded keys, reused until the key file changes.
+
+    private final DataIndex dataIndex;
+    //saved listing of the data folder with stable file numbers.
+
+    private final SearchIndex searchIndex;
+    //trigrams of the ciphertext, so searches skip files that can't match.
+
+    private final ConcurrentHashMap<Path, LineIndex> lineIndexes = new ConcurrentHashMap<>();
+    //line offsets of files read by line, checked against the file's mtime and size before use.
+
+    private final ContentCache contentCache;
+    //decrypted contents of recently read files, null when caching is off.
+
+    private static final long RACY_WINDOW_MILLIS = 2000;
+    //files changed this recently aren't cached, they could change again without their mtime moving.
+
+    public FileHandler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public FileHandler(ForkJoinPool decryptPool) {
+        this(decryptPool, new CipherRegistry());
+    }//pool used to decrypt big files, defaults to the common pool
+
+    public FileHandler(ForkJoinPool decryptPool, CipherRegistry cipherRegistry) {
+        this(DEFAULT_FILES_FOLDER, DEFAULT_KEYS_FOLDER, decryptPool, cipherRegistry);
+    }//registry can be shared between file handlers
+
+    public FileHandler(ForkJoinPool decryptPool, CipherRegistry cipherRegistry, ContentCache contentCache) {
+        this(DEFAULT_FILES_FOLDER, DEFAULT_KEYS_FOLDER, decryptPool, cipherRegistry, contentCache);
+    }//keep decrypted files in memory between reads, used by long running processes
+
+    public FileHandler(String filesFolder, String keysFolder) {
+        this(filesFolder, keysFolder, ForkJoinPool.commonPool(), new CipherRegistry());
+    }//read data and keys from other folders, used by benchmarks and tests
+
+    public FileHandler(String filesFolder, String keysFolder, ForkJoinPool decryptPool, CipherRegistry cipherRegistry) {
+        this(filesFolder, keysFolder, decryptPool, cipherRegistry, null);
+    }
+
+    public FileHandler(String filesFolder, String keysFolder, ForkJoinPool decryptPool, CipherRegistry cipherRegistry,
+            ContentCache contentCache) {
+        this(List.of(filesFolder), keysFolder, decryptPool, cipherRegistry, contentCache);
+    }
+
+    public FileHandler(List<String> filesFolders, ForkJoinPool decryptPool, CipherRegistry cipherRegistry,
+            ContentCache contentCache) {
+        this(filesFolders, DEFAULT_KEYS_FOLDER, decryptPool, cipherRegistry, contentCache);
+    }//files are numbered, read and searched in the first folder, the others are only listed
+
+    public FileHandler(List<String> filesFolders, String keysFolder, ForkJoinPool decryptPool,
+            CipherRegistry cipherRegistry, ContentCache contentCache) {
+        String filesFolder = filesFolders.get(0);
+        List<Path> roots = new ArrayList<>();
+        for(String folder : filesFolders){
+            roots.add(Paths.get(folder));
+        }
+        this.filesFolder = filesFolder;
+        this.listing = new FileListing(roots);
+        this.keysFolder = keysFolder;
+        this.parallelCipher = new ParallelFileCipher(decryptPool);
+        this.decryptPool = decryptPool;
+        this.cipherRegistry = cipherRegistry;
+        this.dataIndex = new DataIndex(Paths.get(filesFolder));
+        this.searchIndex = new SearchIndex(Paths.get(filesFolder));
+        this.contentCache = contentCache;
+    }
+
+    public int preloadCiphers() throws IOException {
+        return cipherRegistry.preload(Paths.get(keysFolder));
+    }//load every key in the ciphers folder up front so the first read doesn't pay for it
+
+    public List<String> getKeyFiles() throws IOException {
+        List<String> keyFiles = new ArrayList<>();
+        try(DirectoryStream<Path> listing = Files.newDirectoryStream(Paths.get(keysFolder), "*.txt")){
+            for(Path keyFile : listing){
+                keyFiles.add(keyFile.getFileName().toString());
+            }
+        }
+        Collections.sort(keyFiles);
+        return keyFiles;
+    }//text keys in the ciphers folder, compiled keys are left out
+
+    public String compileKey(String keyFile) {
+        Path compiled = CompiledKey.compile(Paths.get(keyFilePath(keyFile)));
+        cipherRegistry.invalidate(keyFilePath(keyFile));
+        return compiled.getFileName().toString();
+    }//key.txt is compiled to key.tsk next to it, which is loaded instead from now on
+
     public List<String> getFiles() {
+        ListFilesEvent event = new ListFilesEvent();
+        event.begin();
+        List<String> files = listFiles();
+        if(event.shouldCommit()){
+            event.folder = filesFolder;
+            event.files = files.size();
+            event.commit();
+        }//only filled in while a recording wants the event, otherwise this costs next to nothing
+        return files;
+    }
+
+    public long listFiles(FileListing.Query query, Consumer<FileListing.Entry> sink) throws IOException {
+        ListFilesEvent event = new ListFilesEvent();
+        event.begin();
+        long count = listing.list(query, sink);
+        if(event.shouldCommit()){
+            event.folder = listing.getRoots().toString();
+            event.files = (int) Math.min(count, Integer.MAX_VALUE);
+            event.commit();
+        }
+        return count;
+    }//lists every data folder straight from disk a page at a time, numbered files only come from the first
+
+    public List<Path> getFilesFolders() {
+        return listing.getRoots();
+    }
+
+    private List<String> listFiles() {
     //method to get files in data folder
 
-        List<String> fileNames = new ArrayList<>();
         Path folderPath = Paths.get(filesFolder);
 
         if (!(Files.exists(folderPath)) || !(Files.isDirectory(folderPath))) {
@@ -23,49 +190,62 @@ public class FileHandler {
         }//check if file exists
 
         try{
-            File folder = folderPath.toFile();
-            //convert path to folder
-            File[] files = folder.listFiles();
-            //store files in array.
-
-            if (files != null) {//make sure files arent empty
-                for(File file : files ){
-                    if(file.isFile()){
-                        fileNames.add(file.getName());
-                    }
-                }//add files to List.
-            }
+            return dataIndex.names();
+            //served from the saved index, the folder is only listed again when files are added or removed
         }
-        catch (Exception e) {
+        catch (IOException e) {
             System.out.println("error reading data folder" + e.getMessage());
         }
         //trycatch block to catch any errors while getting files from data folder
 
-        return fileNames;
+        return new ArrayList<>();
     }
 
+    public DataIndex getDataIndex() {
+        return dataIndex;
+    }//index of the data folder, for sizes and mtimes or to watch it for changes
+
+    public ContentCache getContentCache() {
+        return contentCache;
+    }//null when caching is off, otherwise its hit, miss and eviction counts
+
     public String readFile(String fileName, String keyFile) {
-        String fileContents = "";
-        File file = new File(filesFolder + File.separator + fileName);
-        //create file object for targetted file. get file path with File.seperator.
+        StringBuilder fileContents = new StringBuilder();
+        File file = getFile(fileName);
+        //get the targetted file, throws if it is missing
 
-        if (!file.exists()) {
-            throw new RuntimeException("file not found");
-        }//if file is missing throw error
+        if(isEncrypted(fileName) && contentCache != null){
+            try{
+                ByteBuffer cached = cachedContents(file, keyFile, loadCipher(keyFile));
+                if(cached != null){
+                    BufferedReader bufferedReader = new BufferedReader(new StringReader(StandardCharsets.UTF_8.decode(cached).toString()));
+                    String line;
+                    while((line = bufferedReader.readLine()) != null){
+                        fileContents.append(line);
+                        fileContents.append("\n");
+                    }//same line endings as reading the file below
+                    return fileContents.toString();
+                }
+            }
+            catch (IOException | RuntimeException e){
+                //read it the usual way, which reports the error
+            }
+        }//serve the decrypted contents from memory when the file and key haven't changed
 
+        ReadFileEvent event = new ReadFileEvent();
+        event.begin();
         try{
-            FileReader fileReader = new FileReader(file);
-            BufferedReader bufferedReader = new BufferedReader(fileReader);
-            //objects for line by line reading
+            BufferedReader bufferedReader = new BufferedReader(openFile(file, null));
+            //objects for line by line reading, .cipz files are decompressed on the way
 
             String line = "";
             //string to store each line of the file
 
 
             while((line = bufferedReader.readLine()) != null){
-                fileContents += line;
-                fileContents += "\n";
-            }//read each line in file per iteration and adds line to the string. go to new line with \n
+                fileContents.append(line);
+                fileContents.append("\n");
+            }//read each line in file per iteration and adds line to the builder. go to new line with \n
 
             bufferedReader.close();
             //close file reader.
@@ -76,20 +256,14 @@ public class FileHandler {
             System.out.println("error reading the file" + e.getMessage());
         }
         //use try-catch block to catch any errors while reading file so code doesn't just crash
+        commitRead(event, fileName);
+        //only the read itself is timed, the key and the decryption below have their own events
 
-        if(fileName.toLowerCase().endsWith(".cip")){
+        if(isEncrypted(fileName)){
             try{
-                Cipher cipher;
-                if(keyFile != null){
-                    cipher = new Cipher("ciphers/" + keyFile);
-                }
-                else{
-                    cipher = new Cipher();
-                }
-                //check which key to use based on number of arguments passed.
-
-                fileContents = cipher.decrypt(fileContents);
-                //set the string to decrypted contents
+                Cipher cipher = loadCipher(keyFile);
+                return cipher.decrypt(fileContents.toString());
+                //return the decrypted contents
             }
             catch (RuntimeException e){
                 System.out.println("error decrypting file" + e.getMessage());
@@ -97,8 +271,509 @@ public class FileHandler {
         }//if the file ends with cip, decrypt it first.
 
 
-        return fileContents;
+        return fileContents.toString();
         //return file as a string
     }
 
+    public Reader openFile(String fileName, String keyFile) throws IOException {
+        File file = getFile(fileName);
+        Cipher cipher = isEncrypted(fileName) ? loadCipher(keyFile) : null;
+        //load the key first so a bad key doesn't leave the file open
+
+        return openFile(file, cipher);
+        //caller is responsible for closing the reader
+    }
+
+    public void readFile(String fileName, String keyFile, OutputStream out) throws IOException {
+        readFile(fileName, keyFile, toChannel(out));
+    }
+
+    public void readFile(String fileName, String keyFile, WritableByteChannel out) throws IOException {
+        readContents(fileName, keyFile, out);
+    }//plain files are copied byte for byte with transferTo, straight from the page cache when out is a file or socket
+
+    public long lineCount(String fileName) throws IOException {
+        return lineIndex(getFile(fileName)).lineCount();
+    }
+
+    public void readLines(String fileName, String keyFile, long firstLine, long count, OutputStream out) throws IOException {
+        File file = getFile(fileName);
+        LineIndex index = lineIndex(file);
+        //first line is 1, lines past the end are left out
+
+        long start;
+        long end;
+        try(SeekableByteChannel channel = CompressedCipherFile.openContents(file.toPath())){
+            start = index.lineStart(channel, firstLine - 1);
+            end = index.lineStart(channel, firstLine - 1 + count);
+        }//jump to the nearest stored line start and step over at most 63 lines
+
+        readRange(fileName, keyFile, start, end - start, out);
+    }
+
+    public void readRange(String fileName, String keyFile, long offset, long length, OutputStream out) throws IOException {
+        File file = getFile(fileName);
+        Cipher cipher = isEncrypted(fileName) ? loadCipher(keyFile) : null;
+
+        if(cipher != null && CompressedCipherFile.isCompressed(fileName)){
+            try(CompressedCipherFile compressed = CompressedCipherFile.open(file.toPath())){
+                compressed.decrypt(offset, length, toChannel(out), Ciphers.fastest(cipher), decryptPool);
+            }
+            return;
+        }//offsets are in the uncompressed ciphertext, only the blocks they overlap are read
+
+        if(cipher != null){
+            parallelCipher.decrypt(file.toPath(), offset, length, toChannel(out), Ciphers.fastest(cipher));
+            return;
+        }//only the requested bytes are read and decrypted
+
+        transfer(file, offset, length, toChannel(out));
+        //plain files are copied as they are
+    }
+
+    private void transfer(File file, long offset, long length, WritableByteChannel target) throws IOException {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            long size = channel.size();
+            long position = Math.min(offset, size);
+            long end = length >= size - position ? size : position + length;
+            while(position < end){
+                position += channel.transferTo(position, end - position, target);
+            }
+        }
+    }//sendfile or copy_file_range when the target is a file or socket, otherwise through a small reused buffer
+
+    private LineIndex lineIndex(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        LineIndex index = lineIndexes.get(path);
+        if(index == null || !index.matches(attributes.lastModifiedTime().toMillis(), attributes.size())){
+            index = LineIndex.open(path);
+            lineIndexes.put(path, index);
+        }//built on first use and again whenever the file changes
+        return index;
+    }
+
+    private void commitRead(ReadFileEvent event, String fileName) {
+        if(event.shouldCommit()){
+            event.file = fileName;
+            event.bytes = new File(filesFolder + File.separator + fileName).length();
+            event.encrypted = isEncrypted(fileName);
+            event.commit();
+        }
+    }//bytes is the size on disk
+
+    private void readContents(String fileName, String keyFile, WritableByteChannel out) throws IOException {
+        File file = getFile(fileName);
+        Cipher cipher = isEncrypted(fileName) ? loadCipher(keyFile) : null;
+
+        if(cipher != null){
+            ByteBuffer cached = cachedContents(file, keyFile, cipher);
+            if(cached != null){
+                while(cached.hasRemaining()){
+                    out.write(cached);
+                }
+                return;
+            }//small enough to keep in memory, decrypted at most once per version of the file
+
+            decrypt(file, out, cipher);
+            return;
+        }//encrypted files are decrypted in chunks, in parallel once they are big enough.
+        //ascii keys decrypt the raw bytes directly, skipping charset decoding
+
+        ReadFileEvent event = new ReadFileEvent();
+        event.begin();
+        transfer(file, 0, Long.MAX_VALUE, out);
+        commitRead(event, fileName);
+        //nothing to decrypt, so the bytes are passed on untouched, a missing last newline included.
+        //encrypted files above are read as they are decrypted, so that time only shows up as decrypt
+    }
+
+    public String encryptFile(String fileName, String keyFile) throws IOException {
+        return encryptFile(fileName, keyFile, null);
+    }
+
+    private String encryptFile(String fileName, String keyFile, Checksum checksum) throws IOException {
+        if(isEncrypted(fileName)){
+            throw new RuntimeException("file is already encrypted");
+        }
+        File file = getFile(fileName);
+        Cipher cipher = loadCipher(keyFile);
+        String encryptedName = encryptedName(fileName);
+        //carnivore.txt is written to carnivore.cip next to it
+
+        Path folder = Paths.get(filesFolder);
+        Path staging = DataIndex.defaultIndexFile(folder).getParent();
+        Files.createDirectories(staging);
+        Path temp = Files.createTempFile(staging, encryptedName, ".tmp");
+        //write to a temp file outside the data folder so a half written file is never listed
+
+        try{
+            InputStream in = Channels.newInputStream(CompressedCipherFile.openContents(file.toPath()));
+            if(checksum != null){
+                in = new CheckedInputStream(in, checksum);
+            }//the plain bytes are checksummed in the same pass that encrypts them
+            try(Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+                FileOutputStream fileOut = new FileOutputStream(temp.toFile())){
+                Writer writer = new EncryptingWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8), cipher);
+                char[] buffer = new char[BUFFER_SIZE];
+
+                int read;
+                while((read = reader.read(buffer)) != -1){
+                    writer.write(buffer, 0, read);
+                }//encrypt chunk by chunk so memory stays the same for any file size
+
+                writer.flush();
+                fileOut.getFD().sync();
+                //make sure the contents are on disk before the file appears under its real name
+            }
+            moveIntoPlace(temp, folder.resolve(encryptedName));
+        }
+        finally{
+            Files.deleteIfExists(temp);
+        }//temp file is only left over if something failed
+
+        return encryptedName;
+    }
+
+    public SyncManifest openSyncManifest(String keyFile) throws IOException {
+        loadCipher(keyFile);
+        //a missing or invalid key is reported before any file is looked at
+        CRC32C keyChecksum = new CRC32C();
+        keyChecksum.update(Files.readAllBytes(Paths.get(keyFilePath(keyFile))));
+        SyncManifest manifest = new SyncManifest(Paths.get(filesFolder), keyFile != null ? keyFile : DEFAULT_KEY_FILE,
+                keyChecksum.getValue());
+        manifest.load();
+        return manifest;
+    }//shared by every file of one sync run, save() it once they are done. Editing the key encrypts everything again
+
+    public String syncFile(String fileName, String keyFile, SyncManifest manifest) throws IOException {
+        if(isEncrypted(fileName)){
+            throw new RuntimeException("file is already encrypted");
+        }
+        Path plain = getFile(fileName).toPath();
+        String encryptedName = encryptedName(fileName);
+        Path encrypted = Paths.get(filesFolder).resolve(encryptedName);
+        BasicFileAttributes before = Files.readAttributes(plain, BasicFileAttributes.class);
+        long modified = before.lastModifiedTime().toMillis();
+
+        SyncManifest.Entry entry = manifest.get(fileName);
+        if(entry != null && manifest.isCurrentKey(entry) && entry.cipherName.equals(encryptedName)
+                && isUnchanged(encrypted, entry.cipherSize, entry.cipherModified)){
+            if(entry.plainSize == before.size() && entry.plainModified == modified){
+                return null;
+            }//neither file changed since the last sync, nothing is read
+
+            if(entry.plainSize == before.size() && checksum(plain) == entry.plainChecksum){
+                manifest.put(fileName, new SyncManifest.Entry(before.size(), trustedModified(modified),
+                        entry.plainChecksum, entry.keyFile, entry.keyChecksum, entry.cipherName, entry.cipherSize,
+                        entry.cipherModified));
+                return null;
+            }//touched but the same contents, only the new mtime is recorded
+        }
+
+        CRC32C checksum = new CRC32C();
+        encryptFile(fileName, keyFile, checksum);
+        BasicFileAttributes after = Files.readAttributes(plain, BasicFileAttributes.class);
+        BasicFileAttributes written = Files.readAttributes(encrypted, BasicFileAttributes.class);
+        boolean stable = after.size() == before.size() && after.lastModifiedTime().toMillis() == modified;
+        manifest.put(fileName, new SyncManifest.Entry(after.size(), stable ? trustedModified(modified) : -1,
+                (int) checksum.getValue(), manifest.getKeyFile(), manifest.getKeyChecksum(), encryptedName,
+                written.size(), written.lastModifiedTime().toMillis()));
+        //a file changed while it was encrypted is checked again next time
+        return encryptedName;
+    }//returns the .cip file written, or null if it was already up to date
+
+    public List<String> removeSyncOrphans(SyncManifest manifest) throws IOException {
+        Path folder = Paths.get(filesFolder);
+        List<String> removed = new ArrayList<>();
+        for(String plainName : manifest.plainNames()){
+            if(Files.exists(folder.resolve(plainName))){
+                continue;
+            }
+            SyncManifest.Entry entry = manifest.remove(plainName);
+            Path encrypted = folder.resolve(entry.cipherName);
+            if(isUnchanged(encrypted, entry.cipherSize, entry.cipherModified)){
+                Files.delete(encrypted);
+                removed.add(entry.cipherName);
+            }//a .cip file changed since sync wrote it is somebody else's now and is kept
+        }
+        Collections.sort(removed);
+        return removed;
+    }//deletes .cip files sync wrote whose plain file is gone
+
+    private boolean isUnchanged(Path file, long size, long modified) throws IOException {
+        try{
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified;
+        }
+        catch (NoSuchFileException e){
+            return false;
+        }
+    }
+
+    private long trustedModified(long modified) {
+        return modified > System.currentTimeMillis() - RACY_WINDOW_MILLIS ? -1 : modified;
+    }//a file written this recently could change again without its mtime moving, so it is checksummed next time
+
+    private static int checksum(Path file) throws IOException {
+        CRC32C checksum = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            while(channel.read(buffer) != -1){
+                buffer.flip();
+                checksum.update(buffer);
+                buffer.clear();
+            }
+        }
+        return (int) checksum.getValue();
+    }//CRC32C runs on the CPU's crc32 instructions, so this is about as fast as the file can be read
+
+    public ArchiveExport.Progress exportArchive(List<String> fileNames, String keyFile, Path archive,
+            ArchiveExport export, Consumer<ArchiveExport.Progress> progress) throws IOException {
+        Path target = archive.toAbsolutePath().normalize();
+        Path folder = Paths.get(filesFolder).toAbsolutePath().normalize();
+        if(target.getParent() == null || target.getParent().equals(folder)){
+            throw new RuntimeException("the archive can't be written into the data folder");
+        }//it would be listed and exported with everything else next time
+
+        List<ArchiveExport.Source> sources = new ArrayList<>();
+        CipherInterface cipher = null;
+        for(String fileName : fileNames){
+            File file = getFile(fileName);
+            if(isEncrypted(fileName) && cipher == null){
+                cipher = Ciphers.fastest(loadCipher(keyFile));
+            }//a missing or invalid key is reported before anything is written
+            sources.add(new ArchiveExport.Source(fileName, file.toPath(), isEncrypted(fileName) ? cipher : null,
+                    file.lastModified()));
+        }//entries keep the names they have in the data folder, so carnivore.txt and carnivore.cip don't clash
+
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try{
+            ArchiveExport.Progress done;
+            try(FileOutputStream fileOut = new FileOutputStream(temp.toFile())){
+                OutputStream out = new BufferedOutputStream(fileOut, 64 * 1024);
+                done = export.export(sources, out, progress);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            moveIntoPlace(temp, target);
+            return done;
+        }
+        finally{
+            Files.deleteIfExists(temp);
+        }//a failed export leaves no archive behind, and an earlier one under the same name is kept
+    }//every file decrypted with the one key into a zip archive, see ArchiveExport
+
+    public String compressFile(String fileName) throws IOException {
+        if(!isEncrypted(fileName) || CompressedCipherFile.isCompressed(fileName)){
+            throw new RuntimeException("only .cip files can be compressed");
+        }
+        File file = getFile(fileName);
+        String compressedName = fileName.substring(0, fileName.length() - ".cip".length()) + CompressedCipherFile.EXTENSION;
+        //carnivore.cip is written to carnivore.cipz next to it, no key is needed
+
+        Path folder = Paths.get(filesFolder);
+        Path staging = DataIndex.defaultIndexFile(folder).getParent();
+        Files.createDirectories(staging);
+        Path temp = Files.createTempFile(staging, compressedName, ".tmp");
+
+        try{
+            CompressedCipherFile.compress(file.toPath(), temp, CompressedCipherFile.DEFAULT_BLOCK_SIZE, decryptPool);
+            moveIntoPlace(temp, folder.resolve(compressedName));
+        }
+        finally{
+            Files.deleteIfExists(temp);
+        }//same as encrypting, the .cipz only appears once it is complete
+
+        return compressedName;
+    }
+
+    public List<String> searchCandidates(String query, String keyFile, boolean useIndex) throws IOException {
+        List<String> encryptedFiles = new ArrayList<>();
+        for(String fileName : getFiles()){
+            if(isEncrypted(fileName)){
+                encryptedFiles.add(fileName);
+            }
+        }//only .cip and .cipz files are searched
+
+        if(!useIndex){
+            return encryptedFiles;
+        }
+        return searchIndex.candidates(encryptedFiles, loadCipher(keyFile).encrypt(query));
+        //the index holds ciphertext, so it is asked about the encrypted query
+    }
+
+    public List<String> searchFile(String fileName, String query, String keyFile) throws IOException {
+        File file = getFile(fileName);
+        Cipher cipher = loadCipher(keyFile);
+        String encryptedQuery = cipher.encrypt(query);
+        //encrypt the query once instead of decrypting the whole file
+        List<String> matches = new ArrayList<>();
+
+        try(BufferedReader reader = new BufferedReader(openFile(file, null), BUFFER_SIZE)){
+            String line;
+            int lineNumber = 0;
+            while((line = reader.readLine()) != null){
+                lineNumber++;
+                if(line.contains(encryptedQuery)){
+                    String decrypted = cipher.decrypt(line);
+                    if(decrypted.contains(query)){
+                        matches.add(lineNumber + ": " + decrypted);
+                    }//a key that maps two characters to the same one can match lines that don't really contain the query
+                }//only matching lines are decrypted
+            }
+        }
+        return matches;
+    }
+
+    public RekeyJournal openRekeyJournal(String oldKeyFile, String newKeyFile) throws IOException {
+        if(oldKeyFile.equals(newKeyFile)){
+            throw new RuntimeException("old and new key are the same");
+        }
+        RekeyJournal journal = new RekeyJournal(Paths.get(filesFolder));
+        journal.open(oldKeyFile, newKeyFile);
+        return journal;
+    }//journal shared by every file of one re-key run, finish() it once they all succeeded
+
+    public String rekeyFile(String fileName, String oldKeyFile, String newKeyFile, RekeyJournal journal)
+            throws IOException {
+        if(!isEncrypted(fileName)){
+            throw new RuntimeException("file is not encrypted");
+        }
+        File file = getFile(fileName);
+        Path temp = journal.tempFile(fileName);
+
+        RekeyJournal.State state = journal.state(fileName);
+        if(state == RekeyJournal.State.DONE){
+            return "already re-keyed";
+        }
+        if(state == RekeyJournal.State.STAGED){
+            if(Files.exists(temp)){
+                moveIntoPlace(temp, file.toPath());
+            }//the temp file is complete, only the rename was missed
+            journal.done(fileName);
+            return "re-keyed";
+        }//an earlier run stopped half way through this file
+
+        RekeyCipher cipher = new RekeyCipher(loadCipher(oldKeyFile), loadCipher(newKeyFile));
+        //one table from old ciphertext to new ciphertext, the plaintext is never produced
+
+        if(CompressedCipherFile.isCompressed(fileName)){
+            try(CompressedCipherFile compressed = CompressedCipherFile.open(file.toPath())){
+                compressed.recode(temp, cipher, decryptPool);
+            }//block by block, the new blocks are compressed again
+        }
+        else{
+            try(FileOutputStream fileOut = new FileOutputStream(temp.toFile())){
+                parallelCipher.decrypt(file.toPath(), fileOut.getChannel(), cipher);
+                fileOut.getFD().sync();
+            }//same chunked, parallel pass used to decrypt, writing the new ciphertext
+        }
+
+        journal.staged(fileName);
+        moveIntoPlace(temp, file.toPath());
+        journal.done(fileName);
+        return "re-keyed";
+    }
+
+    private void moveIntoPlace(Path temp, Path target) throws IOException {
+        try{
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e){
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }//readers see either the old file or the whole new one, unless the cache is on another file system
+    }
+
+    private String encryptedName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+        return baseName + ".cip";
+    }
+
+    private ByteBuffer cachedContents(File file, String keyFile, Cipher cipher) throws IOException {
+        if(contentCache == null){
+            return null;
+        }
+        Path path = file.toPath().toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+        if(!contentCache.accepts(attributes.size()) || modified > System.currentTimeMillis() - RACY_WINDOW_MILLIS){
+            return null;
+        }//too big to cache, or changed so recently that it could change again unnoticed
+
+        Path keyPath = Paths.get(keyFilePath(keyFile)).toAbsolutePath().normalize();
+        ContentCache.Key key = new ContentCache.Key(path, modified, attributes.size(), keyPath,
+                Files.getLastModifiedTime(keyPath).toMillis());
+        ByteBuffer contents = contentCache.get(key);
+        if(contents == null){
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream((int) attributes.size());
+            decrypt(file, Channels.newChannel(decrypted), cipher);
+            byte[] bytes = decrypted.toByteArray();
+            contentCache.put(key, bytes);
+            contents = ByteBuffer.wrap(bytes);
+        }//decrypt once and keep it for the next read
+        return contents;
+    }
+
+    private void decrypt(File file, WritableByteChannel target, Cipher cipher) throws IOException {
+        if(CompressedCipherFile.isCompressed(file.getName())){
+            try(CompressedCipherFile compressed = CompressedCipherFile.open(file.toPath())){
+                compressed.decrypt(target, Ciphers.fastest(cipher), decryptPool);
+            }
+            return;
+        }//blocks are decompressed and decrypted in parallel
+        parallelCipher.decrypt(file.toPath(), target, Ciphers.fastest(cipher));
+    }
+
+    private Reader openFile(File file, Cipher cipher) throws IOException {
+        Reader reader = new InputStreamReader(Channels.newInputStream(CompressedCipherFile.openContents(file.toPath())),
+                StandardCharsets.UTF_8);
+        //read the raw characters without splitting lines so line endings are kept, .cipz blocks are decompressed in turn
+
+        if(cipher != null){
+            reader = new DecryptingReader(reader, cipher);
+        }//wrap encrypted files so they are decrypted as they are read
+
+        return reader;
+    }
+
+    private WritableByteChannel toChannel(OutputStream out) throws IOException {
+        if(out instanceof FileOutputStream fileOut){
+            return fileOut.getChannel();
+        }
+        if(out instanceof ChannelOutputStream channelOut){
+            return channelOut.channel();
+        }//stdout or a daemon client, flushed first so earlier output stays in front
+        return Channels.newChannel(out);
+        //the channel is never closed so the caller's stream stays open
+    }
+
+    private File getFile(String fileName) {
+        File file = new File(filesFolder + File.separator + fileName);
+        //create file object for targetted file. get file path with File.seperator.
+
+        if (!file.exists()) {
+            throw new RuntimeException("file not found");
+        }//if file is missing throw error
+
+        return file;
+    }
+
+    private boolean isEncrypted(String fileName) {
+        return fileName.toLowerCase().endsWith(".cip") || CompressedCipherFile.isCompressed(fileName);
+    }
+
+    private Cipher loadCipher(String keyFile) {
+        return cipherRegistry.get(keyFilePath(keyFile));
+    }
+
+    private String keyFilePath(String keyFile) {
+        if(keyFile != null){
+            return keysFolder + File.separator + keyFile;
+        }
+        return keysFolder + File.separator + DEFAULT_KEY_FILE;
+        //check which key to use based on number of arguments passed.
+    }
+
 }
@@ -0,0 +1,296 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// Lists one or more data folders straight from the file system, for folders too
+// big to number and print in one go. Entries are read with a DirectoryStream and
+// handed to the caller one at a time, so memory doesn't grow with the folder:
+// unsorted pages stop reading once the page is full, and sorted pages only keep
+// the entries that can still end up on the page. Every folder is scanned on its
+// own virtual thread.
+public class FileListing {
+
+    public enum Sort { NONE, NAME, SIZE, MODIFIED }
+    //NONE is the order the file system returns, the cheapest as nothing has to be held back.
+
+    private static final int QUEUE_SIZE = 1024;
+    //entries a folder can be read ahead of the one being written.
+
+    private final List<Path> roots;
+
+    public FileListing(List<Path> roots) {
+        if (roots.isEmpty()) {
+            throw new IllegalArgumentException("no data folders to list");
+        }
+        this.roots = List.copyOf(roots);
+    }
+
+    public record Entry(Path root, String name, long size, long modified) {
+        public Path path() {
+            return root.resolve(name);
+        }
+    }//modified is in milliseconds
+
+    // What to list. Files can be picked by a glob on the name and by a list of
+    // extensions, which ignore case. Page numbers start at 1, a page size of 0
+    // lists everything.
+    public static class Query {
+        private String glob = "*";
+        private List<String> extensions = List.of();
+        private Sort sort = Sort.NONE;
+        private boolean descending;
+        private long page = 1;
+        private int pageSize;
+
+        public Query glob(String glob) {
+            this.glob = glob == null ? "*" : glob;
+            return this;
+        }
+
+        public Query extensions(List<String> extensions) {
+            List<String> normalized = new ArrayList<>();
+            for (String extension : extensions) {
+                String lowerCase = extension.trim().toLowerCase(Locale.ROOT);
+                if (!lowerCase.isEmpty()) {
+                    normalized.add(lowerCase.startsWith(".") ? lowerCase : "." + lowerCase);
+                }
+            }
+            this.extensions = normalized;
+            return this;
+        }//"cip" and ".cip" are the same
+
+        public Query sort(Sort sort, boolean descending) {
+            this.sort = sort;
+            this.descending = descending;
+            return this;
+        }
+
+        public Query page(long page, int pageSize) {
+            if (page < 1 || pageSize < 0) {
+                throw new IllegalArgumentException("page must be at least 1 and page size not negative");
+            }
+            this.page = page;
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        boolean matches(String name) {
+            if (extensions.isEmpty()) {
+                return true;
+            }
+            String lowerCase = name.toLowerCase(Locale.ROOT);
+            for (String extension : extensions) {
+                if (lowerCase.endsWith(extension)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long skip() {
+            return pageSize == 0 ? 0 : (page - 1) * pageSize;
+        }
+
+        long limit() {
+            return pageSize == 0 ? Long.MAX_VALUE : pageSize;
+        }
+    }
+
+    public List<Path> getRoots() {
+        return roots;
+    }
+
+    // Hands the entries of the requested page to sink, in order, and returns
+    // how many there were. Throws if a folder is missing or can't be read, or
+    // IllegalArgumentException if the glob is invalid.
+    public long list(Query query, Consumer<Entry> sink) throws IOException {
+        roots.get(0).getFileSystem().getPathMatcher("glob:" + query.glob);
+        //a bad glob is reported here, before any folder is read
+        for (Path root : roots) {
+            if (!Files.isDirectory(root)) {
+                throw new NoSuchFileException(root.toString(), null, "folder not found");
+            }
+        }
+        if (query.sort == Sort.NONE) {
+            return listUnsorted(query, sink);
+        }
+        return listSorted(query, sink);
+    }
+
+    // Folders are written one after the other, while the ones still to come are
+    // read ahead into bounded queues. Reading stops as soon as the page is full.
+    private long listUnsorted(Query query, Consumer<Entry> sink) throws IOException {
+        List<BlockingQueue<Object>> queues = new ArrayList<>();
+        long skip = query.skip();
+        long limit = query.limit();
+        long written = 0;
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            for (Path root : roots) {
+                BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+                queues.add(queue);
+                executor.execute(() -> {
+                    Object last = Boolean.TRUE;
+                    try {
+                        scan(root, query, entry -> put(queue, entry));
+                    } catch (IOException | RuntimeException e) {
+                        last = e;
+                    }
+                    try {
+                        queue.put(last);
+                    } catch (InterruptedException e) {
+                        //the page is full, nobody is waiting for the rest
+                    }
+                });//TRUE marks the end of a folder, an exception that it failed
+            }
+
+            for (BlockingQueue<Object> queue : queues) {
+                while (written < limit) {
+                    Object next = queue.take();
+                    if (next == Boolean.TRUE) {
+                        break;
+                    }
+                    if (next instanceof IOException e) {
+                        throw e;
+                    }
+                    if (next instanceof UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                    if (next instanceof RuntimeException e) {
+                        throw e;
+                    }
+                    if (skip > 0) {
+                        skip--;
+                    } else {
+                        sink.accept((Entry) next);
+                        written++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("listing interrupted");
+        } finally {
+            executor.shutdownNow();
+            //folders still being read are interrupted, a full page doesn't wait for the rest
+        }
+        return written;
+    }
+
+    // Every folder is read in parallel into its own bounded heap holding the
+    // first page * page size entries in sort order, the heaps are merged and
+    // only the requested page is written. Without paging every entry is kept.
+    private long listSorted(Query query, Consumer<Entry> sink) throws IOException {
+        Comparator<Entry> order = comparator(query.sort, query.descending);
+        long keep = query.pageSize == 0 ? Long.MAX_VALUE : query.skip() + query.limit();
+
+        List<Future<PriorityQueue<Entry>>> scans = new ArrayList<>();
+        PriorityQueue<Entry> top = new PriorityQueue<>(order.reversed());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path root : roots) {
+                scans.add(executor.submit(() -> {
+                    PriorityQueue<Entry> heap = new PriorityQueue<>(order.reversed());
+                    scan(root, query, entry -> offer(heap, entry, keep, order));
+                    return heap;
+                }));
+            }
+            for (Future<PriorityQueue<Entry>> scan : scans) {
+                for (Entry entry : scan.get()) {
+                    offer(top, entry, keep, order);
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof UncheckedIOException cause) {
+                throw cause.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("listing interrupted");
+        }
+
+        Entry[] sorted = top.toArray(new Entry[0]);
+        Arrays.sort(sorted, order);
+        long written = 0;
+        for (long i = query.skip(); i < sorted.length; i++) {
+            sink.accept(sorted[(int) i]);
+            written++;
+        }
+        return written;
+    }
+
+    // The heap's head is the entry furthest down the order, so it is the one
+    // dropped when a better entry comes along
+    private static void offer(PriorityQueue<Entry> heap, Entry entry, long keep, Comparator<Entry> order) {
+        if (heap.size() < keep) {
+            heap.add(entry);
+        } else if (order.compare(entry, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(entry);
+        }
+    }
+
+    private static void scan(Path root, Query query, Consumer<Entry> sink) throws IOException {
+        try (DirectoryStream<Path> listing = Files.newDirectoryStream(root, query.glob)) {
+            for (Path path : listing) {
+                String name = path.getFileName().toString();
+                if (!query.matches(name)) {
+                    continue;
+                }
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }//removed while the folder was being read
+                if (attributes.isRegularFile()) {
+                    sink.accept(new Entry(root, name, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        }
+    }
+
+    private static void put(BlockingQueue<Object> queue, Object item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("listing stopped"));
+        }
+    }//blocks while the writer is behind, so a folder is never read far ahead
+
+    private static Comparator<Entry> comparator(Sort sort, boolean descending) {
+        Comparator<Entry> byName = Comparator.comparing(Entry::name).thenComparing(entry -> entry.root().toString());
+        Comparator<Entry> order = switch (sort) {
+            case SIZE -> Comparator.comparingLong(Entry::size).thenComparing(byName);
+            case MODIFIED -> Comparator.comparingLong(Entry::modified).thenComparing(byName);
+            default -> byName;
+        };
+        return descending ? order.reversed() : order;
+    }
+}
@@ -0,0 +1,223 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import utilities.CompressedCipherFile;
+
+// Sparse index of where lines start in a file, kept in a sidecar file so a
+// range of lines can be found without reading everything before it. Only
+// every 64th line start is stored; the lines in between are found by scanning
+// forward from the nearest stored one. Works on ciphertext too, since no key
+// maps a line break. Offsets of .cipz files are in their uncompressed bytes.
+public class LineIndex {
+
+    private static final int MAGIC = 0x54534C49;
+    private static final int VERSION = 2;
+    //identifies the sidecar file format.
+
+    public static final int STRIDE = 64;
+    //a line start is stored for every STRIDE lines.
+
+    private static final long RACY_WINDOW_MILLIS = 2000;
+    //a file changed this close to being indexed could change again without its mtime moving.
+
+    private static final int SCAN_BUFFER = 64 * 1024;
+
+    private static final int HEADER_BYTES = 44;
+    //magic, version, modified, size, length, lines and the offset count, before the offsets themselves.
+
+    private final long modified;
+    private final long size;
+    private final long length;
+    private final long lines;
+    private final long[] offsets;
+    //file state the index was built from, length of the contents, number of lines and every STRIDE-th line start.
+    //length only differs from size for compressed files
+
+    private LineIndex(long modified, long size, long length, long lines, long[] offsets) {
+        this.modified = modified;
+        this.size = size;
+        this.length = length;
+        this.lines = lines;
+        this.offsets = offsets;
+    }
+
+    public static Path defaultSidecar(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        return DataIndex.defaultIndexFile(absolute.getParent()).resolveSibling("lines")
+                .resolve(absolute.getFileName() + ".lines");
+    }//kept with the other indexes, next to the data folder
+
+    // Loads the index of a file from its sidecar, building it on first use or
+    // when the file's mtime or size no longer match.
+    public static LineIndex open(Path file) throws IOException {
+        return open(file, defaultSidecar(file));
+    }
+
+    public static LineIndex open(Path file, Path sidecar) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+
+        LineIndex saved = load(sidecar);
+        if (saved != null && saved.matches(modified, attributes.size())) {
+            return saved;
+        }
+
+        LineIndex built = build(file);
+        built.trySave(sidecar);
+        return built;
+    }
+
+    // Whether the index still describes a file with this mtime and size
+    public boolean matches(long fileModified, long fileSize) {
+        return modified != -1 && modified == fileModified && size == fileSize;
+    }
+
+    public long lineCount() {
+        return lines;
+    }
+
+    // Returns the byte offset where a 0-based line starts, or the length of the
+    // contents for lines past the end. The channel reads the contents, see
+    // CompressedCipherFile.openContents.
+    public long lineStart(SeekableByteChannel channel, long line) throws IOException {
+        if (line >= lines) {
+            return length;
+        }
+        long position = offsets[(int) (line / STRIDE)];
+        int skip = (int) (line % STRIDE);
+        if (skip == 0) {
+            return position;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+        channel.position(position);
+        while (position < length) {
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n' && --skip == 0) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }//at most STRIDE - 1 line breaks to step over
+        return length;
+    }
+
+    private static LineIndex build(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        try (SeekableByteChannel channel = CompressedCipherFile.openContents(file)) {
+            long modified = attributes.lastModifiedTime().toMillis();
+            long length = channel.size();
+            long[] offsets = new long[16];
+            int stored = 1;
+            long breaks = 0;
+            //offsets[0] is line 0, which starts at 0
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(SCAN_BUFFER);
+            long position = 0;
+            while (position < length) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        breaks++;
+                        if (breaks % STRIDE == 0 && position + i + 1 < length) {
+                            if (stored == offsets.length) {
+                                offsets = Arrays.copyOf(offsets, stored * 2);
+                            }
+                            offsets[stored++] = position + i + 1;
+                        }
+                    }
+                }
+                position += read;
+            }
+
+            long lines = breaks;
+            if (length > 0 && !endsWithBreak(channel, length)) {
+                lines++;
+            }//last line without a line break still counts
+
+            if (modified > System.currentTimeMillis() - RACY_WINDOW_MILLIS) {
+                modified = -1;
+            }//changed just now, build it again next time rather than trust the mtime
+            return new LineIndex(modified, attributes.size(), length, lines, Arrays.copyOf(offsets, stored));
+        }
+    }
+
+    private static boolean endsWithBreak(SeekableByteChannel channel, long length) throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.position(length - 1).read(last);
+        return last.get(0) == '\n';
+    }
+
+    private static LineIndex load(Path sidecar) throws IOException {
+        if (!Files.exists(sidecar)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }//unknown format, build it again
+            long modified = in.readLong();
+            long size = in.readLong();
+            long length = in.readLong();
+            long lines = in.readLong();
+            int count = in.readInt();
+            if (count < 0 || count > (Files.size(sidecar) - HEADER_BYTES) / Long.BYTES) {
+                return null;
+            }//more offsets than the sidecar holds, it is damaged
+            long[] offsets = new long[count];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readLong();
+            }
+            return new LineIndex(modified, size, length, lines, offsets);
+        }
+        catch (IOException | RuntimeException e) {
+            return null;
+            //truncated, damaged or unreadable sidecar, build it again
+        }
+    }
+
+    private void trySave(Path sidecar) {
+        try {
+            save(sidecar);
+        }
+        catch (IOException e) {
+            System.err.println("error saving line index " + e.getMessage());
+        }//the sidecar is only a cache, the index built in memory still answers this read
+    }
+
+    private void save(Path sidecar) throws IOException {
+        Files.createDirectories(sidecar.getParent());
+        Path temp = Files.createTempFile(sidecar.getParent(), sidecar.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(modified);
+                out.writeLong(size);
+                out.writeLong(length);
+                out.writeLong(lines);
+                out.writeInt(offsets.length);
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+            }
+            Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+        //unique temp name because several readers can build the same sidecar at once
+    }
+}
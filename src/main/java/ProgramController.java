@@ -1,36 +1,750 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.PatternSyntaxException;
 
 public class ProgramController {
 
+    private static final String NOT_AN_INTEGER = "Error: file needs to be an integer";
+    private static final String OUT_OF_RANGE = "Error: out of range";
+    private static final String INVALID_SELECTION = "Error: invalid file selection";
+    private static final String INVALID_CONCURRENCY = "Error: concurrency needs to be a positive integer";
+    private static final String MISSING_SELECTION = "Error: encrypt needs a file number, a selection or all";
+    private static final String INVALID_LINES = "Error: line options need positive numbers, like --head=10 or --lines=5-20";
+    private static final String MISSING_QUERY = "Error: search needs a query";
+    private static final String MISSING_COMPRESS_SELECTION = "Error: compress needs a file number, a selection or all";
+    private static final String MISSING_KEYS = "Error: rekey needs a file selection, the old key and the new key";
+    private static final String MISSING_ARCHIVE = "Error: export needs the archive to write, like backup.zip";
+    private static final String INVALID_EXPORT = "Error: export needs a positive number for --memory-mb= and 0 to 9 for --level=";
+    private static final String INVALID_LIST = "Error: list needs --sort=name, size or mtime and positive numbers for --page= and --page-size=";
+
+    private static final String ALL_FILES = "all";
+    private static final String DEFAULT_KEY_FILE = "key.txt";
+    private static final String ENCRYPT_COMMAND = "encrypt";
+    private static final String REKEY_COMMAND = "rekey";
+    private static final String SEARCH_COMMAND = "search";
+    private static final String COMPRESS_COMMAND = "compress";
+    private static final String COMPILE_COMMAND = "compile";
+    private static final String LIST_COMMAND = "list";
+    private static final String SYNC_COMMAND = "sync";
+    private static final String EXPORT_COMMAND = "export";
+    private static final String NO_INDEX_OPTION = "--no-index";
+    private static final String HEAD_OPTION = "--head=";
+    private static final String TAIL_OPTION = "--tail=";
+    private static final String LINES_OPTION = "--lines=";
+    private static final String CONCURRENCY_OPTION = "--concurrency=";
+    private static final String GLOB_OPTION = "--glob=";
+    private static final String EXTENSION_OPTION = "--ext=";
+    private static final String SORT_OPTION = "--sort=";
+    private static final String REVERSE_OPTION = "--reverse";
+    private static final String PAGE_OPTION = "--page=";
+    private static final String PAGE_SIZE_OPTION = "--page-size=";
+    private static final String MEMORY_OPTION = "--memory-mb=";
+    private static final String LEVEL_OPTION = "--level=";
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int LISTING_BUFFER_SIZE = 64 * 1024;
+    private static final DateTimeFormatter LISTING_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")
+            .withZone(ZoneId.systemDefault());
+
     private final FileHandler fileHandler;
+    private final int defaultConcurrency;
 
     public ProgramController(FileHandler fileHandler) {
+        this(fileHandler, Runtime.getRuntime().availableProcessors());
+    }
+
+    // concurrency is how many files a batch decrypts at once unless --concurrency= is given
+    public ProgramController(FileHandler fileHandler, int defaultConcurrency) {
         this.fileHandler = fileHandler;
+        this.defaultConcurrency = defaultConcurrency;
     }
 
     // Returns output instead of printing directly
     public String run(String[] args) {
+        String[] positional = positional(args);
+        if (positional.length > 0 && (isBatch(positional[0]) || isCommand(positional[0]))) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try {
+                run(args, output);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return output.toString(StandardCharsets.UTF_8);
+        }
+        args = positional;
         List<String> availableFiles = fileHandler.getFiles();
 
         // No arguments → return list of files
         if (args.length == 0) {
-            StringBuilder list = new StringBuilder();
-            for (int i = 0; i < availableFiles.size(); i++) {
-                list.append((i + 1) + ". " + availableFiles.get(i) + "\n");
+            return listFiles(availableFiles);
+        }
+        String error = checkIndex(args[0], availableFiles.size());
+        if (error != null) {
+            return error;
+        }
+        String selectedFile = availableFiles.get(Integer.parseInt(args[0]) - 1);
+        String keyFilePath = (args.length >= 2) ? args[1] : null;
+        return fileHandler.readFile(selectedFile, keyFilePath);
+    }
+
+    // Streams output to the given stream so large files are never held in memory
+    public void run(String[] args, OutputStream out) throws IOException {
+        String concurrency = option(args, CONCURRENCY_OPTION);
+        boolean useIndex = !Arrays.asList(args).contains(NO_INDEX_OPTION);
+        String head = option(args, HEAD_OPTION);
+        String tail = option(args, TAIL_OPTION);
+        String lines = option(args, LINES_OPTION);
+        String[] options = args;
+        args = positional(args);
+        if (args.length > 0 && args[0].equals(LIST_COMMAND)) {
+            runList(options, out);
+            return;
+        }//listed straight from disk, without numbering the whole folder first
+        List<String> availableFiles = fileHandler.getFiles();
+
+        // No arguments → write list of files
+        if (args.length == 0) {
+            writeListing(out, availableFiles);
+            return;
+        }
+        if (args[0].equals(ENCRYPT_COMMAND)) {
+            runEncrypt(args, availableFiles, concurrency, out);
+            return;
+        }
+        if (args[0].equals(REKEY_COMMAND)) {
+            runRekey(args, availableFiles, concurrency, out);
+            return;
+        }
+        if (args[0].equals(SEARCH_COMMAND)) {
+            runSearch(args, concurrency, useIndex, out);
+            return;
+        }
+        if (args[0].equals(COMPRESS_COMMAND)) {
+            runCompress(args, availableFiles, concurrency, out);
+            return;
+        }
+        if (args[0].equals(COMPILE_COMMAND)) {
+            runCompile(args, concurrency, out);
+            return;
+        }
+        if (args[0].equals(SYNC_COMMAND)) {
+            runSync(args, availableFiles, concurrency, out);
+            return;
+        }
+        if (args[0].equals(EXPORT_COMMAND)) {
+            runExport(args, options, availableFiles, concurrency, out);
+            return;
+        }
+        if (isBatch(args[0])) {
+            List<Integer> selection = checkSelection(args[0], availableFiles, out);
+            if (selection == null) {
+                return;
+            }
+            int limit = checkConcurrency(concurrency, out);
+            if (limit < 1) {
+                return;
+            }
+            String keyFilePath = (args.length >= 2) ? args[1] : null;
+            runBatch(availableFiles, selection, limit, true,
+                    (fileName, result) -> fileHandler.readFile(fileName, keyFilePath, result), out);
+            return;
+        }
+        String error = checkIndex(args[0], availableFiles.size());
+        if (error != null) {
+            write(out, error + "\n");
+            return;
+        }
+        String selectedFile = availableFiles.get(Integer.parseInt(args[0]) - 1);
+        String keyFilePath = (args.length >= 2) ? args[1] : null;
+        try {
+            if (head != null || tail != null || lines != null) {
+                readLines(selectedFile, keyFilePath, head, tail, lines, out);
+            } else {
+                fileHandler.readFile(selectedFile, keyFilePath, out);
+            }
+        } catch (IOException | RuntimeException e) {
+            write(out, "Error: " + e.getMessage() + "\n");
+        }
+    }
+
+    // Encrypts the selected plain files into .cip files next to them. "all"
+    // selects every file that isn't encrypted yet.
+    private void runEncrypt(String[] args, List<String> availableFiles, String concurrency, OutputStream out)
+            throws IOException {
+        if (args.length < 2) {
+            write(out, MISSING_SELECTION + "\n");
+            return;
+        }
+        List<Integer> selection = checkSelection(args[1], availableFiles, out);
+        if (selection == null) {
+            return;
+        }
+        int limit = checkConcurrency(concurrency, out);
+        if (limit < 1) {
+            return;
+        }
+        if (args[1].equals(ALL_FILES)) {
+            selection.removeIf(index -> isEncrypted(availableFiles.get(index)));
+        }
+        String keyFilePath = (args.length >= 3) ? args[2] : null;
+        runBatch(availableFiles, selection, limit, false,
+                (fileName, result) -> write(result,
+                        fileName + " -> " + fileHandler.encryptFile(fileName, keyFilePath) + "\n"), out);
+    }
+
+    // Moves the selected .cip and .cipz files from the old key to the new key.
+    // "all" selects every encrypted file. The journal is only removed once every file
+    // succeeded, so running the same command again resumes a failed run.
+    private void runRekey(String[] args, List<String> availableFiles, String concurrency, OutputStream out)
+            throws IOException {
+        if (args.length < 4) {
+            write(out, MISSING_KEYS + "\n");
+            return;
+        }
+        List<Integer> selection = checkSelection(args[1], availableFiles, out);
+        if (selection == null) {
+            return;
+        }
+        int limit = checkConcurrency(concurrency, out);
+        if (limit < 1) {
+            return;
+        }
+        if (args[1].equals(ALL_FILES)) {
+            selection.removeIf(index -> !isEncrypted(availableFiles.get(index)));
+        }
+        String oldKey = args[2];
+        String newKey = args[3];
+
+        RekeyJournal journal;
+        try {
+            journal = fileHandler.openRekeyJournal(oldKey, newKey);
+        } catch (RuntimeException e) {
+            write(out, "Error: " + e.getMessage() + "\n");
+            return;
+        }
+        try {
+            int failed = runBatch(availableFiles, selection, limit, false,
+                    (fileName, result) -> write(result,
+                            fileName + ": " + fileHandler.rekeyFile(fileName, oldKey, newKey, journal) + "\n"), out);
+            if (failed == 0) {
+                journal.finish();
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    // Converts the selected .cip files into block-compressed .cipz files next to
+    // them. "all" selects every .cip file. No key is needed, the ciphertext is
+    // compressed as it is.
+    private void runCompress(String[] args, List<String> availableFiles, String concurrency, OutputStream out)
+            throws IOException {
+        if (args.length < 2) {
+            write(out, MISSING_COMPRESS_SELECTION + "\n");
+            return;
+        }
+        List<Integer> selection = checkSelection(args[1], availableFiles, out);
+        if (selection == null) {
+            return;
+        }
+        int limit = checkConcurrency(concurrency, out);
+        if (limit < 1) {
+            return;
+        }
+        if (args[1].equals(ALL_FILES)) {
+            selection.removeIf(index -> !availableFiles.get(index).toLowerCase().endsWith(".cip"));
+        }
+        runBatch(availableFiles, selection, limit, false,
+                (fileName, result) -> write(result,
+                        fileName + " -> " + fileHandler.compressFile(fileName) + "\n"), out);
+    }
+
+    // Brings the .cip file of every plain .txt file up to date with the key:
+    // only files that changed since the last sync are encrypted again, in
+    // parallel, and .cip files sync wrote whose .txt file is gone are deleted.
+    // Only changes are printed, followed by a summary line.
+    private void runSync(String[] args, List<String> availableFiles, String concurrency, OutputStream out)
+            throws IOException {
+        int limit = checkConcurrency(concurrency, out);
+        if (limit < 1) {
+            return;
+        }
+        String keyFilePath = (args.length >= 2) ? args[1] : null;
+        SyncManifest manifest;
+        try {
+            manifest = fileHandler.openSyncManifest(keyFilePath);
+        } catch (RuntimeException e) {
+            write(out, "Error: " + e.getMessage() + "\n");
+            return;
+        }
+        List<Integer> selection = new ArrayList<>();
+        for (int i = 0; i < availableFiles.size(); i++) {
+            if (availableFiles.get(i).toLowerCase().endsWith(".txt")) {
+                selection.add(i);
             }
-            return list.toString();
         }
+
+        AtomicInteger encrypted = new AtomicInteger();
+        int failed;
+        List<String> removed;
+        try {
+            failed = runBatch(availableFiles, selection, limit, false,
+                    (fileName, result) -> {
+                        String encryptedName = fileHandler.syncFile(fileName, keyFilePath, manifest);
+                        if (encryptedName == null) {
+                            return;
+                        }
+                        encrypted.incrementAndGet();
+                        write(result, fileName + " -> " + encryptedName + "\n");
+                    }, out);
+            removed = fileHandler.removeSyncOrphans(manifest);
+        } finally {
+            manifest.save();
+        }//files done before a failure are remembered either way
+        for (String fileName : removed) {
+            write(out, fileName + ": deleted\n");
+        }
+        write(out, "synced: " + encrypted.get() + " encrypted, " + (selection.size() - encrypted.get() - failed)
+                + " unchanged, " + removed.size() + " deleted" + (failed > 0 ? ", " + failed + " failed" : "")
+                + "\n");
+    }
+
+    // Writes every file in the data folder, decrypted with the key, into one
+    // zip archive. --concurrency= is the number of decrypt workers,
+    // --memory-mb= caps the memory the files in flight take and --level= is the
+    // deflate level. Progress is written about once a second, then a summary.
+    private void runExport(String[] args, String[] options, List<String> availableFiles, String concurrency,
+            OutputStream out) throws IOException {
+        if (args.length < 2) {
+            write(out, MISSING_ARCHIVE + "\n");
+            return;
+        }
+        int limit = checkConcurrency(concurrency, out);
+        if (limit < 1) {
+            return;
+        }
+        String memory = option(options, MEMORY_OPTION);
+        String level = option(options, LEVEL_OPTION);
+        ArchiveExport export;
+        try {
+            long memoryBytes = memory == null ? ArchiveExport.DEFAULT_MEMORY : Long.parseLong(memory) * 1024 * 1024;
+            export = new ArchiveExport(limit, memoryBytes,
+                    level == null ? ArchiveExport.DEFAULT_LEVEL : Integer.parseInt(level));
+        } catch (IllegalArgumentException e) {
+            write(out, INVALID_EXPORT + "\n");
+            return;
+        }//NumberFormatException is an IllegalArgumentException too
+
+        String keyFilePath = (args.length >= 3) ? args[2] : null;
+        ArchiveExport.Progress done;
+        try {
+            done = fileHandler.exportArchive(availableFiles, keyFilePath, Paths.get(args[1]), export, progress -> {
+                try {
+                    write(out, String.format(Locale.ROOT, "exported %d/%d files, %.1f MB, %.1f MB/s%n",
+                            progress.files(), progress.totalFiles(), progress.bytes() / 1e6,
+                            progress.megabytesPerSecond()));
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            write(out, "Error: " + e.getMessage() + "\n");
+            return;
+        }//nothing is left behind, the archive is only moved into place once it is complete
+        write(out, String.format(Locale.ROOT,
+                "exported %d files to %s: %.1f MB in a %.1f MB archive, %.1f s, %.1f MB/s%n", done.files(), args[1],
+                done.bytes() / 1e6, done.archiveBytes() / 1e6, done.nanos() / 1e9,
+                done.megabytesPerSecond()));
+    }
+
+    // Compiles text keys into binary .tsk keys that load without parsing or
+    // validating. With no key the default key is compiled, "all" compiles every
+    // text key in the ciphers folder.
+    private void runCompile(String[] args, String concurrency, OutputStream out) throws IOException {
+        int limit = checkConcurrency(concurrency, out);
+        if (limit < 1) {
+            return;
+        }
+        List<String> keyFiles;
+        if (args.length < 2) {
+            keyFiles = List.of(DEFAULT_KEY_FILE);
+        } else if (args[1].equals(ALL_FILES)) {
+            try {
+                keyFiles = fileHandler.getKeyFiles();
+            } catch (IOException e) {
+                write(out, "Error: " + e.getMessage() + "\n");
+                return;
+            }
+        } else {
+            keyFiles = Arrays.asList(args).subList(1, args.length);
+        }
+        List<Integer> selection = new ArrayList<>();
+        for (int i = 0; i < keyFiles.size(); i++) {
+            selection.add(i);
+        }
+        runBatch(keyFiles, selection, limit, false,
+                (keyFile, result) -> write(result, keyFile + " -> " + fileHandler.compileKey(keyFile) + "\n"), out);
+    }
+
+    // Lists the data folders a page at a time, optionally filtered by a glob
+    // and extensions and sorted by name, size or modification time. Lines are
+    // written as they come, "name  size  modified", with the folder in front
+    // of the name when there is more than one.
+    private void runList(String[] options, OutputStream out) throws IOException {
+        FileListing.Query query = new FileListing.Query();
+        String extensions = option(options, EXTENSION_OPTION);
+        String sort = option(options, SORT_OPTION);
+        String page = option(options, PAGE_OPTION);
+        String pageSize = option(options, PAGE_SIZE_OPTION);
+        try {
+            query.glob(option(options, GLOB_OPTION));
+            if (extensions != null) {
+                query.extensions(Arrays.asList(extensions.split(",")));
+            }
+            query.sort(parseSort(sort), Arrays.asList(options).contains(REVERSE_OPTION));
+            if (page != null || pageSize != null) {
+                int size = pageSize == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(pageSize);
+                if (size < 1) {
+                    throw new IllegalArgumentException(pageSize);
+                }
+                query.page(page == null ? 1 : Long.parseLong(page), size);
+            }
+        } catch (IllegalArgumentException e) {
+            write(out, INVALID_LIST + "\n");
+            return;
+        }//NumberFormatException is an IllegalArgumentException too
+
+        boolean showFolder = fileHandler.getFilesFolders().size() > 1;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), LISTING_BUFFER_SIZE);
+        try {
+            fileHandler.listFiles(query, entry -> {
+                try {
+                    writer.write((showFolder ? entry.path().toString() : entry.name()) + "  " + entry.size() + "  "
+                            + LISTING_TIME.format(Instant.ofEpochMilli(entry.modified())) + "\n");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (PatternSyntaxException e) {
+            write(out, "Error: invalid glob " + e.getPattern() + "\n");
+            return;
+        } catch (IOException | RuntimeException e) {
+            writer.flush();
+            write(out, "Error: " + e.getMessage() + "\n");
+            return;
+        }//a bad glob or a missing folder, anything written so far is kept
+        writer.flush();
+    }
+
+    // Returns the sort order for --sort=, NONE when it isn't given
+    private FileListing.Sort parseSort(String sort) {
+        if (sort == null) {
+            return FileListing.Sort.NONE;
+        }
+        return switch (sort) {
+            case "name" -> FileListing.Sort.NAME;
+            case "size" -> FileListing.Sort.SIZE;
+            case "mtime" -> FileListing.Sort.MODIFIED;
+            default -> throw new IllegalArgumentException(sort);
+        };
+    }
+
+    // Writes only some lines of a file: the first or last N, or a range like 5-20.
+    // The file's line index is used to jump straight to them.
+    private void readLines(String fileName, String keyFilePath, String head, String tail, String lines,
+            OutputStream out) throws IOException {
+        long first;
+        long count;
+        try {
+            if (lines != null) {
+                int dash = lines.indexOf('-');
+                first = Long.parseLong(dash < 0 ? lines : lines.substring(0, dash));
+                long last = dash < 0 ? first : Long.parseLong(lines.substring(dash + 1));
+                count = last - first + 1;
+            } else if (head != null) {
+                first = 1;
+                count = Long.parseLong(head);
+            } else {
+                count = Long.parseLong(tail);
+                first = Math.max(1, fileHandler.lineCount(fileName) - count + 1);
+            }
+        } catch (NumberFormatException e) {
+            first = 0;
+            count = 0;
+        }
+        if (first < 1 || count < 1) {
+            write(out, INVALID_LINES + "\n");
+            return;
+        }
+        fileHandler.readLines(fileName, keyFilePath, first, count, out);
+    }
+
+    // Prints the lines of .cip and .cipz files containing the query as "name:line: text".
+    // The query is encrypted and matched against the ciphertext, and the index
+    // rules out files without its trigrams, so only matching lines are decrypted.
+    private void runSearch(String[] args, String concurrency, boolean useIndex, OutputStream out)
+            throws IOException {
+        if (args.length < 2 || args[1].isEmpty()) {
+            write(out, MISSING_QUERY + "\n");
+            return;
+        }
+        int limit = checkConcurrency(concurrency, out);
+        if (limit < 1) {
+            return;
+        }
+        String query = args[1];
+        String keyFilePath = (args.length >= 3) ? args[2] : null;
+
+        List<String> candidates;
+        try {
+            candidates = fileHandler.searchCandidates(query, keyFilePath, useIndex);
+        } catch (IOException | RuntimeException e) {
+            write(out, "Error: " + e.getMessage() + "\n");
+            return;
+        }
+        List<Integer> selection = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            selection.add(i);
+        }
+        runBatch(candidates, selection, limit, false,
+                (fileName, result) -> {
+                    StringBuilder lines = new StringBuilder();
+                    for (String match : fileHandler.searchFile(fileName, query, keyFilePath)) {
+                        lines.append(fileName).append(':').append(match).append('\n');
+                    }
+                    write(result, lines.toString());
+                }, out);
+    }
+
+    // Work done for one file of a batch, writing what to print for it to result
+    private interface FileTask {
+        void run(String fileName, OutputStream result) throws Exception;
+    }
+
+    // A file of a batch that was started, with the output it has written so far
+    private record Running(int index, SpoolOutputStream output, Future<?> done) {
+    }
+
+    // Runs the task for the selected files on virtual threads, at most limit at
+    // a time, and writes the results in the order they were selected. The file
+    // whose turn it is writes straight to out, the ones after it are spooled
+    // until their turn comes. A failed file only reports its own error.
+    // Returns how many files failed.
+    private int runBatch(List<String> availableFiles, List<Integer> selection, int limit, boolean headers,
+            FileTask task, OutputStream out) throws IOException {
+        ArrayDeque<Running> inFlight = new ArrayDeque<>();
+        int failed = 0;
+
+        try {
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int index : selection) {
+                    String fileName = availableFiles.get(index);
+                    SpoolOutputStream output = new SpoolOutputStream();
+                    inFlight.add(new Running(index, output, executor.submit(() -> {
+                        task.run(fileName, output);
+                        return null;
+                    })));
+                    // only wait once the limit is reached, so no more than limit files are spooled
+                    if (inFlight.size() >= limit) {
+                        if (!writeResult(out, availableFiles, headers, inFlight.poll())) {
+                            failed++;
+                        }
+                    }
+                }
+                while (!inFlight.isEmpty()) {
+                    if (!writeResult(out, availableFiles, headers, inFlight.poll())) {
+                        failed++;
+                    }
+                }
+            }
+        } finally {
+            for (Running running : inFlight) {
+                running.output().discard();
+            }//out failed, the files still waiting leave no temp files behind
+        }
+        return failed;
+    }
+
+    // Writes one file's result as it comes, returns false if it failed
+    private boolean writeResult(OutputStream out, List<String> availableFiles, boolean headers, Running running)
+            throws IOException {
+        String fileName = availableFiles.get(running.index());
+        if (headers) {
+            write(out, "==> " + (running.index() + 1) + ". " + fileName + " <==\n");
+        }
+        String error = null;
+        try {
+            running.output().forwardTo(out);
+            running.done().get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            error = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for " + fileName, e);
+        } finally {
+            running.output().discard();
+        }
+        int lastByte = running.output().lastByte();
+        if (lastByte != -1 && lastByte != '\n') {
+            write(out, "\n");
+        }//a failed file may have written part of its output already
+        if (error != null) {
+            write(out, (headers ? "" : fileName + ": ") + "Error: " + error + "\n");
+            return false;
+        }
+        return true;
+    }
+
+    // Returns the selected indexes, or writes the error and returns null
+    private List<Integer> checkSelection(String arg, List<String> availableFiles, OutputStream out)
+            throws IOException {
+        List<Integer> selection = parseSelection(arg, availableFiles.size());
+        if (selection == null) {
+            write(out, INVALID_SELECTION + "\n");
+            return null;
+        }
+        if (selection.isEmpty() && !arg.equals(ALL_FILES)) {
+            write(out, OUT_OF_RANGE + "\n");
+            return null;
+        }
+        return selection;
+    }
+
+    // Returns how many files run at once, or writes the error and returns 0
+    private int checkConcurrency(String concurrency, OutputStream out) throws IOException {
+        int limit;
+        try {
+            limit = concurrency == null ? defaultConcurrency : Integer.parseInt(concurrency);
+        } catch (NumberFormatException e) {
+            limit = 0;
+        }
+        if (limit < 1) {
+            write(out, INVALID_CONCURRENCY + "\n");
+        }
+        return limit;
+    }
+
+    private boolean isCommand(String arg) {
+        return arg.equals(ENCRYPT_COMMAND) || arg.equals(REKEY_COMMAND) || arg.equals(SEARCH_COMMAND)
+                || arg.equals(COMPRESS_COMMAND) || arg.equals(COMPILE_COMMAND) || arg.equals(LIST_COMMAND)
+                || arg.equals(SYNC_COMMAND) || arg.equals(EXPORT_COMMAND);
+    }
+
+    private boolean isEncrypted(String fileName) {
+        String lowerCase = fileName.toLowerCase();
+        return lowerCase.endsWith(".cip") || lowerCase.endsWith(".cipz");
+    }
+
+    private boolean isBatch(String arg) {
+        return arg.equals(ALL_FILES) || arg.contains(",") || arg.indexOf('-') > 0;
+    }
+
+    // Turns "1,4,7-20" or "all" into zero-based indexes. Returns null if the
+    // selection can't be parsed and an empty list if any number is out of range.
+    private List<Integer> parseSelection(String arg, int fileCount) {
+        List<Integer> selection = new ArrayList<>();
+        if (arg.equals(ALL_FILES)) {
+            for (int i = 0; i < fileCount; i++) {
+                selection.add(i);
+            }
+            return selection;
+        }
+        try {
+            for (String part : arg.split(",")) {
+                int dash = part.indexOf('-', 1);
+                int first = Integer.parseInt(dash < 0 ? part.trim() : part.substring(0, dash).trim());
+                int last = dash < 0 ? first : Integer.parseInt(part.substring(dash + 1).trim());
+                if (first < 1 || last > fileCount || first > last) {
+                    return new ArrayList<>();
+                }
+                for (int i = first; i <= last; i++) {
+                    selection.add(i - 1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return selection;
+    }
+
+    // Returns the value of an option like --concurrency=4, or null if it isn't given
+    private String option(String[] args, String prefix) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    // Returns the arguments that aren't options
+    private String[] positional(String[] args) {
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+            }
+        }
+        return positional.toArray(new String[0]);
+    }
+
+    // Same as listFiles, but written through a buffer as it goes instead of
+    // being built up as one string
+    private void writeListing(OutputStream out, List<String> availableFiles) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), LISTING_BUFFER_SIZE);
+        for (int i = 0; i < availableFiles.size(); i++) {
+            writer.write((i + 1) + ". " + availableFiles.get(i) + "\n");
+        }
+        writer.flush();
+    }
+
+    private String listFiles(List<String> availableFiles) {
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < availableFiles.size(); i++) {
+            list.append((i + 1) + ". " + availableFiles.get(i) + "\n");
+        }
+        return list.toString();
+    }
+
+    // Returns an error message if the argument is not a valid file number, null otherwise
+    private String checkIndex(String arg, int fileCount) {
         int index;
         try {
-            index = Integer.parseInt(args[0]) - 1;
+            index = Integer.parseInt(arg) - 1;
         } catch (NumberFormatException e) {
-            return "Error: file needs to be an integer";
+            return NOT_AN_INTEGER;
         }
-        if (index < 0 || index >= availableFiles.size()) {
-            return "Error: out of range";
+        if (index < 0 || index >= fileCount) {
+            return OUT_OF_RANGE;
         }
-        String selectedFile = availableFiles.get(index);
-        String keyFilePath = (args.length >= 2) ? args[1] : null;
-        return fileHandler.readFile(selectedFile, keyFilePath);
+        return null;
+    }
+
+    private void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
     }
 }
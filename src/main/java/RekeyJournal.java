@@ -0,0 +1,115 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Records the progress of a re-key so an interrupted run can pick up where it
+// stopped. Each file is written to a temp file first, marked staged once the
+// temp file is on disk, renamed over the original and then marked done. A file
+// that is staged but not done was renamed if its temp file is gone.
+public class RekeyJournal {
+
+    public enum State { PENDING, STAGED, DONE }
+
+    private static final String HEADER = "rekey";
+    private static final String STAGED = "staged";
+    private static final String DONE = "done";
+    //line types in the journal, each field is separated by a tab.
+
+    private final Path journalFile;
+    private final Path tempFolder;
+    //journal and the temp files it refers to live in the data folder's cache.
+
+    private final Map<String, State> states = new HashMap<>();
+    private FileChannel channel;
+
+    public RekeyJournal(Path folder) {
+        this.tempFolder = DataIndex.defaultIndexFile(folder).getParent();
+        this.journalFile = tempFolder.resolve("rekey.journal");
+    }
+
+    // Opens the journal for a re-key from oldKey to newKey, reading the
+    // progress of an earlier run with the same keys. An unfinished run with
+    // other keys has to be finished first, or its files would end up mixed.
+    public synchronized void open(String oldKey, String newKey) throws IOException {
+        Files.createDirectories(tempFolder);
+        String header = HEADER + "\t" + oldKey + "\t" + newKey;
+
+        if (Files.exists(journalFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+                String first = reader.readLine();
+                if (first != null && !first.equals(header)) {
+                    String[] keys = first.split("\t");
+                    throw new RuntimeException("an unfinished re-key from " + keys[1] + " to " + keys[2]
+                            + " needs to be finished first");
+                }
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab < 0) {
+                        continue;
+                    }//last line was cut off by a crash
+                    String type = line.substring(0, tab);
+                    String name = line.substring(tab + 1);
+                    if (type.equals(DONE)) {
+                        states.put(name, State.DONE);
+                    } else if (type.equals(STAGED) && states.get(name) != State.DONE) {
+                        states.put(name, State.STAGED);
+                    }
+                }
+            }
+        }
+
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            append(header);
+        }
+    }
+
+    public synchronized State state(String fileName) {
+        return states.getOrDefault(fileName, State.PENDING);
+    }
+
+    public Path tempFile(String fileName) {
+        return tempFolder.resolve(fileName + ".rekey");
+    }//fixed name so a resumed run can tell whether the rename happened
+
+    public synchronized void staged(String fileName) throws IOException {
+        append(STAGED + "\t" + fileName);
+        states.put(fileName, State.STAGED);
+    }
+
+    public synchronized void done(String fileName) throws IOException {
+        append(DONE + "\t" + fileName);
+        states.put(fileName, State.DONE);
+    }
+
+    // Deletes the journal once every file has been re-keyed.
+    public synchronized void finish() throws IOException {
+        close();
+        Files.deleteIfExists(journalFile);
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void append(String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        channel.force(false);
+        //every step is on disk before the next one starts
+    }
+}
@@ -0,0 +1,294 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import utilities.CompressedCipherFile;
+
+// Inverted index from every three character sequence (trigram) of the data
+// folder's ciphertext to the files containing it. A substitution cipher maps a
+// query to one ciphertext, so the encrypted query's trigrams rule out every
+// file that can't contain it without decrypting anything. The index is built
+// from the ciphertext only, so it works for any key.
+public class SearchIndex {
+
+    private static final int MAGIC = 0x54535447;
+    private static final int VERSION = 1;
+    //identifies the index file format.
+
+    private static final long RACY_WINDOW_MILLIS = 2000;
+    //a file changed this close to being indexed could change again without its mtime moving, so it is indexed again next time.
+
+    public static final int GRAM = 3;
+    //queries shorter than this can't use the index.
+
+    private final Path folder;
+    private final Path indexFile;
+
+    private final List<FileEntry> files = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Map<Long, BitSet> postings = new HashMap<>();
+    //files by id, with null for a free id, and the ids of the files holding each trigram.
+
+    private boolean loaded;
+
+    private static class FileEntry {
+        final String name;
+        final long modified;
+        final long size;
+
+        FileEntry(String name, long modified, long size) {
+            this.name = name;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+
+    public SearchIndex(Path folder) {
+        this(folder, DataIndex.defaultIndexFile(folder).resolveSibling("trigrams"));
+    }
+
+    public SearchIndex(Path folder, Path indexFile) {
+        this.folder = folder;
+        this.indexFile = indexFile;
+    }
+
+    // Brings the index up to date for the given files and returns the ones
+    // whose ciphertext has every trigram of the encrypted query, in the given
+    // order. Every file is returned for queries shorter than a trigram.
+    public synchronized List<String> candidates(List<String> fileNames, String encryptedQuery) throws IOException {
+        update(fileNames);
+        if (encryptedQuery.length() < GRAM) {
+            return new ArrayList<>(fileNames);
+        }
+
+        BitSet matches = null;
+        for (int i = 0; i + GRAM <= encryptedQuery.length(); i++) {
+            BitSet posting = postings.get(trigram(encryptedQuery.charAt(i), encryptedQuery.charAt(i + 1),
+                    encryptedQuery.charAt(i + 2)));
+            if (posting == null) {
+                return new ArrayList<>();
+            }//no file has this trigram, so none can match
+            if (matches == null) {
+                matches = (BitSet) posting.clone();
+            } else {
+                matches.and(posting);
+            }
+        }
+
+        List<String> result = new ArrayList<>();
+        for (String name : fileNames) {
+            Integer id = ids.get(name);
+            if (id != null && matches.get(id)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    // Indexes new and changed files and forgets files that aren't listed any more
+    private void update(List<String> fileNames) throws IOException {
+        if (!loaded) {
+            load();
+        }
+        boolean changed = false;
+
+        Set<String> listed = new HashSet<>(fileNames);
+        for (int id = 0; id < files.size(); id++) {
+            FileEntry entry = files.get(id);
+            if (entry != null && !listed.contains(entry.name)) {
+                remove(id);
+                changed = true;
+            }
+        }
+
+        for (String name : fileNames) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(folder.resolve(name), BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            long modified = attributes.lastModifiedTime().toMillis();
+            Integer id = ids.get(name);
+            if (id != null) {
+                FileEntry entry = files.get(id);
+                if (entry.modified == modified && entry.size == attributes.size()) {
+                    continue;
+                }//unchanged since it was indexed
+                remove(id);
+            }
+            add(name, modified, attributes.size());
+            changed = true;
+        }
+
+        if (changed) {
+            trySave();
+        }
+    }
+
+    private void add(String name, long modified, long size) throws IOException {
+        int id = files.indexOf(null);
+        if (id < 0) {
+            id = files.size();
+            files.add(null);
+        }//reuse the id of a removed file so the bit sets stay small
+
+        if (modified > System.currentTimeMillis() - RACY_WINDOW_MILLIS) {
+            modified = -1;
+        }//changed just now, don't trust the mtime to catch the next change
+        files.set(id, new FileEntry(name, modified, size));
+        ids.put(name, id);
+
+        for (long trigram : trigrams(folder.resolve(name))) {
+            postings.computeIfAbsent(trigram, key -> new BitSet()).set(id);
+        }
+    }
+
+    private void remove(int id) {
+        ids.remove(files.get(id).name);
+        files.set(id, null);
+        postings.values().removeIf(posting -> {
+            posting.clear(id);
+            return posting.isEmpty();
+        });
+    }
+
+    // Collects the distinct trigrams of a file, .cipz files are decompressed
+    // first. Trigrams don't cross line breaks because matches never do.
+    private static Set<Long> trigrams(Path file) throws IOException {
+        Set<Long> trigrams = new HashSet<>();
+        try (Reader reader = new InputStreamReader(Channels.newInputStream(CompressedCipherFile.openContents(file)),
+                StandardCharsets.UTF_8)) {
+            char[] buffer = new char[8192];
+            char first = 0;
+            char second = 0;
+            int run = 0;
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    char character = buffer[i];
+                    if (character == '\n' || character == '\r') {
+                        run = 0;
+                        continue;
+                    }
+                    if (++run >= GRAM) {
+                        trigrams.add(trigram(first, second, character));
+                    }
+                    first = second;
+                    second = character;
+                }
+            }
+        }
+        return trigrams;
+    }
+
+    private static long trigram(char first, char second, char third) {
+        return ((long) first << 32) | ((long) second << 16) | third;
+    }
+
+    private void load() throws IOException {
+        loaded = true;
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        long indexSize = Files.size(indexFile);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }//unknown format, start over
+            int fileCount = in.readInt();
+            if (fileCount < 0 || fileCount > indexSize) {
+                throw new IOException("bad file count " + fileCount);
+            }
+            for (int id = 0; id < fileCount; id++) {
+                if (in.readBoolean()) {
+                    FileEntry entry = new FileEntry(in.readUTF(), in.readLong(), in.readLong());
+                    if (ids.putIfAbsent(entry.name, id) != null) {
+                        throw new IOException("duplicate file " + entry.name);
+                    }
+                    files.add(entry);
+                } else {
+                    files.add(null);
+                }
+            }
+            int postingCount = in.readInt();
+            if (postingCount < 0 || postingCount > indexSize) {
+                throw new IOException("bad posting count " + postingCount);
+            }
+            for (int i = 0; i < postingCount; i++) {
+                long trigram = in.readLong();
+                int wordCount = in.readInt();
+                if (wordCount < 0 || wordCount > indexSize / Long.BYTES) {
+                    throw new IOException("bad posting length " + wordCount);
+                }
+                long[] words = new long[wordCount];
+                for (int j = 0; j < words.length; j++) {
+                    words[j] = in.readLong();
+                }
+                postings.put(trigram, BitSet.valueOf(words));
+            }
+            if (in.read() != -1) {
+                throw new IOException("trailing bytes");
+            }//a count that came out too small leaves part of the index unread
+        }
+        catch (IOException | RuntimeException e) {
+            files.clear();
+            ids.clear();
+            postings.clear();
+            //truncated, damaged or unreadable index, every file is indexed again.
+            //keeping part of the postings would silently leave out files that match
+        }
+    }
+
+    private void trySave() {
+        try {
+            save();
+        }
+        catch (IOException e) {
+            System.err.println("error saving search index " + e.getMessage());
+        }//the index is only a cache, the next search indexes the files again
+    }
+
+    private void save() throws IOException {
+        Files.createDirectories(indexFile.getParent());
+        Path temp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(files.size());
+                for (FileEntry entry : files) {
+                    out.writeBoolean(entry != null);
+                    if (entry != null) {
+                        out.writeUTF(entry.name);
+                        out.writeLong(entry.modified);
+                        out.writeLong(entry.size);
+                    }
+                }
+                out.writeInt(postings.size());
+                for (Map.Entry<Long, BitSet> posting : postings.entrySet()) {
+                    long[] words = posting.getValue().toLongArray();
+                    out.writeLong(posting.getKey());
+                    out.writeInt(words.length);
+                    for (long word : words) {
+                        out.writeLong(word);
+                    }
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+        //write then rename so a crash never leaves half an index behind,
+        //unique temp name because several searches can save the same index at once
+    }
+}
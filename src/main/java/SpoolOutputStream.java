@@ -0,0 +1,89 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Output of one file of a batch. Until the file's turn comes its output is
+// kept, the first MEMORY_LIMIT bytes on the heap and the rest in a temp file,
+// so files that finish early never hold more than that much memory each. Once
+// forwarded, what was kept is copied to the real output and every later write
+// goes straight through.
+public class SpoolOutputStream extends OutputStream {
+
+    static final int MEMORY_LIMIT = 1024 * 1024;
+
+    private final int memoryLimit;
+
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private Path spillFile;
+    private OutputStream spill;
+    private OutputStream target;
+    //target is null until the file's turn comes.
+
+    private int lastByte = -1;
+
+    public SpoolOutputStream() {
+        this(MEMORY_LIMIT);
+    }
+
+    SpoolOutputStream(int memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        if (target != null) {
+            target.write(b, off, len);
+        } else if (spill != null) {
+            spill.write(b, off, len);
+        } else if (memory.size() + len <= memoryLimit) {
+            memory.write(b, off, len);
+        } else {
+            spillFile = Files.createTempFile("batch", ".spool");
+            spill = new BufferedOutputStream(Files.newOutputStream(spillFile));
+            spill.write(b, off, len);
+        }//the memory part comes first, the temp file holds everything after it
+        lastByte = b[off + len - 1] & 0xFF;
+    }
+
+    // Copies everything kept so far to target and sends every later write
+    // straight to it
+    public synchronized void forwardTo(OutputStream target) throws IOException {
+        memory.writeTo(target);
+        memory = null;
+        if (spill != null) {
+            spill.close();
+            spill = null;
+            Files.copy(spillFile, target);
+            discard();
+        }
+        this.target = target;
+    }
+
+    // The last byte written, or -1 if nothing was
+    public synchronized int lastByte() {
+        return lastByte;
+    }
+
+    // Deletes the temp file of output that is never forwarded
+    public synchronized void discard() throws IOException {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+        if (spillFile != null) {
+            Files.deleteIfExists(spillFile);
+            spillFile = null;
+        }
+    }
+}
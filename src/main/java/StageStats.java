@@ -0,0 +1,78 @@
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+// Collects the TopSecret Flight Recorder events of this process while it runs
+// and prints how long each stage took. Nothing is recorded unless one of these
+// is created, so runs without --stats don't pay for it.
+public class StageStats implements AutoCloseable {
+
+    private static final String[][] STAGES = {
+        { "topsecret.ListFiles", "list files", "files", "files" },
+        { "topsecret.ReadFile", "read file", "bytes", "bytes" },
+        { "topsecret.LoadKey", "load key", "bytes", "bytes" },
+        { "topsecret.Decrypt", "decrypt", "bytes", "bytes" },
+    };
+    //event name, stage name, field holding the amount and what the amount counts.
+
+    private final RecordingStream stream = new RecordingStream();
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    private static class Stage {
+        final String label;
+        final String unit;
+        long count;
+        long nanos;
+        long amount;
+
+        Stage(String label, String unit) {
+            this.label = label;
+            this.unit = unit;
+        }
+    }
+
+    public StageStats() {
+        for (String[] stage : STAGES) {
+            String eventName = stage[0];
+            String field = stage[2];
+            Stage totals = new Stage(stage[1], stage[3]);
+            stages.put(eventName, totals);
+
+            stream.enable(eventName).withThreshold(Duration.ZERO).withoutStackTrace();
+            stream.onEvent(eventName, event -> add(totals, event, field));
+        }
+        stream.startAsync();
+    }
+
+    private synchronized void add(Stage stage, RecordedEvent event, String field) {
+        stage.count++;
+        stage.nanos += event.getDuration().toNanos();
+        stage.amount += event.getLong(field);
+    }
+
+    // Waits for the events recorded so far and prints one line per stage.
+    public void print(PrintStream out) {
+        stream.stop();
+        synchronized (this) {
+            out.printf("%-11s %8s %12s %16s %14s%n", "stage", "calls", "time ms", "amount", "rate");
+            for (Stage stage : stages.values()) {
+                double millis = stage.nanos / 1_000_000.0;
+                String rate = "";
+                if (stage.nanos > 0 && !stage.unit.equals("files")) {
+                    double perSecond = stage.amount / (stage.nanos / 1_000_000_000.0);
+                    rate = String.format("%.1f M%s/s", perSecond / 1_000_000, stage.unit.equals("bytes") ? "B" : "");
+                }
+                out.printf("%-11s %8d %12.2f %16s %14s%n", stage.label, stage.count, millis,
+                        stage.amount + " " + stage.unit, rate);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+}
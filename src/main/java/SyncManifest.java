@@ -0,0 +1,143 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// What the last sync encrypted: for every plain file its size, mtime and
+// CRC32C checksum, the key it was encrypted with and the size and mtime of the
+// .cip file written for it. A file whose size and mtime still match, and whose
+// .cip file is untouched, is skipped without being read. One whose mtime moved
+// but whose checksum didn't is only recorded again. Only .cip files listed
+// here are ever deleted as orphans, so ciphertext without a plain file that
+// sync didn't write is left alone.
+public class SyncManifest {
+
+    private static final int MAGIC = 0x5453594E;
+    private static final int VERSION = 1;
+    //identifies the manifest file format.
+
+    private final Path manifestFile;
+    private final String keyFile;
+    private final long keyChecksum;
+    //key this sync encrypts with, files encrypted with another key or another version of it are done again.
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public SyncManifest(Path folder, String keyFile, long keyChecksum) {
+        this.manifestFile = DataIndex.defaultIndexFile(folder).resolveSibling("sync.manifest");
+        this.keyFile = keyFile;
+        this.keyChecksum = keyChecksum;
+    }//kept in the data folder's cache next to the index
+
+    public static class Entry {
+        final long plainSize;
+        final long plainModified;
+        final int plainChecksum;
+        final String keyFile;
+        final long keyChecksum;
+        final String cipherName;
+        final long cipherSize;
+        final long cipherModified;
+
+        Entry(long plainSize, long plainModified, int plainChecksum, String keyFile, long keyChecksum,
+                String cipherName, long cipherSize, long cipherModified) {
+            this.plainSize = plainSize;
+            this.plainModified = plainModified;
+            this.plainChecksum = plainChecksum;
+            this.keyFile = keyFile;
+            this.keyChecksum = keyChecksum;
+            this.cipherName = cipherName;
+            this.cipherSize = cipherSize;
+            this.cipherModified = cipherModified;
+        }//plainModified is -1 when the file was changing while it was read, so it is checked again next time
+    }
+
+    public String getKeyFile() {
+        return keyFile;
+    }
+
+    public long getKeyChecksum() {
+        return keyChecksum;
+    }
+
+    public synchronized Entry get(String plainName) {
+        return entries.get(plainName);
+    }
+
+    public synchronized void put(String plainName, Entry entry) {
+        entries.put(plainName, entry);
+    }
+
+    public synchronized Entry remove(String plainName) {
+        return entries.remove(plainName);
+    }
+
+    public synchronized List<String> plainNames() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public boolean isCurrentKey(Entry entry) {
+        return entry.keyFile.equals(keyFile) && entry.keyChecksum == keyChecksum;
+    }
+
+    public synchronized void load() throws IOException {
+        entries.clear();
+        if (!Files.exists(manifestFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }//unknown format, every file is checked again
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("bad entry count " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                entries.put(name, new Entry(in.readLong(), in.readLong(), in.readInt(), in.readUTF(), in.readLong(),
+                        in.readUTF(), in.readLong(), in.readLong()));
+            }
+            if (in.read() != -1) {
+                throw new IOException("trailing bytes");
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            entries.clear();
+            //truncated, damaged or unreadable manifest, every file is checked again.
+            //nothing is deleted as an orphan either, since no .cip file is known to be sync's
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        Files.createDirectories(manifestFile.getParent());
+        Path temp = Files.createTempFile(manifestFile.getParent(), manifestFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> named : entries.entrySet()) {
+                    Entry entry = named.getValue();
+                    out.writeUTF(named.getKey());
+                    out.writeLong(entry.plainSize);
+                    out.writeLong(entry.plainModified);
+                    out.writeInt(entry.plainChecksum);
+                    out.writeUTF(entry.keyFile);
+                    out.writeLong(entry.keyChecksum);
+                    out.writeUTF(entry.cipherName);
+                    out.writeLong(entry.cipherSize);
+                    out.writeLong(entry.cipherModified);
+                }
+            }
+            Files.move(temp, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+        //write then rename so a crash never leaves half a manifest behind,
+        //unique temp name so overlapping syncs can't rename each other's half written manifest
+    }
+}
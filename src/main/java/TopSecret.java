@@ -1,10 +1,100 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import utilities.CipherRegistry;
+import utilities.ContentCache;
+
 public class TopSecret {
+
+    private static final String DAEMON_OPTION = "--daemon";
+    private static final String LOCAL_OPTION = "--local";
+    private static final String SOCKET_OPTION = "--socket=";
+    private static final String STATS_OPTION = "--stats";
+
+    private static final long DAEMON_CACHE_BYTES = 256L * 1024 * 1024;
+    //decrypted files the daemon keeps in memory unless -Dtopsecret.cacheBytes is set, 0 turns it off.
+
+    private static final String DEFAULT_FILES_FOLDERS = "data";
+    //data folders unless -Dtopsecret.dataFolders lists others, comma separated. The first is the one files are numbered in.
+
     public static void main(String[] args) {
-        FileHandler handler = new FileHandler();
-        ProgramController controller = new ProgramController(handler);
+        args = getArgs(args);
+        Path socket = Paths.get(TopSecretDaemon.DEFAULT_SOCKET);
+        boolean daemon = false;
+        boolean local = false;
+        boolean stats = false;
+        for (String arg : args) {
+            if (arg.equals(DAEMON_OPTION)) {
+                daemon = true;
+            } else if (arg.equals(LOCAL_OPTION)) {
+                local = true;
+            } else if (arg.equals(STATS_OPTION)) {
+                stats = true;
+            } else if (arg.startsWith(SOCKET_OPTION)) {
+                socket = Paths.get(arg.substring(SOCKET_OPTION.length()));
+            }
+        }
+
+        try {
+            // hand the request to a running daemon if there is one, it already has everything loaded
+            // --stats runs here so the numbers are about this run
+            if (!daemon && !local && !stats && TopSecretDaemon.forward(args, socket, System.out)) {
+                return;
+            }
+
+            long cacheBytes = Long.getLong("topsecret.cacheBytes", daemon ? DAEMON_CACHE_BYTES : 0);
+            ContentCache cache = cacheBytes > 0
+                    ? new ContentCache(cacheBytes, Boolean.getBoolean("topsecret.cacheOffHeap"))
+                    : null;
+            //a single run reads each file once, so only the daemon caches by default
+
+            FileHandler handler = new FileHandler(filesFolders(), ForkJoinPool.commonPool(), new CipherRegistry(), cache);
+            ProgramController controller = new ProgramController(handler);
+
+            if (daemon) {
+                handler.preloadCiphers();
+                handler.getDataIndex().watch();
+                System.err.println("listening on " + socket.toAbsolutePath());
+                new TopSecretDaemon(controller, socket).serve();
+                return;
+            }
+
+            StageStats stageStats = stats ? new StageStats() : null;
+            if (Boolean.getBoolean("topsecret.preloadKeys")) {
+                handler.preloadCiphers();
+            }
+            ChannelOutputStream out = new ChannelOutputStream(new FileOutputStream(FileDescriptor.out).getChannel());
+            controller.run(args, out);
+            out.flush();
+            //plain files are copied to stdout by the kernel, everything else goes through the buffer
+
+            if (stageStats != null) {
+                System.out.flush();
+                stageStats.print(System.err);
+                stageStats.close();
+            }//timing per stage goes to stderr so the output itself is unchanged
+        } catch (IOException e) {
+            System.err.println("error writing output" + e.getMessage());
+        }
+        System.out.flush();
+    }
 
-        String output = controller.run(getArgs(args));
-        System.out.println(output);
+    private static List<String> filesFolders() {
+        List<String> folders = new ArrayList<>();
+        for (String folder : System.getProperty("topsecret.dataFolders", DEFAULT_FILES_FOLDERS).split(",")) {
+            if (!folder.isBlank()) {
+                folders.add(folder.trim());
+            }
+        }
+        if (folders.isEmpty()) {
+            folders.add(DEFAULT_FILES_FOLDERS);
+        }
+        return folders;
     }
 
     public static String[] getArgs(String[] args) {
@@ -0,0 +1,136 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TopSecretDaemon {
+
+    public static final String DEFAULT_SOCKET = ".topsecret.sock";
+    //socket file created in the working directory unless --socket= is given.
+
+    private final ProgramController controller;
+    private final Path socket;
+    private volatile ServerSocketChannel server;
+
+    public TopSecretDaemon(ProgramController controller, Path socket) {
+        this.controller = controller;
+        this.socket = socket;
+    }
+
+    // Serves requests until the process is stopped. Each request is the
+    // command line arguments, one per line, ended by an empty line or the end
+    // of input, and gets the same output the command line would print, so
+    // any client works, e.g. printf '1\n\n' | nc -U .topsecret.sock
+    public void serve() throws IOException {
+        if (Files.exists(socket)) {
+            if (isRunning(socket)) {
+                throw new IOException("a daemon is already listening on " + socket);
+            }
+            Files.delete(socket);
+        }//left over from a daemon that didn't shut down cleanly
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            this.server = server;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException e) {
+                    //nothing left to do while shutting down
+                }
+            }));
+
+            while (server.isOpen()) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (AsynchronousCloseException e) {
+                    break;
+                }//stop() closed the socket
+                executor.submit(() -> handle(client));
+            }//every client gets its own virtual thread
+        }
+        finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    public void stop() throws IOException {
+        ServerSocketChannel current = server;
+        if (current != null) {
+            current.close();
+        }
+    }//stop accepting clients, requests already running are finished first
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+            List<String> args = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                args.add(line);
+            }
+
+            OutputStream out = new ChannelOutputStream(client);
+            try {
+                controller.run(args.toArray(new String[0]), out);
+                //plain files are sent to the socket with sendfile
+            } catch (IOException | RuntimeException e) {
+                out.write(("Error: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+            }//the request failed, tell the client like the command line would
+            out.flush();
+        }
+        catch (IOException e) {
+            //the client went away, the daemon keeps serving others
+        }
+    }
+
+    // Sends the arguments to a running daemon and copies its answer to out.
+    // Returns false if no daemon is listening, so the caller can run locally.
+    public static boolean forward(String[] args, Path socket, OutputStream out) throws IOException {
+        if (!Files.exists(socket)) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            return false;
+        }//stale socket file, no daemon behind it
+
+        try (channel) {
+            StringBuilder request = new StringBuilder();
+            for (String arg : args) {
+                request.append(arg).append('\n');
+            }
+            request.append('\n');
+            OutputStream requestOut = Channels.newOutputStream(channel);
+            requestOut.write(request.toString().getBytes(StandardCharsets.UTF_8));
+            requestOut.flush();
+            channel.shutdownOutput();
+
+            Channels.newInputStream(channel).transferTo(out);
+            out.flush();
+        }
+        return true;
+    }
+
+    private static boolean isRunning(Path socket) {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
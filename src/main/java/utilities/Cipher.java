@@ -1,14 +1,22 @@
 package utilities;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.HashSet;
 import java.util.List;
 import java.nio.file.*;
 
 /**
  * Class implements cipher encryption and decryption based on the provided
- * cipher keys.
+ * cipher keys. Instances are immutable once constructed and can be shared
+ * between threads.
+ *
+ * A key compiled with {@link CompiledKey#compile(Path)} is loaded in its
+ * place while it is up to date, which skips reading and validating the text.
+ *
+ * Loading a key and decrypting are reported as {@link LoadKeyEvent} and
+ * {@link DecryptEvent} Flight Recorder events.
  * 
  * @see CipherInterface
  * @see InvalidCipherKeyException
@@ -18,14 +26,14 @@ public class Cipher implements CipherInterface {
     private static final String DEFAULT_KEY_FILE_PATH = "ciphers/key.txt";
     private final String CIPHER_KEY_FILE_PATH;
 
-    private char[][] keys;
-
-    private final HashMap<Character, Character> encryptMap;
-    private final HashMap<Character, Character> decryptMap;
+    private final SubstitutionTable encryptTable;
+    private final SubstitutionTable decryptTable;
+    private final boolean compiled;
+    private volatile CipherInterface vectorized;
 
     /**
      * Constructs a Cipher by loading and validating the key file,
-     * then creating encryption and decryption mappings.
+     * then creating encryption and decryption tables.
      * 
      * @throws InvalidCipherKeyFileException if there is an error reading the key
      *                                       file
@@ -36,7 +44,8 @@ public class Cipher implements CipherInterface {
     }
 
     /**
-     * Constructs a Cipher with a specified key file path.
+     * Constructs a Cipher with a specified key file path. The path can be a
+     * text key or a compiled {@code .tsk} key.
      * 
      * @param cipherKeyFilePath the path to the cipher key file
      * @throws InvalidCipherKeyFileException if there is an error reading the key
@@ -44,21 +53,42 @@ public class Cipher implements CipherInterface {
      * @throws InvalidCipherKeyException     if the keys are invalid
      */
     public Cipher(String cipherKeyFilePath) throws InvalidCipherKeyFileException, InvalidCipherKeyException {
+        LoadKeyEvent event = new LoadKeyEvent();
+        event.begin();
+
         this.CIPHER_KEY_FILE_PATH = cipherKeyFilePath;
-        this.loadCipherKeys();
-        this.encryptMap = createEncryptMap();
-        this.decryptMap = createDecryptMap();
+        CompiledKey compiledKey = CompiledKey.load(Paths.get(cipherKeyFilePath));
+        int length;
+        if (compiledKey != null) {
+            this.encryptTable = compiledKey.encryptTable;
+            this.decryptTable = compiledKey.decryptTable;
+            length = compiledKey.bytes;
+        } else {
+            char[][] keys = this.loadCipherKeys();
+            this.encryptTable = new SubstitutionTable(keys[0], keys[1]);
+            this.decryptTable = new SubstitutionTable(keys[1], keys[0]);
+            length = keys[0].length + keys[1].length;
+        }
+        this.compiled = compiledKey != null;
+
+        if (event.shouldCommit()) {
+            event.keyFile = cipherKeyFilePath;
+            event.bytes = length;
+            event.compiled = compiled;
+            event.commit();
+        }
     }
 
     /**
      * Loads the cipher key file, validates its format, then returns the original
      * and cipher character arrays.
      * 
+     * @return the original characters followed by the cipher characters
      * @throws InvalidCipherKeyFileException if there is an error reading the key
      *                                       file
      * @throws InvalidCipherKeyException     if the keys are invalid
      */
-    private void loadCipherKeys() throws InvalidCipherKeyFileException, InvalidCipherKeyException {
+    private char[][] loadCipherKeys() throws InvalidCipherKeyFileException, InvalidCipherKeyException {
         try {
             List<String> lines = Files.readAllLines(Paths.get(CIPHER_KEY_FILE_PATH));
 
@@ -67,9 +97,7 @@ public class Cipher implements CipherInterface {
             String original = lines.get(0);
             String cipher = lines.get(1);
 
-            this.keys = new char[2][original.length()];
-            keys[0] = original.toCharArray();
-            keys[1] = cipher.toCharArray();
+            return new char[][] { original.toCharArray(), cipher.toCharArray() };
         } catch (IOException e) {
             throw new InvalidCipherKeyFileException("Error reading cipher key file: " + e.getMessage());
         }
@@ -128,36 +156,47 @@ public class Cipher implements CipherInterface {
     }
 
     /**
-     * Creates the encryption mapping from the original characters to the cipher
-     * characters.
-     * 
-     * @return HashMap mapping original characters to cipher characters
-     * @throws InvalidCipherKeyException     if the keys are invalid
-     * @throws InvalidCipherKeyFileException if the key file cannot be read
+     * Tells whether the tables were loaded from a compiled key.
+     *
+     * @return true if the text key was not read
      */
-    private HashMap<Character, Character> createEncryptMap()
-            throws InvalidCipherKeyFileException, InvalidCipherKeyException {
-        char[] original = keys[0];
-        char[] cipher = keys[1];
+    boolean isCompiled() {
+        return compiled;
+    }
 
-        HashMap<Character, Character> encryptMap = new HashMap<>();
-        for (int i = 0; i < original.length; i++) {
-            encryptMap.put(original[i], cipher[i]);
-        }
-        return encryptMap;
+    /**
+     * Returns the table mapping plaintext to ciphertext.
+     *
+     * @return the encryption table
+     */
+    SubstitutionTable encryptTable() {
+        return encryptTable;
     }
 
     /**
-     * Creates the decryption mapping by reversing the encryption map.
-     * 
-     * @return HashMap mapping cipher characters to original characters
+     * Returns the table mapping ciphertext to plaintext.
+     *
+     * @return the decryption table
+     */
+    SubstitutionTable decryptTable() {
+        return decryptTable;
+    }
+
+    /**
+     * Returns the vectorized form of this cipher, building it on first use.
+     * It is kept with the cipher so a cached cipher only builds its vector
+     * tables once. Two threads asking at the same time may both build one,
+     * which is harmless as they are equal.
+     *
+     * @return the {@link VectorCipher} for this cipher
      */
-    private HashMap<Character, Character> createDecryptMap() {
-        HashMap<Character, Character> decryptMap = new HashMap<>();
-        for (Character key : encryptMap.keySet()) {
-            decryptMap.put(encryptMap.get(key), key);
+    CipherInterface vectorized() {
+        CipherInterface current = vectorized;
+        if (current == null) {
+            current = new VectorCipher(this);
+            vectorized = current;
         }
-        return decryptMap;
+        return current;
     }
 
     /**
@@ -169,11 +208,9 @@ public class Cipher implements CipherInterface {
      */
     @Override
     public String encrypt(String plaintext) {
-        StringBuilder encrypted = new StringBuilder(plaintext.length());
-        for (char character : plaintext.toCharArray()) {
-            encrypted.append(encryptMap.getOrDefault(character, character));
-        }
-        return encrypted.toString();
+        char[] characters = plaintext.toCharArray();
+        encrypt(characters, 0, characters.length);
+        return new String(characters);
     }
 
     /**
@@ -185,10 +222,95 @@ public class Cipher implements CipherInterface {
      */
     @Override
     public String decrypt(String ciphertext) {
-        StringBuilder decrypted = new StringBuilder(ciphertext.length());
-        for (char character : ciphertext.toCharArray()) {
-            decrypted.append(decryptMap.getOrDefault(character, character));
+        char[] characters = ciphertext.toCharArray();
+        decrypt(characters, 0, characters.length);
+        return new String(characters);
+    }
+
+    /**
+     * Encrypts a range of characters into the target array without allocating.
+     */
+    @Override
+    public void encrypt(char[] source, int sourceOffset, char[] target, int targetOffset, int length) {
+        encryptTable.map(source, sourceOffset, target, targetOffset, length);
+    }
+
+    /**
+     * Decrypts a range of characters into the target array without allocating.
+     */
+    @Override
+    public void decrypt(char[] source, int sourceOffset, char[] target, int targetOffset, int length) {
+        DecryptEvent event = new DecryptEvent();
+        event.begin();
+        decryptTable.map(source, sourceOffset, target, targetOffset, length);
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = DecryptEvent.utf8Length(source, sourceOffset, length);
+            event.commit();
+        }
+    }
+
+    /**
+     * Encrypts characters from one buffer into another without allocating.
+     */
+    @Override
+    public void encrypt(CharBuffer source, CharBuffer target) {
+        encryptTable.map(source, target);
+    }
+
+    /**
+     * Decrypts characters from one buffer into another without allocating.
+     */
+    @Override
+    public void decrypt(CharBuffer source, CharBuffer target) {
+        DecryptEvent event = new DecryptEvent();
+        event.begin();
+        int start = source.position();
+        decryptTable.map(source, target);
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = DecryptEvent.utf8Length(source, start, source.position());
+            event.commit();
+        }
+    }
+
+    /**
+     * Checks whether both key lines only contain ISO-8859-1 characters.
+     */
+    @Override
+    public boolean isSingleByte() {
+        return encryptTable.isSingleByte() && decryptTable.isSingleByte();
+    }
+
+    /**
+     * Checks whether both key lines only contain ASCII characters.
+     */
+    @Override
+    public boolean isAscii() {
+        return encryptTable.isAscii() && decryptTable.isAscii();
+    }
+
+    /**
+     * Encrypts bytes from one buffer into another using the byte table.
+     */
+    @Override
+    public void encrypt(ByteBuffer source, ByteBuffer target) {
+        encryptTable.map(source, target);
+    }
+
+    /**
+     * Decrypts bytes from one buffer into another using the byte table.
+     */
+    @Override
+    public void decrypt(ByteBuffer source, ByteBuffer target) {
+        DecryptEvent event = new DecryptEvent();
+        event.begin();
+        int start = source.position();
+        decryptTable.map(source, target);
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = source.position() - start;
+            event.commit();
         }
-        return decrypted.toString();
     }
 }
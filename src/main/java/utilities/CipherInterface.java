@@ -1,14 +1,21 @@
 package utilities;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
 /**
  * Interface defining methods for cipher encryption and decryption.
- * 
+ *
+ * Besides the String methods, text can be mapped in place or into a buffer
+ * supplied by the caller, so hot paths can reuse buffers without creating
+ * garbage per call.
+ *
  * @see Cipher
  */
 public interface CipherInterface {
     /**
      * Encrypts the given plaintext using the cipher's encryption mapping.
-     * 
+     *
      * @param plaintext the text to encrypt
      * @return the encrypted text
      */
@@ -16,9 +23,115 @@ public interface CipherInterface {
 
     /**
      * Decrypts the given ciphertext using the cipher's decryption mapping.
-     * 
+     *
      * @param ciphertext the text to decrypt
      * @return the decrypted text
      */
     String decrypt(String ciphertext);
+
+    /**
+     * Encrypts {@code length} characters from {@code source} into {@code target}.
+     * The arrays may be the same array.
+     *
+     * @param source       the characters to encrypt
+     * @param sourceOffset the first character to encrypt
+     * @param target       the array receiving the encrypted characters
+     * @param targetOffset the position of the first encrypted character
+     * @param length       the number of characters to encrypt
+     */
+    void encrypt(char[] source, int sourceOffset, char[] target, int targetOffset, int length);
+
+    /**
+     * Decrypts {@code length} characters from {@code source} into {@code target}.
+     * The arrays may be the same array.
+     *
+     * @param source       the characters to decrypt
+     * @param sourceOffset the first character to decrypt
+     * @param target       the array receiving the decrypted characters
+     * @param targetOffset the position of the first decrypted character
+     * @param length       the number of characters to decrypt
+     */
+    void decrypt(char[] source, int sourceOffset, char[] target, int targetOffset, int length);
+
+    /**
+     * Encrypts a range of characters in place.
+     *
+     * @param characters the characters to encrypt
+     * @param offset     the first character to encrypt
+     * @param length     the number of characters to encrypt
+     */
+    default void encrypt(char[] characters, int offset, int length) {
+        encrypt(characters, offset, characters, offset, length);
+    }
+
+    /**
+     * Decrypts a range of characters in place.
+     *
+     * @param characters the characters to decrypt
+     * @param offset     the first character to decrypt
+     * @param length     the number of characters to decrypt
+     */
+    default void decrypt(char[] characters, int offset, int length) {
+        decrypt(characters, offset, characters, offset, length);
+    }
+
+    /**
+     * Encrypts the remaining characters of {@code source} into {@code target},
+     * stopping when either buffer runs out. Both positions are advanced by the
+     * number of characters transferred.
+     *
+     * @param source the buffer to read plaintext from
+     * @param target the buffer to write ciphertext to
+     */
+    void encrypt(CharBuffer source, CharBuffer target);
+
+    /**
+     * Decrypts the remaining characters of {@code source} into {@code target},
+     * stopping when either buffer runs out. Both positions are advanced by the
+     * number of characters transferred.
+     *
+     * @param source the buffer to read ciphertext from
+     * @param target the buffer to write plaintext to
+     */
+    void decrypt(CharBuffer source, CharBuffer target);
+
+    /**
+     * Checks whether every key character fits in a single ISO-8859-1 byte, in
+     * which case the {@link ByteBuffer} methods can be used.
+     *
+     * @return true if the key only contains single-byte characters
+     */
+    boolean isSingleByte();
+
+    /**
+     * Checks whether every key character is ASCII. UTF-8 stores ASCII characters
+     * as the same single bytes and never reuses those byte values inside longer
+     * sequences, so for such keys the {@link ByteBuffer} methods can be applied
+     * directly to UTF-8 encoded files without decoding them.
+     *
+     * @return true if the key only contains ASCII characters
+     */
+    boolean isAscii();
+
+    /**
+     * Encrypts the remaining bytes of {@code source} into {@code target}, treating
+     * each byte as an ISO-8859-1 character. Both positions are advanced by the
+     * number of bytes transferred.
+     *
+     * @param source the buffer to read plaintext from
+     * @param target the buffer to write ciphertext to
+     * @throws UnsupportedOperationException if the key is not single-byte
+     */
+    void encrypt(ByteBuffer source, ByteBuffer target);
+
+    /**
+     * Decrypts the remaining bytes of {@code source} into {@code target}, treating
+     * each byte as an ISO-8859-1 character. Both positions are advanced by the
+     * number of bytes transferred.
+     *
+     * @param source the buffer to read ciphertext from
+     * @param target the buffer to write plaintext to
+     * @throws UnsupportedOperationException if the key is not single-byte
+     */
+    void decrypt(ByteBuffer source, ByteBuffer target);
 }
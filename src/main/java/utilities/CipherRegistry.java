@@ -0,0 +1,187 @@
+package utilities;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe cache of loaded {@link Cipher} instances keyed by key file path.
+ * A cached cipher is reused until its key file's modification time or size
+ * changes, so repeated reads do not re-read and re-validate the key. The
+ * number of cached ciphers is bounded, and the least recently used one is
+ * evicted when the bound is exceeded.
+ *
+ * @see Cipher
+ */
+public class CipherRegistry {
+    public static final int DEFAULT_CAPACITY = 32;
+
+    private final int capacity;
+    private final ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Constructs a registry holding up to {@link #DEFAULT_CAPACITY} ciphers.
+     */
+    public CipherRegistry() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a registry holding up to the given number of ciphers.
+     *
+     * @param capacity the maximum number of cached ciphers
+     */
+    public CipherRegistry(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the cipher for a key file, loading it if it is not cached or the
+     * file changed since it was loaded.
+     *
+     * @param cipherKeyFilePath the path to the cipher key file
+     * @return the shared cipher for the key file
+     * @throws InvalidCipherKeyFileException if there is an error reading the key
+     *                                       file
+     * @throws InvalidCipherKeyException     if the keys are invalid
+     */
+    public Cipher get(String cipherKeyFilePath) throws InvalidCipherKeyFileException, InvalidCipherKeyException {
+        Path path = Paths.get(cipherKeyFilePath).toAbsolutePath().normalize();
+        BasicFileAttributes attributes = readAttributes(path);
+        if (attributes == null) {
+            entries.remove(path);
+            return new Cipher(cipherKeyFilePath); // throws the usual missing file error
+        }
+
+        long modified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+
+        Entry entry = entries.get(path);
+        if (entry == null || !entry.matches(modified, size)) {
+            // loaded outside the map, so a slow key file doesn't hold up other keys
+            Entry loaded = new Entry(new Cipher(cipherKeyFilePath), modified, size);
+            entry = entries.compute(path,
+                    (key, current) -> current != null && current.matches(modified, size) ? current : loaded);
+            // another thread may have loaded the same key file meanwhile, keep its cipher
+        }
+        entry.lastUsed = clock.incrementAndGet();
+
+        if (entries.size() > capacity) {
+            evictLeastRecentlyUsed();
+        }
+        return entry.cipher;
+    }
+
+    /**
+     * Loads every key file in a directory into the registry, up to its capacity.
+     * Files that are not valid keys are skipped.
+     *
+     * @param directory the directory holding key files
+     * @return the number of keys loaded
+     * @throws IOException if the directory cannot be listed
+     */
+    public int preload(Path directory) throws IOException {
+        int loaded = 0;
+        try (DirectoryStream<Path> keyFiles = Files.newDirectoryStream(directory)) {
+            for (Path keyFile : keyFiles) {
+                if (loaded >= capacity) {
+                    break;
+                }
+                if (!Files.isRegularFile(keyFile)) {
+                    continue;
+                }
+                if (CompiledKey.isCompiled(keyFile) && Files.exists(CompiledKey.textPath(keyFile))) {
+                    continue; // the text key next to it loads the compiled key itself
+                }
+                try {
+                    get(keyFile.toString());
+                    loaded++;
+                } catch (InvalidCipherKeyException | InvalidCipherKeyFileException e) {
+                    // not a usable key, it will report its error if it is ever requested
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Removes a key file from the registry so the next request reloads it.
+     *
+     * @param cipherKeyFilePath the path to the cipher key file
+     */
+    public void invalidate(String cipherKeyFilePath) {
+        entries.remove(Paths.get(cipherKeyFilePath).toAbsolutePath().normalize());
+    }
+
+    /**
+     * Removes every cached cipher.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of cached ciphers.
+     *
+     * @return the number of cached ciphers
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new InvalidCipherKeyFileException("Error reading cipher key file: " + e.getMessage());
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        while (entries.size() > capacity) {
+            Map.Entry<Path, Entry> oldest = null;
+            for (Map.Entry<Path, Entry> candidate : entries.entrySet()) {
+                if (oldest == null || candidate.getValue().lastUsed < oldest.getValue().lastUsed) {
+                    oldest = candidate;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            entries.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    /**
+     * A loaded cipher together with the key file state it was loaded from.
+     */
+    private static final class Entry {
+        final Cipher cipher;
+        final long modified;
+        final long size;
+        volatile long lastUsed;
+
+        Entry(Cipher cipher, long modified, long size) {
+            this.cipher = cipher;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        boolean matches(long modified, long size) {
+            return this.modified == modified && this.size == size;
+        }
+    }
+}
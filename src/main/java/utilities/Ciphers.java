@@ -0,0 +1,56 @@
+package utilities;
+
+/**
+ * Picks the fastest available implementation for a cipher. The vectorized
+ * engine is only used when the {@code jdk.incubator.vector} module was added
+ * to the JVM (with {@code --add-modules jdk.incubator.vector}) and preview
+ * APIs are enabled (with {@code --enable-preview}), the key is
+ * ASCII-only and the machine has wide enough vectors; otherwise the scalar
+ * {@link Cipher} is used as is. Setting {@code -Dtopsecret.vector=false} turns
+ * the vectorized engine off.
+ *
+ * @see VectorCipher
+ */
+public final class Ciphers {
+    private static final boolean VECTOR_AVAILABLE = vectorAvailable();
+
+    private Ciphers() {
+    }
+
+    /**
+     * Returns the fastest implementation of the given cipher.
+     *
+     * @param cipher the loaded cipher
+     * @return a {@link VectorCipher} when it can be used, built once per
+     *         cipher, otherwise the cipher
+     */
+    public static CipherInterface fastest(Cipher cipher) {
+        if (VECTOR_AVAILABLE && cipher.isAscii()) {
+            return cipher.vectorized();
+        }
+        return cipher;
+    }
+
+    /**
+     * Checks whether {@link #fastest(Cipher)} returns vectorized ciphers for
+     * ASCII keys.
+     *
+     * @return true if the Vector API is present and worthwhile
+     */
+    public static boolean isVectorAvailable() {
+        return VECTOR_AVAILABLE;
+    }
+
+    private static boolean vectorAvailable() {
+        if (!Boolean.parseBoolean(System.getProperty("topsecret.vector", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return VectorCipher.isWorthwhile();
+        } catch (LinkageError e) {
+            return false;
+        }// VectorCipher is only loaded here, once the module is known to be present. Without
+        // --enable-preview it fails to load and the scalar cipher is used
+    }
+}
@@ -0,0 +1,214 @@
+package utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Compiled form of a cipher key: a small binary file next to the text key
+ * ({@code key.txt} becomes {@code key.tsk}) holding the ready-built encryption
+ * and decryption tables. It is read with a single read and checked with a
+ * CRC32C checksum, so loading it skips parsing and validating the text key.
+ *
+ * A compiled key records the size and CRC32C checksum of the text key it was
+ * made from. {@link Cipher} uses it in place of the text key only while they
+ * still match, so editing a key never leaves a stale compiled key in use, even
+ * an edit that keeps the size and lands in the same modification time tick.
+ * The text key is small, so checksumming it costs far less than parsing it.
+ * A {@code .tsk} file can also be passed to {@link Cipher} directly.
+ *
+ * @see Cipher
+ */
+public final class CompiledKey {
+    public static final String EXTENSION = ".tsk";
+    private static final String TEXT_EXTENSION = ".txt";
+
+    private static final int MAGIC = 0x5453434B;
+    private static final int VERSION = 2;
+
+    final SubstitutionTable encryptTable;
+    final SubstitutionTable decryptTable;
+    final int bytes;
+
+    private CompiledKey(SubstitutionTable encryptTable, SubstitutionTable decryptTable, int bytes) {
+        this.encryptTable = encryptTable;
+        this.decryptTable = decryptTable;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Returns where the compiled form of a text key is kept.
+     *
+     * @param keyFile the text key file
+     * @return the {@code .tsk} file next to it
+     */
+    public static Path compiledPath(Path keyFile) {
+        String name = keyFile.getFileName().toString();
+        String baseName = name.toLowerCase().endsWith(TEXT_EXTENSION)
+                ? name.substring(0, name.length() - TEXT_EXTENSION.length())
+                : name;
+        return keyFile.resolveSibling(baseName + EXTENSION);
+    }
+
+    /**
+     * Returns the text key a compiled key is made from.
+     *
+     * @param compiledFile the {@code .tsk} file
+     * @return the {@code .txt} file next to it
+     */
+    static Path textPath(Path compiledFile) {
+        String name = compiledFile.getFileName().toString();
+        return compiledFile.resolveSibling(name.substring(0, name.length() - EXTENSION.length()) + TEXT_EXTENSION);
+    }
+
+    /**
+     * Validates a text key and writes its compiled form next to it, replacing
+     * any earlier one.
+     *
+     * @param keyFile the text key file
+     * @return the compiled key file
+     * @throws InvalidCipherKeyFileException if the key file cannot be read or
+     *                                       the compiled key cannot be written
+     * @throws InvalidCipherKeyException     if the keys are invalid
+     */
+    public static Path compile(Path keyFile) throws InvalidCipherKeyFileException, InvalidCipherKeyException {
+        if (isCompiled(keyFile)) {
+            throw new InvalidCipherKeyFileException("Key file is already compiled: " + keyFile);
+        }
+        Path target = compiledPath(keyFile);
+        try {
+            byte[] source = Files.readAllBytes(keyFile);
+            Cipher cipher = new Cipher(keyFile.toString());
+            // the key is checksummed first, so a key edited meanwhile makes the compiled key stale rather than wrong
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length);
+            out.writeLong(checksum(source));
+            cipher.encryptTable().write(out);
+            cipher.decryptTable().write(out);
+            out.flush();
+            out.writeInt((int) checksum(bytes.toByteArray()));
+
+            Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(),
+                    ".tmp");
+            try {
+                Files.write(temp, bytes.toByteArray());
+                try {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (NoSuchFileException e) {
+            throw new InvalidCipherKeyFileException("Error reading cipher key file: " + e.getMessage());
+        } catch (IOException e) {
+            throw new InvalidCipherKeyFileException("Error compiling cipher key file: " + e.getMessage());
+        }
+        return target;
+    }
+
+    /**
+     * Tells whether a path names a compiled key.
+     *
+     * @param keyFile the key file
+     * @return true for {@code .tsk} files
+     */
+    public static boolean isCompiled(Path keyFile) {
+        return keyFile.getFileName().toString().toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Loads the compiled tables for a key file. A {@code .tsk} file is loaded
+     * as it is. For a text key, its compiled sibling is used if it exists,
+     * is intact and was made from the key as it is now.
+     *
+     * @param keyFile the key file the cipher was asked for
+     * @return the compiled key, or null if the text key has to be read
+     * @throws InvalidCipherKeyFileException if a {@code .tsk} file was asked
+     *                                       for and cannot be read or is
+     *                                       corrupt
+     */
+    static CompiledKey load(Path keyFile) throws InvalidCipherKeyFileException {
+        if (isCompiled(keyFile)) {
+            try {
+                CompiledKey compiled = read(Files.readAllBytes(keyFile), null);
+                if (compiled == null) {
+                    throw new InvalidCipherKeyFileException("Corrupt compiled cipher key file: " + keyFile);
+                }
+                return compiled;
+            } catch (IOException e) {
+                throw new InvalidCipherKeyFileException("Error reading cipher key file: " + e.getMessage());
+            }
+        }
+
+        Path compiledFile = compiledPath(keyFile);
+        try {
+            byte[] bytes = Files.readAllBytes(compiledFile);
+            return read(bytes, Files.readAllBytes(keyFile));
+        } catch (IOException e) {
+            return null;
+            // no compiled key, or the text key is missing and reports its own error
+        }
+    }
+
+    /**
+     * Parses a compiled key.
+     *
+     * @param bytes  the contents of the {@code .tsk} file
+     * @param source the text key's contents to match, or null to skip the
+     *               check
+     * @return the compiled key, or null if it is corrupt or stale
+     */
+    private static CompiledKey read(byte[] bytes, byte[] source) {
+        if (bytes.length < 28) {
+            return null;
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(bytes, 0, bytes.length - 4);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.getInt(bytes.length - 4) != (int) checksum.getValue()) {
+            return null;
+        }
+
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            long size = in.getLong();
+            long sourceChecksum = in.getLong();
+            if (source != null && (size != source.length || sourceChecksum != checksum(source))) {
+                return null;
+            }
+            SubstitutionTable encryptTable = SubstitutionTable.read(in);
+            SubstitutionTable decryptTable = SubstitutionTable.read(in);
+            return in.remaining() == 4 ? new CompiledKey(encryptTable, decryptTable, bytes.length) : null;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Computes the CRC32C checksum of some bytes.
+     *
+     * @param bytes the bytes to check
+     * @return the checksum as an unsigned 32-bit value
+     */
+    private static long checksum(byte[] bytes) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(bytes);
+        return checksum.getValue();
+    }
+}
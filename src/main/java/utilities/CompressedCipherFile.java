@@ -0,0 +1,589 @@
+package utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes {@code .cipz} files: the ciphertext of a {@code .cip} file
+ * cut into blocks that are compressed independently, followed by an index of
+ * the blocks. Since a substitution cipher only changes characters, the
+ * ciphertext compresses about as well as the plaintext would.
+ *
+ * The file starts with a header of magic number, version and block size.
+ * After the blocks comes the footer: the number of blocks, the compressed and
+ * uncompressed length of each block, the offset of the footer and the magic
+ * number again. Blocks end on UTF-8 character boundaries, so every block can
+ * be decrypted on its own with any key, and a byte range only needs the blocks
+ * it overlaps. Each block is a zlib stream, whose checksum catches corrupted
+ * blocks.
+ *
+ * Offsets and lengths passed to this class are always in uncompressed
+ * ciphertext bytes, the same as for the {@code .cip} file it was made from.
+ *
+ * @see ParallelFileCipher
+ */
+public final class CompressedCipherFile implements Closeable {
+    public static final String EXTENSION = ".cipz";
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private static final int MAGIC = 0x5453435A;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 12;
+
+    private final FileChannel in;
+    private final int blockSize;
+    private final long[] compressedOffsets;
+    private final long[] offsets;
+    // block i is stored at compressedOffsets[i] and holds the bytes from
+    // offsets[i] to offsets[i + 1]; the last entries are the footer offset and
+    // the uncompressed length
+
+    private CompressedCipherFile(FileChannel in, int blockSize, long[] compressedOffsets, long[] offsets) {
+        this.in = in;
+        this.blockSize = blockSize;
+        this.compressedOffsets = compressedOffsets;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Tells whether a file name has the {@code .cipz} extension.
+     *
+     * @param fileName the name to check
+     * @return true for compressed files
+     */
+    public static boolean isCompressed(String fileName) {
+        return fileName.toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Opens a compressed file and reads its block index.
+     *
+     * @param file the {@code .cipz} file
+     * @return the open file, to be closed by the caller
+     * @throws IOException if the file cannot be read or is not a valid
+     *                     compressed file
+     */
+    public static CompressedCipherFile open(Path file) throws IOException {
+        FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = in.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE + 4) {
+                throw new IOException("not a compressed cipher file: " + file);
+            }
+            ByteBuffer header = read(in, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("not a compressed cipher file: " + file);
+            }
+            int blockSize = header.getInt();
+
+            ByteBuffer trailer = read(in, size - TRAILER_SIZE, TRAILER_SIZE);
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || footerOffset < HEADER_SIZE || footerOffset > size - TRAILER_SIZE - 4) {
+                throw new IOException("truncated compressed cipher file: " + file);
+            }
+            ByteBuffer footer = read(in, footerOffset, (int) (size - TRAILER_SIZE - footerOffset));
+            int blocks = footer.getInt();
+            if (blocks < 0 || footer.remaining() != blocks * 8L) {
+                throw new IOException("corrupt block index in " + file);
+            }
+
+            long[] compressedOffsets = new long[blocks + 1];
+            long[] offsets = new long[blocks + 1];
+            compressedOffsets[0] = HEADER_SIZE;
+            for (int i = 0; i < blocks; i++) {
+                compressedOffsets[i + 1] = compressedOffsets[i] + footer.getInt();
+                offsets[i + 1] = offsets[i] + footer.getInt();
+            }
+            if (compressedOffsets[blocks] != footerOffset) {
+                throw new IOException("corrupt block index in " + file);
+            }
+            return new CompressedCipherFile(in, blockSize, compressedOffsets, offsets);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the stored ciphertext of a file for reading: {@code .cipz} files
+     * are decompressed block by block, any other file is read as it is.
+     *
+     * @param file the file to read
+     * @return a read-only channel over the ciphertext, to be closed by the
+     *         caller
+     * @throws IOException if the file cannot be opened
+     */
+    public static SeekableByteChannel openContents(Path file) throws IOException {
+        if (isCompressed(file.getFileName().toString())) {
+            return open(file).new BlockChannel(true);
+        }
+        return FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * Compresses a {@code .cip} file into a new {@code .cipz} file, blocks
+     * being compressed in parallel on the given pool. The target is replaced
+     * and forced to disk.
+     *
+     * @param source    the file to compress
+     * @param target    the file to write
+     * @param blockSize the approximate number of uncompressed bytes per block
+     * @param pool      the pool blocks are compressed on
+     * @throws IOException if either file cannot be read or written
+     */
+    public static void compress(Path source, Path target, int blockSize, ForkJoinPool pool) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive.");
+        }
+        try (FileChannel from = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = from.size();
+            List<Long> boundaries = new ArrayList<>();
+            long start = 0;
+            while (start < size) {
+                boundaries.add(start);
+                start = nextBoundary(from, Math.min(size, start + blockSize), size);
+            }
+            boundaries.add(size);
+            //cut between characters so every block decodes on its own
+
+            write(target, blockSize, boundaries.size() - 1, pool, block -> {
+                long position = boundaries.get(block);
+                return read(from, position, (int) (boundaries.get(block + 1) - position)).array();
+            });
+        }
+    }
+
+    /**
+     * Writes a copy of this file with every block passed through a cipher's
+     * decrypt methods, for example a {@link RekeyCipher} to move it to another
+     * key without producing the plaintext. Blocks are processed in parallel on
+     * the given pool. The target is replaced and forced to disk.
+     *
+     * @param target the file to write
+     * @param cipher the cipher each block is decrypted with
+     * @param pool   the pool blocks are processed on
+     * @throws IOException if either file cannot be read or written
+     */
+    public void recode(Path target, CipherInterface cipher, ForkJoinPool pool) throws IOException {
+        write(target, blockSize, blockCount(), pool, block -> {
+            ByteBuffer decrypted = ParallelFileCipher.decryptChunk(ByteBuffer.wrap(inflate(block)), cipher);
+            return Arrays.copyOfRange(decrypted.array(), decrypted.arrayOffset() + decrypted.position(),
+                    decrypted.arrayOffset() + decrypted.limit());
+        });
+    }
+
+    /**
+     * Returns the number of ciphertext bytes stored in this file.
+     *
+     * @return the uncompressed length
+     */
+    public long length() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Returns the number of compressed blocks.
+     *
+     * @return the block count
+     */
+    public int blockCount() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Decrypts the whole file into the given channel. The channel is not
+     * closed.
+     *
+     * @param target the channel receiving the UTF-8 plaintext
+     * @param cipher the cipher to decrypt with
+     * @param pool   the pool blocks are decompressed and decrypted on
+     * @throws IOException if the file cannot be read or the channel written
+     */
+    public void decrypt(WritableByteChannel target, CipherInterface cipher, ForkJoinPool pool) throws IOException {
+        decrypt(0, Long.MAX_VALUE, target, cipher, pool);
+    }
+
+    /**
+     * Decrypts part of the file into the given channel, reading only the
+     * blocks the range overlaps. Blocks are decompressed and decrypted in
+     * parallel and written in order, with a bounded number in flight. For keys
+     * that are not ASCII-only, both ends of the range are moved forward to the
+     * start of a character. The channel is not closed.
+     *
+     * @param position the offset of the first ciphertext byte to decrypt
+     * @param length   the number of bytes to decrypt, cut off at the end of the
+     *                 file
+     * @param target   the channel receiving the UTF-8 plaintext
+     * @param cipher   the cipher to decrypt with
+     * @param pool     the pool blocks are decompressed and decrypted on
+     * @throws IOException if the file cannot be read or the channel written
+     */
+    public void decrypt(long position, long length, WritableByteChannel target, CipherInterface cipher,
+            ForkJoinPool pool) throws IOException {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("Position and length must not be negative.");
+        }
+        long size = length();
+        long first = Math.min(position, size);
+        long end = length >= size - first ? size : first + length;
+        if (first >= end) {
+            return;
+        }
+
+        int firstBlock = blockAt(first);
+        int lastBlock = blockAt(end - 1);
+        boolean parallel = lastBlock > firstBlock;
+        ArrayDeque<ForkJoinTask<ByteBuffer>> inFlight = new ArrayDeque<>();
+        int maxInFlight = pool.getParallelism() * 2;
+
+        try {
+            for (int block = firstBlock; block <= lastBlock; block++) {
+                DecryptBlock task = new DecryptBlock(block, Math.max(first - offsets[block], 0),
+                        Math.min(end, offsets[block + 1]) - offsets[block], cipher);
+                if (parallel) {
+                    inFlight.add(pool.submit(task));
+                    if (inFlight.size() >= maxInFlight) {
+                        write(inFlight.poll().join(), target);
+                    }
+                } else {
+                    write(task.invoke(), target);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll().join(), target);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (ForkJoinTask<ByteBuffer> remaining : inFlight) {
+                remaining.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Opens a read-only channel over the ciphertext of this file. Closing the
+     * channel leaves this file open.
+     *
+     * @return the channel
+     */
+    public SeekableByteChannel newChannel() {
+        return new BlockChannel(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Finds the block holding an uncompressed offset.
+     *
+     * @param position an offset below {@link #length()}
+     * @return the index of the block
+     */
+    private int blockAt(long position) {
+        int found = Arrays.binarySearch(offsets, position);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    /**
+     * Reads and decompresses one block.
+     *
+     * @param block the index of the block
+     * @return the ciphertext of the block
+     * @throws IOException if the block cannot be read or is corrupt
+     */
+    private byte[] inflate(int block) throws IOException {
+        ByteBuffer compressed = read(in, compressedOffsets[block],
+                (int) (compressedOffsets[block + 1] - compressedOffsets[block]));
+        byte[] bytes = new byte[(int) (offsets[block + 1] - offsets[block])];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array(), 0, compressed.limit());
+            int filled = 0;
+            while (filled < bytes.length) {
+                int inflated = inflater.inflate(bytes, filled, bytes.length - filled);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                filled += inflated;
+            }
+            if (filled == bytes.length && !inflater.finished() && inflater.inflate(new byte[1]) != 0) {
+                throw new IOException("corrupt block " + block);
+            }//more data than the index says
+            if (filled != bytes.length || !inflater.finished()) {
+                throw new IOException("corrupt block " + block);
+            }//checksum is only verified once the end of the stream is read
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt block " + block, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes a compressed file from blocks produced on a pool, with a bounded
+     * number in flight, then the footer, and forces it to disk.
+     */
+    private static void write(Path target, int blockSize, int blocks, ForkJoinPool pool, BlockSource source)
+            throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putInt(blockSize);
+            write(header.flip(), out);
+
+            ByteBuffer footer = ByteBuffer.allocate(4 + blocks * 8 + TRAILER_SIZE).putInt(blocks);
+            ArrayDeque<ForkJoinTask<byte[][]>> inFlight = new ArrayDeque<>();
+            int maxInFlight = pool.getParallelism() * 2;
+            try {
+                for (int block = 0; block < blocks; block++) {
+                    int index = block;
+                    inFlight.add(pool.submit(new RecursiveTask<byte[][]>() {
+                        @Override
+                        protected byte[][] compute() {
+                            try {
+                                byte[] bytes = source.block(index);
+                                return new byte[][] { bytes, deflate(bytes) };
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    }));
+                    if (inFlight.size() >= maxInFlight) {
+                        writeBlock(inFlight.poll().join(), out, footer);
+                    }
+                }
+                while (!inFlight.isEmpty()) {
+                    writeBlock(inFlight.poll().join(), out, footer);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                for (ForkJoinTask<byte[][]> remaining : inFlight) {
+                    remaining.cancel(true);
+                }
+            }
+
+            footer.putLong(out.position()).putInt(MAGIC);
+            write(footer.flip(), out);
+            out.force(true);
+        }
+    }
+
+    private static void writeBlock(byte[][] block, FileChannel out, ByteBuffer footer) throws IOException {
+        write(ByteBuffer.wrap(block[1]), out);
+        footer.putInt(block[1].length).putInt(block[0].length);
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Moves a boundary forward past any UTF-8 continuation bytes so it lands
+     * on the start of a character.
+     */
+    private static long nextBoundary(FileChannel in, long boundary, long size) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(1);
+        while (boundary < size) {
+            probe.clear();
+            in.read(probe, boundary);
+            if ((probe.get(0) & 0xC0) != 0x80) {
+                break;
+            }
+            boundary++;
+        }
+        return boundary;
+    }
+
+    private static int nextBoundary(byte[] bytes, int boundary) {
+        while (boundary < bytes.length && (bytes[boundary] & 0xC0) == 0x80) {
+            boundary++;
+        }
+        return boundary;
+    }
+
+    private static ByteBuffer read(FileChannel in, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void write(ByteBuffer buffer, WritableByteChannel target) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * Produces the uncompressed bytes of one block being written.
+     */
+    private interface BlockSource {
+        byte[] block(int index) throws IOException;
+    }
+
+    /**
+     * Task that decompresses one block and decrypts the requested part of it.
+     */
+    private final class DecryptBlock extends RecursiveTask<ByteBuffer> {
+        private final int block;
+        private final long from;
+        private final long to;
+        private final CipherInterface cipher;
+
+        DecryptBlock(int block, long from, long to, CipherInterface cipher) {
+            this.block = block;
+            this.from = from;
+            this.to = to;
+            this.cipher = cipher;
+        }
+
+        @Override
+        protected ByteBuffer compute() {
+            try {
+                byte[] bytes = inflate(block);
+                int start = (int) from;
+                int end = (int) to;
+                if (!cipher.isAscii()) {
+                    start = nextBoundary(bytes, start);
+                    end = nextBoundary(bytes, end);
+                }//blocks themselves end between characters
+                return ParallelFileCipher.decryptChunk(ByteBuffer.wrap(bytes, start, end - start), cipher);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Read-only view of the ciphertext that keeps the last block it
+     * decompressed, so sequential reads decompress every block once.
+     */
+    private final class BlockChannel implements SeekableByteChannel {
+        private final boolean ownsFile;
+        private long position;
+        private int cachedBlock = -1;
+        private byte[] cached;
+        private boolean open = true;
+
+        BlockChannel(boolean ownsFile) {
+            this.ownsFile = ownsFile;
+        }
+
+        @Override
+        public int read(ByteBuffer target) throws IOException {
+            ensureOpen();
+            if (position >= length()) {
+                return -1;
+            }
+            int read = 0;
+            while (target.hasRemaining() && position < length()) {
+                int block = blockAt(position);
+                if (block != cachedBlock) {
+                    cached = inflate(block);
+                    cachedBlock = block;
+                }
+                int offset = (int) (position - offsets[block]);
+                int count = Math.min(target.remaining(), cached.length - offset);
+                target.put(cached, offset, count);
+                position += count;
+                read += count;
+            }
+            return read;
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Position must not be negative.");
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return length();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (open) {
+                open = false;
+                cached = null;
+                if (ownsFile) {
+                    CompressedCipherFile.this.close();
+                }
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package utilities;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe, memory-bounded cache of decrypted file contents. Entries are
+ * keyed by the file and key file together with their modification times and
+ * the file size, so a changed file or key simply stops matching and ages out.
+ * When the byte budget is exceeded the least recently used entries are
+ * evicted.
+ *
+ * Contents can be kept on the heap or in direct buffers outside it, so large
+ * cached files do not have to be scanned or copied by the garbage collector.
+ *
+ * @see CipherRegistry
+ */
+public class ContentCache {
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final boolean offHeap;
+
+    private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Identifies one version of a decrypted file.
+     *
+     * @param file         the absolute path of the encrypted file
+     * @param modified     the file's modification time in milliseconds
+     * @param size         the file's size in bytes
+     * @param keyFile      the absolute path of the key file it was decrypted with
+     * @param keyModified  the key file's modification time in milliseconds
+     */
+    public record Key(Path file, long modified, long size, Path keyFile, long keyModified) {
+    }
+
+    /**
+     * Constructs a cache keeping contents on the heap.
+     *
+     * @param maxBytes the total number of content bytes the cache may hold
+     */
+    public ContentCache(long maxBytes) {
+        this(maxBytes, false);
+    }
+
+    /**
+     * Constructs a cache. Entries bigger than a quarter of the budget are not
+     * cached, so one large file cannot push out everything else.
+     *
+     * @param maxBytes the total number of content bytes the cache may hold
+     * @param offHeap  whether contents are kept in direct buffers
+     */
+    public ContentCache(long maxBytes, boolean offHeap) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive.");
+        }
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.max(1, maxBytes / 4);
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Returns the cached contents for a key.
+     *
+     * @param key the file version to look up
+     * @return a read-only buffer over the contents, or null if not cached
+     */
+    public ByteBuffer get(Key key) {
+        ByteBuffer contents;
+        synchronized (this) {
+            contents = entries.get(key);
+        }
+        if (contents == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return contents.asReadOnlyBuffer();
+    }
+
+    /**
+     * Checks whether contents of the given size would be cached.
+     *
+     * @param length the number of bytes
+     * @return true if an entry of that size is accepted
+     */
+    public boolean accepts(long length) {
+        return length <= maxEntryBytes;
+    }
+
+    /**
+     * Caches the contents for a key. On the heap the array is kept as is and
+     * must not be changed afterwards; off the heap it is copied.
+     *
+     * @param key      the file version the contents belong to
+     * @param contents the decrypted contents
+     * @return true if the contents were cached
+     */
+    public boolean put(Key key, byte[] contents) {
+        if (!accepts(contents.length)) {
+            return false;
+        }
+        ByteBuffer buffer;
+        if (offHeap) {
+            buffer = ByteBuffer.allocateDirect(contents.length).put(contents).flip();
+        } else {
+            buffer = ByteBuffer.wrap(contents);
+        }
+
+        synchronized (this) {
+            ByteBuffer previous = entries.put(key, buffer);
+            if (previous != null) {
+                bytes -= previous.capacity();
+            }
+            bytes += buffer.capacity();
+
+            Iterator<Map.Entry<Key, ByteBuffer>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<Key, ByteBuffer> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                bytes -= entry.getValue().capacity();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes every cached entry.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the number of cached entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of content bytes currently cached.
+     *
+     * @return the cached bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the byte budget.
+     *
+     * @return the maximum number of cached bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of lookups that found an entry.
+     *
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that found nothing.
+     *
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of entries removed to stay within the budget.
+     *
+     * @return the eviction count
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
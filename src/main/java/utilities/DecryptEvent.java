@@ -0,0 +1,60 @@
+package utilities;
+
+import java.nio.CharBuffer;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event for one call to a {@link Cipher} decrypt method. Calls
+ * are frequent, so by default only those taking a millisecond or more are
+ * recorded.
+ */
+@Name("topsecret.Decrypt")
+@Label("Decrypt")
+@Category("TopSecret")
+@Description("Maps a range of ciphertext through the decryption table")
+@Threshold("1 ms")
+public class DecryptEvent extends Event {
+    @Label("Bytes")
+    @Description("UTF-8 bytes of ciphertext, whether it was passed as bytes or characters")
+    @DataAmount
+    public long bytes;
+
+    /**
+     * Counts the UTF-8 bytes of a range of characters, so calls on characters
+     * and on bytes report the same unit.
+     */
+    static long utf8Length(char[] chars, int offset, int length) {
+        long bytes = 0;
+        for (int i = offset; i < offset + length; i++) {
+            bytes += utf8Length(chars[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Counts the UTF-8 bytes of the characters between two buffer positions.
+     */
+    static long utf8Length(CharBuffer chars, int start, int end) {
+        long bytes = 0;
+        for (int i = start; i < end; i++) {
+            bytes += utf8Length(chars.get(i));
+        }
+        return bytes;
+    }
+
+    private static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800 || Character.isSurrogate(c)) {
+            return 2;
+        }//each half of a surrogate pair counts for half of its four bytes
+        return 3;
+    }
+}
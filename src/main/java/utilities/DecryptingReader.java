@@ -0,0 +1,63 @@
+package utilities;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reader that decrypts ciphertext from an underlying reader as it is read.
+ * Characters are decrypted in place in the caller's buffer, so reading does
+ * not allocate and memory use does not depend on the size of the input.
+ *
+ * @see CipherInterface
+ */
+public class DecryptingReader extends FilterReader {
+    private final CipherInterface cipher;
+    private final char[] single = new char[1];
+
+    /**
+     * Constructs a DecryptingReader over the given ciphertext reader.
+     *
+     * @param in     the reader supplying ciphertext
+     * @param cipher the cipher used to decrypt
+     */
+    public DecryptingReader(Reader in, CipherInterface cipher) {
+        super(in);
+        this.cipher = cipher;
+    }
+
+    /**
+     * Reads and decrypts a single character.
+     *
+     * @return the decrypted character, or -1 at the end of the stream
+     * @throws IOException if the underlying reader fails
+     */
+    @Override
+    public int read() throws IOException {
+        int character = in.read();
+        if (character == -1) {
+            return -1;
+        }
+        single[0] = (char) character;
+        cipher.decrypt(single, 0, 1);
+        return single[0];
+    }
+
+    /**
+     * Reads characters into a portion of an array and decrypts them in place.
+     *
+     * @param buffer the destination buffer
+     * @param offset the position to start storing characters
+     * @param length the maximum number of characters to read
+     * @return the number of characters read, or -1 at the end of the stream
+     * @throws IOException if the underlying reader fails
+     */
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        int read = in.read(buffer, offset, length);
+        if (read > 0) {
+            cipher.decrypt(buffer, offset, read);
+        }
+        return read;
+    }
+}
@@ -0,0 +1,83 @@
+package utilities;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer that encrypts plaintext before passing it on to an underlying writer.
+ * Characters are encrypted through a fixed size buffer owned by the writer,
+ * so the caller's data is never modified and memory use does not depend on
+ * the size of the output.
+ *
+ * @see DecryptingReader
+ */
+public class EncryptingWriter extends FilterWriter {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final CipherInterface cipher;
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    /**
+     * Constructs an EncryptingWriter over the given ciphertext writer.
+     *
+     * @param out    the writer receiving ciphertext
+     * @param cipher the cipher used to encrypt
+     */
+    public EncryptingWriter(Writer out, CipherInterface cipher) {
+        super(out);
+        this.cipher = cipher;
+    }
+
+    /**
+     * Encrypts and writes a single character.
+     *
+     * @param character the character to write
+     * @throws IOException if the underlying writer fails
+     */
+    @Override
+    public void write(int character) throws IOException {
+        buffer[0] = (char) character;
+        cipher.encrypt(buffer, 0, 1);
+        out.write(buffer[0]);
+    }
+
+    /**
+     * Encrypts and writes a portion of an array of characters.
+     *
+     * @param source the characters to write
+     * @param offset the position of the first character
+     * @param length the number of characters to write
+     * @throws IOException if the underlying writer fails
+     */
+    @Override
+    public void write(char[] source, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = Math.min(length, buffer.length);
+            cipher.encrypt(source, offset, buffer, 0, count);
+            out.write(buffer, 0, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Encrypts and writes a portion of a string.
+     *
+     * @param source the string to write
+     * @param offset the position of the first character
+     * @param length the number of characters to write
+     * @throws IOException if the underlying writer fails
+     */
+    @Override
+    public void write(String source, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = Math.min(length, buffer.length);
+            source.getChars(offset, offset + count, buffer, 0);
+            cipher.encrypt(buffer, 0, count);
+            out.write(buffer, 0, count);
+            offset += count;
+            length -= count;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package utilities;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for listing the data folder.
+ */
+@Name("topsecret.ListFiles")
+@Label("List Files")
+@Category("TopSecret")
+@Description("Lists the files in the data folder")
+public class ListFilesEvent extends Event {
+    @Label("Folder")
+    public String folder;
+
+    @Label("Files")
+    public int files;
+}
@@ -0,0 +1,27 @@
+package utilities;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for constructing a {@link Cipher} from a key file.
+ */
+@Name("topsecret.LoadKey")
+@Label("Load Key")
+@Category("TopSecret")
+@Description("Reads and validates a cipher key file and builds its tables, or loads them compiled")
+public class LoadKeyEvent extends Event {
+    @Label("Key File")
+    public String keyFile;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Compiled")
+    public boolean compiled;
+}
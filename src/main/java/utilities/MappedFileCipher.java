@@ -0,0 +1,107 @@
+package utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decrypts whole files at the byte level for ASCII keys. The input file is
+ * memory-mapped and each byte goes through the key's byte table, so no charset
+ * decoding or encoding takes place.
+ *
+ * @see CipherInterface#isAscii()
+ */
+public final class MappedFileCipher {
+    // map at most this many bytes at a time so files of any size can be handled
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private MappedFileCipher() {
+    }
+
+    /**
+     * Decrypts a file into the given channel. The channel is not closed.
+     *
+     * @param source the file to decrypt
+     * @param target the channel receiving the plaintext
+     * @param cipher the cipher to decrypt with, must be ASCII-only
+     * @return the number of bytes written
+     * @throws IOException                   if the file cannot be read or written
+     * @throws UnsupportedOperationException if the key is not ASCII-only
+     */
+    public static long decrypt(Path source, WritableByteChannel target, CipherInterface cipher) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            return decrypt(in, 0, in.size(), target, cipher);
+        }
+    }
+
+    /**
+     * Decrypts part of an open file into the given channel. Neither channel is
+     * closed.
+     *
+     * @param in       the file to decrypt
+     * @param position the offset of the first byte to decrypt
+     * @param length   the number of bytes to decrypt
+     * @param target   the channel receiving the plaintext
+     * @param cipher   the cipher to decrypt with, must be ASCII-only
+     * @return the number of bytes written
+     * @throws IOException                   if the file cannot be read or written
+     * @throws UnsupportedOperationException if the key is not ASCII-only
+     */
+    public static long decrypt(FileChannel in, long position, long length, WritableByteChannel target,
+            CipherInterface cipher) throws IOException {
+        requireAscii(cipher);
+        ByteBuffer chunk = ByteBuffer.allocateDirect((int) Math.min(CHUNK_SIZE, Math.max(length, 1)));
+
+        long end = position + length;
+        for (long windowStart = position; windowStart < end; windowStart += MAP_WINDOW) {
+            MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                    Math.min(MAP_WINDOW, end - windowStart));
+            while (window.hasRemaining()) {
+                chunk.clear();
+                cipher.decrypt(window, chunk);
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    target.write(chunk);
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Decrypts a file into a memory-mapped output file, replacing its contents.
+     *
+     * @param source the file to decrypt
+     * @param target the file receiving the plaintext
+     * @param cipher the cipher to decrypt with, must be ASCII-only
+     * @throws IOException                   if either file cannot be accessed
+     * @throws UnsupportedOperationException if the key is not ASCII-only
+     */
+    public static void decrypt(Path source, Path target, CipherInterface cipher) throws IOException {
+        requireAscii(cipher);
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                long length = Math.min(MAP_WINDOW, size - position);
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+                MappedByteBuffer output = out.map(FileChannel.MapMode.READ_WRITE, position, length);
+                cipher.decrypt(window, output);
+                output.force();
+            }
+        }
+    }
+
+    private static void requireAscii(CipherInterface cipher) {
+        if (!cipher.isAscii()) {
+            throw new UnsupportedOperationException("Byte-level decryption needs an ASCII-only cipher key.");
+        }
+    }
+}
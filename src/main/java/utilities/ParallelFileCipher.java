@@ -0,0 +1,248 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Decrypts UTF-8 files by splitting them into chunks that are decrypted
+ * concurrently on a fork/join pool and written back in order. A substitution
+ * cipher does not depend on position, so every chunk can be decrypted on its
+ * own as long as no chunk boundary falls inside a multi-byte character.
+ *
+ * Only a bounded number of chunks are in flight at a time, so memory use does
+ * not depend on the file size. Files below the size threshold are decrypted
+ * chunk by chunk on the calling thread instead.
+ *
+ * @see MappedFileCipher
+ */
+public final class ParallelFileCipher {
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final long DEFAULT_THRESHOLD = 8L * 1024 * 1024;
+    // map this many bytes at a time and hand the chunks out as slices of it
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final long threshold;
+
+    /**
+     * Constructs a ParallelFileCipher on the common fork/join pool with the
+     * default chunk size and threshold.
+     */
+    public ParallelFileCipher() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a ParallelFileCipher on the given pool with the default chunk
+     * size and threshold.
+     *
+     * @param pool the pool chunks are decrypted on
+     */
+    public ParallelFileCipher(ForkJoinPool pool) {
+        this(pool, DEFAULT_CHUNK_SIZE, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Constructs a ParallelFileCipher.
+     *
+     * @param pool      the pool chunks are decrypted on
+     * @param chunkSize the approximate number of bytes per chunk
+     * @param threshold the file size from which decryption runs in parallel
+     */
+    public ParallelFileCipher(ForkJoinPool pool, int chunkSize, long threshold) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Decrypts a UTF-8 file into the given channel. The channel is not closed.
+     *
+     * @param source the file to decrypt
+     * @param target the channel receiving the UTF-8 plaintext
+     * @param cipher the cipher to decrypt with
+     * @throws IOException if the file cannot be read or the channel written
+     */
+    public void decrypt(Path source, WritableByteChannel target, CipherInterface cipher) throws IOException {
+        decrypt(source, 0, Long.MAX_VALUE, target, cipher);
+    }
+
+    /**
+     * Decrypts part of a UTF-8 file into the given channel. For keys that are
+     * not ASCII-only, both ends of the range are moved forward to the start of
+     * a character. The channel is not closed.
+     *
+     * @param source   the file to decrypt
+     * @param position the offset of the first byte to decrypt
+     * @param length   the number of bytes to decrypt, cut off at the end of the
+     *                 file
+     * @param target   the channel receiving the UTF-8 plaintext
+     * @param cipher   the cipher to decrypt with
+     * @throws IOException if the file cannot be read or the channel written
+     */
+    public void decrypt(Path source, long position, long length, WritableByteChannel target, CipherInterface cipher)
+            throws IOException {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("Position and length must not be negative.");
+        }
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long fileSize = in.size();
+            long first = Math.min(position, fileSize);
+            long size = length >= fileSize - first ? fileSize : first + length;
+            first = nextBoundary(in, first, fileSize, cipher.isAscii());
+            size = nextBoundary(in, size, fileSize, cipher.isAscii());
+            boolean parallel = size - first >= threshold;
+
+            if (!parallel && cipher.isAscii()) {
+                MappedFileCipher.decrypt(in, first, size - first, target, cipher);
+                return;
+            }
+
+            ArrayDeque<ForkJoinTask<ByteBuffer>> inFlight = new ArrayDeque<>();
+            int maxInFlight = parallel ? pool.getParallelism() * 2 : 1;
+
+            try {
+                MappedByteBuffer window = null;
+                long windowStart = 0;
+                long start = first;
+                while (start < size) {
+                    long end = nextBoundary(in, Math.min(size, start + chunkSize), size, cipher.isAscii());
+                    if (window == null || end > windowStart + window.capacity()) {
+                        windowStart = start;
+                        window = in.map(FileChannel.MapMode.READ_ONLY, start,
+                                Math.max(Math.min(MAP_WINDOW, size - start), end - start));
+                    }// a chunk running past the end of the window starts the next one
+                    DecryptChunk chunk = new DecryptChunk(
+                            window.slice((int) (start - windowStart), (int) (end - start)), cipher);
+
+                    if (parallel) {
+                        inFlight.add(pool.submit(chunk));
+                        if (inFlight.size() >= maxInFlight) {
+                            write(inFlight.poll().join(), target);
+                        }
+                    } else {
+                        write(chunk.invoke(), target);
+                    }
+                    start = end;
+                }
+
+                while (!inFlight.isEmpty()) {
+                    write(inFlight.poll().join(), target);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                for (ForkJoinTask<ByteBuffer> remaining : inFlight) {
+                    remaining.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves a chunk boundary forward past any UTF-8 continuation bytes so it
+     * lands on the start of a character.
+     *
+     * @param in       the file being split
+     * @param boundary the proposed boundary
+     * @param size     the size of the file
+     * @param ascii    whether the key is ASCII-only, in which case bytes are
+     *                 independent and any boundary works
+     * @return the adjusted boundary
+     * @throws IOException if the file cannot be read
+     */
+    private static long nextBoundary(FileChannel in, long boundary, long size, boolean ascii) throws IOException {
+        if (ascii) {
+            return boundary;
+        }
+        ByteBuffer probe = ByteBuffer.allocate(1);
+        while (boundary < size) {
+            probe.clear();
+            in.read(probe, boundary);
+            if ((probe.get(0) & 0xC0) != 0x80) {
+                break;
+            }
+            boundary++;
+        }
+        return boundary;
+    }
+
+    /**
+     * Decrypts one chunk of UTF-8 ciphertext into a new buffer. The chunk must
+     * start and end on character boundaries unless the key is ASCII-only.
+     *
+     * @param chunk  the ciphertext, read up to its limit
+     * @param cipher the cipher to decrypt with
+     * @return the UTF-8 plaintext, ready to be read
+     * @throws IOException if the bytes cannot be decoded
+     */
+    public static ByteBuffer decryptChunk(ByteBuffer chunk, CipherInterface cipher) throws IOException {
+        if (cipher.isAscii()) {
+            ByteBuffer decrypted = ByteBuffer.allocate(chunk.remaining());
+            cipher.decrypt(chunk, decrypted);
+            return decrypted.flip();
+        }
+
+        // decode and encode the same way InputStreamReader and OutputStreamWriter do
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        CharBuffer characters = decoder.decode(chunk);
+        cipher.decrypt(characters.array(), characters.arrayOffset() + characters.position(),
+                characters.remaining());
+        return encoder.encode(characters);
+    }
+
+    private static void write(ByteBuffer buffer, WritableByteChannel target) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * Task that decrypts one chunk of the file, a slice of a mapped window,
+     * into a new buffer of UTF-8 bytes.
+     */
+    private static final class DecryptChunk extends RecursiveTask<ByteBuffer> {
+        private final ByteBuffer chunk;
+        private final CipherInterface cipher;
+
+        DecryptChunk(ByteBuffer chunk, CipherInterface cipher) {
+            this.chunk = chunk;
+            this.cipher = cipher;
+        }
+
+        @Override
+        protected ByteBuffer compute() {
+            try {
+                return decryptChunk(chunk, cipher);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
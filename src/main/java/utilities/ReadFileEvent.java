@@ -0,0 +1,29 @@
+package utilities;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for reading the raw bytes of one file. Loading the key
+ * and decrypting are separate events, and encrypted files that are decrypted
+ * while they are read are only reported as decryption.
+ */
+@Name("topsecret.ReadFile")
+@Label("Read File")
+@Category("TopSecret")
+@Description("Reads the bytes of one file from the data folder")
+public class ReadFileEvent extends Event {
+    @Label("File")
+    public String file;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Encrypted")
+    public boolean encrypted;
+}
@@ -0,0 +1,117 @@
+package utilities;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * Cipher that turns ciphertext of one key straight into ciphertext of another.
+ * The old key's decryption table and the new key's encryption table are
+ * composed into a single table, so each character is looked up once and the
+ * plaintext never exists in between.
+ *
+ * The decrypt methods go from the old key to the new key, so a RekeyCipher can
+ * be handed to anything that decrypts files, such as {@link ParallelFileCipher}.
+ * The encrypt methods go back from the new key to the old key.
+ *
+ * @see Cipher
+ */
+public final class RekeyCipher implements CipherInterface {
+    private final SubstitutionTable forwardTable;
+    private final SubstitutionTable backwardTable;
+
+    /**
+     * Constructs a RekeyCipher for moving files from the key they are encrypted with
+     * to the key they should be encrypted with.
+     *
+     * @param oldCipher the cipher the ciphertext is currently encrypted with
+     * @param newCipher the cipher the ciphertext should be encrypted with
+     */
+    public RekeyCipher(Cipher oldCipher, Cipher newCipher) {
+        this.forwardTable = SubstitutionTable.compose(oldCipher.decryptTable(), newCipher.encryptTable());
+        this.backwardTable = SubstitutionTable.compose(newCipher.decryptTable(), oldCipher.encryptTable());
+    }
+
+    /**
+     * Turns ciphertext of the new key back into ciphertext of the old key.
+     */
+    @Override
+    public String encrypt(String ciphertext) {
+        char[] characters = ciphertext.toCharArray();
+        encrypt(characters, 0, characters.length);
+        return new String(characters);
+    }
+
+    /**
+     * Turns ciphertext of the old key into ciphertext of the new key.
+     */
+    @Override
+    public String decrypt(String ciphertext) {
+        char[] characters = ciphertext.toCharArray();
+        decrypt(characters, 0, characters.length);
+        return new String(characters);
+    }
+
+    /**
+     * Turns a range of new key ciphertext into old key ciphertext.
+     */
+    @Override
+    public void encrypt(char[] source, int sourceOffset, char[] target, int targetOffset, int length) {
+        backwardTable.map(source, sourceOffset, target, targetOffset, length);
+    }
+
+    /**
+     * Turns a range of old key ciphertext into new key ciphertext.
+     */
+    @Override
+    public void decrypt(char[] source, int sourceOffset, char[] target, int targetOffset, int length) {
+        forwardTable.map(source, sourceOffset, target, targetOffset, length);
+    }
+
+    /**
+     * Turns new key ciphertext from one buffer into old key ciphertext in another.
+     */
+    @Override
+    public void encrypt(CharBuffer source, CharBuffer target) {
+        backwardTable.map(source, target);
+    }
+
+    /**
+     * Turns old key ciphertext from one buffer into new key ciphertext in another.
+     */
+    @Override
+    public void decrypt(CharBuffer source, CharBuffer target) {
+        forwardTable.map(source, target);
+    }
+
+    /**
+     * Checks whether the composed tables only map single-byte characters.
+     */
+    @Override
+    public boolean isSingleByte() {
+        return forwardTable.isSingleByte() && backwardTable.isSingleByte();
+    }
+
+    /**
+     * Checks whether the composed tables only map ASCII characters.
+     */
+    @Override
+    public boolean isAscii() {
+        return forwardTable.isAscii() && backwardTable.isAscii();
+    }
+
+    /**
+     * Turns new key ciphertext bytes into old key ciphertext bytes.
+     */
+    @Override
+    public void encrypt(ByteBuffer source, ByteBuffer target) {
+        backwardTable.map(source, target);
+    }
+
+    /**
+     * Turns old key ciphertext bytes into new key ciphertext bytes.
+     */
+    @Override
+    public void decrypt(ByteBuffer source, ByteBuffer target) {
+        forwardTable.map(source, target);
+    }
+}
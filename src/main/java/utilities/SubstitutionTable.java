@@ -0,0 +1,330 @@
+package utilities;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable character substitution table backed by primitive arrays.
+ * Characters in the ASCII/Latin-1 range are looked up in a dense 256-entry
+ * table, while larger characters fall back to a sorted sparse table. Characters
+ * without a mapping are returned unchanged.
+ *
+ * @see Cipher
+ */
+final class SubstitutionTable {
+    private static final int DENSE_SIZE = 256;
+    private static final int ASCII_SIZE = 128;
+    private static final int HAS_BYTES = 1;
+    private static final int ASCII = 2;
+
+    private final char[] dense;
+    private final char[] sparseKeys;
+    private final char[] sparseValues;
+    private final byte[] bytes;
+    private final boolean ascii;
+
+    /**
+     * Builds a table mapping each character of {@code from} to the character at
+     * the same position in {@code to}.
+     *
+     * @param from the characters to substitute
+     * @param to   the replacement characters, same length as {@code from}
+     */
+    SubstitutionTable(char[] from, char[] to) {
+        this.dense = new char[DENSE_SIZE];
+        for (int i = 0; i < DENSE_SIZE; i++) {
+            dense[i] = (char) i;
+        }
+
+        int sparseCount = 0;
+        for (int i = 0; i < from.length; i++) {
+            if (from[i] < DENSE_SIZE) {
+                dense[from[i]] = to[i];
+            } else {
+                sparseCount++;
+            }
+        }
+
+        // pair up the sparse entries and sort them by key for binary search
+        long[] pairs = new long[sparseCount];
+        int next = 0;
+        for (int i = 0; i < from.length; i++) {
+            if (from[i] >= DENSE_SIZE) {
+                pairs[next++] = ((long) from[i] << 16) | to[i];
+            }
+        }
+        Arrays.sort(pairs);
+
+        this.sparseKeys = new char[sparseCount];
+        this.sparseValues = new char[sparseCount];
+        for (int i = 0; i < sparseCount; i++) {
+            sparseKeys[i] = (char) (pairs[i] >>> 16);
+            sparseValues[i] = (char) pairs[i];
+        }
+
+        this.bytes = sparseCount == 0 ? createByteTable(dense) : null;
+        this.ascii = bytes != null && isAsciiOnly(dense);
+    }
+
+    /**
+     * Wraps tables that were built before, without checking them.
+     */
+    private SubstitutionTable(char[] dense, char[] sparseKeys, char[] sparseValues, byte[] bytes, boolean ascii) {
+        this.dense = dense;
+        this.sparseKeys = sparseKeys;
+        this.sparseValues = sparseValues;
+        this.bytes = bytes;
+        this.ascii = ascii;
+    }
+
+    /**
+     * Writes the built table so {@link #read(ByteBuffer)} can restore it
+     * without building it again.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(sparseKeys.length);
+        out.writeByte((bytes != null ? HAS_BYTES : 0) | (ascii ? ASCII : 0));
+        writeChars(out, dense);
+        writeChars(out, sparseKeys);
+        writeChars(out, sparseValues);
+        if (bytes != null) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #write(DataOutputStream)}, leaving the
+     * buffer after it.
+     *
+     * @param in the buffer to read from
+     * @return the table
+     * @throws java.nio.BufferUnderflowException if the buffer ends early
+     */
+    static SubstitutionTable read(ByteBuffer in) {
+        int sparseCount = in.getInt();
+        if (sparseCount < 0 || sparseCount * 4L > in.remaining()) {
+            throw new IllegalArgumentException("Invalid table size.");
+        }
+        int flags = in.get();
+        char[] dense = readChars(in, DENSE_SIZE);
+        char[] sparseKeys = readChars(in, sparseCount);
+        char[] sparseValues = readChars(in, sparseCount);
+        byte[] bytes = null;
+        if ((flags & HAS_BYTES) != 0) {
+            bytes = new byte[DENSE_SIZE];
+            in.get(bytes);
+        }
+        return new SubstitutionTable(dense, sparseKeys, sparseValues, bytes, (flags & ASCII) != 0);
+    }
+
+    private static void writeChars(DataOutputStream out, char[] characters) throws IOException {
+        for (char character : characters) {
+            out.writeChar(character);
+        }
+    }
+
+    private static char[] readChars(ByteBuffer in, int length) {
+        char[] characters = new char[length];
+        in.asCharBuffer().get(characters);
+        in.position(in.position() + length * 2);
+        return characters;
+    }
+
+    /**
+     * Builds the table that maps every character through {@code first} and then
+     * through {@code second}, so two substitutions cost one lookup.
+     *
+     * @param first  the table applied first
+     * @param second the table applied to the result of {@code first}
+     * @return the composed table
+     */
+    static SubstitutionTable compose(SubstitutionTable first, SubstitutionTable second) {
+        // only characters mapped by either table can change, everything else stays itself
+        int capacity = DENSE_SIZE + first.sparseKeys.length + second.sparseKeys.length;
+        char[] from = new char[capacity];
+        char[] to = new char[capacity];
+        int count = 0;
+
+        for (int i = 0; i < DENSE_SIZE; i++) {
+            from[count] = (char) i;
+            to[count++] = second.map(first.map((char) i));
+        }
+        for (char character : first.sparseKeys) {
+            char mapped = second.map(first.map(character));
+            if (mapped != character) {
+                from[count] = character;
+                to[count++] = mapped;
+            }
+        }
+        for (char character : second.sparseKeys) {
+            char mapped = second.map(first.map(character));
+            if (Arrays.binarySearch(first.sparseKeys, character) < 0 && mapped != character) {
+                from[count] = character;
+                to[count++] = mapped;
+            }
+        }
+        return new SubstitutionTable(Arrays.copyOf(from, count), Arrays.copyOf(to, count));
+    }
+
+    /**
+     * Checks that ASCII characters map to ASCII characters and everything else
+     * is left unchanged.
+     *
+     * @param dense the dense character table
+     * @return true if the table only touches ASCII characters
+     */
+    private static boolean isAsciiOnly(char[] dense) {
+        for (int i = 0; i < DENSE_SIZE; i++) {
+            if (i < ASCII_SIZE ? dense[i] >= ASCII_SIZE : dense[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the byte table when every mapped character fits in a single byte.
+     *
+     * @param dense the dense character table
+     * @return the byte table, or null if some character maps outside one byte
+     */
+    private static byte[] createByteTable(char[] dense) {
+        byte[] table = new byte[DENSE_SIZE];
+        for (int i = 0; i < DENSE_SIZE; i++) {
+            if (dense[i] >= DENSE_SIZE) {
+                return null;
+            }
+            table[i] = (byte) dense[i];
+        }
+        return table;
+    }
+
+    /**
+     * Checks whether the table maps single-byte characters to single-byte
+     * characters only.
+     *
+     * @return true if the byte methods can be used
+     */
+    boolean isSingleByte() {
+        return bytes != null;
+    }
+
+    /**
+     * Checks whether the table only maps ASCII characters to ASCII characters.
+     * Such a table gives the same result on UTF-8 bytes as on decoded text.
+     *
+     * @return true if the table is ASCII-only
+     */
+    boolean isAscii() {
+        return ascii;
+    }
+
+    /**
+     * Maps a single character.
+     *
+     * @param character the character to map
+     * @return the mapped character, or the character itself if it has no mapping
+     */
+    char map(char character) {
+        if (character < DENSE_SIZE) {
+            return dense[character];
+        }
+        if (sparseKeys.length == 0) {
+            return character;
+        }
+        int index = Arrays.binarySearch(sparseKeys, character);
+        return index >= 0 ? sparseValues[index] : character;
+    }
+
+    /**
+     * Maps {@code length} characters from {@code source} into {@code target}.
+     * The arrays may be the same array to map in place.
+     *
+     * @param source       the characters to map
+     * @param sourceOffset the first character to map
+     * @param target       the array receiving the mapped characters
+     * @param targetOffset the position of the first mapped character
+     * @param length       the number of characters to map
+     */
+    void map(char[] source, int sourceOffset, char[] target, int targetOffset, int length) {
+        char[] table = dense;
+        if (sparseKeys.length == 0) {
+            // no sparse entries, so anything outside the dense table maps to itself
+            for (int i = 0; i < length; i++) {
+                char character = source[sourceOffset + i];
+                target[targetOffset + i] = character < DENSE_SIZE ? table[character] : character;
+            }
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            target[targetOffset + i] = map(source[sourceOffset + i]);
+        }
+    }
+
+    /**
+     * Maps the remaining characters of {@code source} into {@code target},
+     * stopping when either buffer runs out.
+     *
+     * @param source the buffer to read from
+     * @param target the buffer to write to
+     */
+    void map(CharBuffer source, CharBuffer target) {
+        int length = Math.min(source.remaining(), target.remaining());
+        int sourcePosition = source.position();
+        int targetPosition = target.position();
+
+        if (source.hasArray() && target.hasArray()) {
+            map(source.array(), source.arrayOffset() + sourcePosition,
+                    target.array(), target.arrayOffset() + targetPosition, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                target.put(targetPosition + i, map(source.get(sourcePosition + i)));
+            }
+        }
+
+        source.position(sourcePosition + length);
+        target.position(targetPosition + length);
+    }
+
+    /**
+     * Maps the remaining bytes of {@code source} into {@code target}, stopping
+     * when either buffer runs out. Each byte is treated as an ISO-8859-1
+     * character.
+     *
+     * @param source the buffer to read from
+     * @param target the buffer to write to
+     * @throws UnsupportedOperationException if the table is not single-byte
+     */
+    void map(ByteBuffer source, ByteBuffer target) {
+        if (bytes == null) {
+            throw new UnsupportedOperationException("Cipher key contains characters outside a single byte.");
+        }
+        byte[] table = bytes;
+        int length = Math.min(source.remaining(), target.remaining());
+        int sourcePosition = source.position();
+        int targetPosition = target.position();
+
+        if (source.hasArray() && target.hasArray()) {
+            byte[] sourceArray = source.array();
+            byte[] targetArray = target.array();
+            int sourceOffset = source.arrayOffset() + sourcePosition;
+            int targetOffset = target.arrayOffset() + targetPosition;
+            for (int i = 0; i < length; i++) {
+                targetArray[targetOffset + i] = table[sourceArray[sourceOffset + i] & 0xFF];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                target.put(targetPosition + i, table[source.get(sourcePosition + i) & 0xFF]);
+            }
+        }
+
+        source.position(sourcePosition + length);
+        target.position(targetPosition + length);
+    }
+}
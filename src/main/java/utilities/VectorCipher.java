@@ -0,0 +1,257 @@
+package utilities;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Cipher for ASCII-only keys that maps bytes with SIMD instructions through
+ * the incubating Vector API. The 128-entry ASCII table is split into slices
+ * as wide as one vector. For each slice, the low bits of every input byte
+ * pick an entry with a lane shuffle, and the high bits select which lanes take
+ * the result, so one vector of bytes is mapped with a few shuffles and blends.
+ * Bytes of 128 and above are left unchanged, as the key never maps them.
+ *
+ * Only the {@link ByteBuffer} methods are vectorized; text methods are handed
+ * to the wrapped {@link Cipher}. Direct and mapped buffers are read and
+ * written in place through {@code MemorySegment} views, which are a preview
+ * API on Java 21, so this class only loads with {@code --enable-preview}. Use {@link Ciphers#fastest(Cipher)} to get a
+ * VectorCipher only when the Vector API is available.
+ *
+ * @see Ciphers
+ */
+public final class VectorCipher implements CipherInterface {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final int ASCII_SIZE = 128;
+
+    private final Cipher cipher;
+    private final ByteVector[] encryptSlices;
+    private final ByteVector[] decryptSlices;
+
+    /**
+     * Constructs a VectorCipher from an ASCII-only cipher.
+     *
+     * @param cipher the cipher whose tables are vectorized
+     * @throws IllegalArgumentException if the key is not ASCII-only
+     */
+    public VectorCipher(Cipher cipher) {
+        if (!cipher.isAscii()) {
+            throw new IllegalArgumentException("Vectorized ciphers need an ASCII-only key.");
+        }
+        this.cipher = cipher;
+        this.encryptSlices = slices(cipher.encryptTable());
+        this.decryptSlices = slices(cipher.decryptTable());
+    }
+
+    /**
+     * Checks whether the preferred vector shape is wide enough to beat the
+     * scalar table lookup and can hold the ASCII table in whole slices.
+     *
+     * @return true if a VectorCipher is worth using on this machine
+     */
+    static boolean isWorthwhile() {
+        return SPECIES.length() >= 16 && ASCII_SIZE % SPECIES.length() == 0;
+    }
+
+    /**
+     * Splits the ASCII part of a table into vectors of consecutive entries.
+     *
+     * @param table the table to split
+     * @return one vector per slice of the ASCII range
+     */
+    private static ByteVector[] slices(SubstitutionTable table) {
+        int lanes = SPECIES.length();
+        byte[] values = new byte[ASCII_SIZE];
+        for (int i = 0; i < ASCII_SIZE; i++) {
+            values[i] = (byte) table.map((char) i);
+        }
+        ByteVector[] slices = new ByteVector[ASCII_SIZE / lanes];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = ByteVector.fromArray(SPECIES, values, i * lanes);
+        }
+        return slices;
+    }
+
+    /**
+     * Maps one vector of bytes through the table slices.
+     *
+     * @param slices the table slices
+     * @param input  the bytes to map
+     * @return the mapped bytes
+     */
+    private static ByteVector map(ByteVector[] slices, ByteVector input) {
+        int lanes = SPECIES.length();
+        VectorShuffle<Byte> lowBits = input.and((byte) (lanes - 1)).toShuffle();
+        ByteVector slice = input.lanewise(VectorOperators.LSHR, Integer.numberOfTrailingZeros(lanes));
+        // bytes of 128 and above have no slice and keep their value
+
+        ByteVector output = input;
+        for (int k = 0; k < slices.length; k++) {
+            VectorMask<Byte> inSlice = slice.eq((byte) k);
+            output = output.blend(slices[k].rearrange(lowBits), inSlice);
+        }
+        return output;
+    }
+
+    /**
+     * Maps {@code length} bytes between arrays, a vector at a time with a
+     * scalar loop for the tail.
+     *
+     * @param slices       the table slices
+     * @param table        the scalar table for the tail
+     * @param source       the bytes to map
+     * @param sourceOffset the first byte to map
+     * @param target       the array receiving the mapped bytes
+     * @param targetOffset the position of the first mapped byte
+     * @param length       the number of bytes to map
+     */
+    private static void map(ByteVector[] slices, SubstitutionTable table, byte[] source, int sourceOffset,
+            byte[] target, int targetOffset, int length) {
+        int lanes = SPECIES.length();
+        int bound = SPECIES.loopBound(length);
+
+        int i = 0;
+        for (; i < bound; i += lanes) {
+            map(slices, ByteVector.fromArray(SPECIES, source, sourceOffset + i)).intoArray(target, targetOffset + i);
+        }
+        for (; i < length; i++) {
+            target[targetOffset + i] = (byte) table.map((char) (source[sourceOffset + i] & 0xFF));
+        }
+    }
+
+    /**
+     * Maps the remaining bytes of one buffer into another. Array-backed buffers
+     * are mapped through their arrays. Direct and mapped buffers are loaded and
+     * stored a vector at a time through memory segments over the buffers, so
+     * nothing is copied or allocated besides the segment views.
+     *
+     * @param slices the table slices
+     * @param table  the scalar table for the tail
+     * @param source the buffer to read from
+     * @param target the buffer to write to
+     */
+    private static void map(ByteVector[] slices, SubstitutionTable table, ByteBuffer source, ByteBuffer target) {
+        int length = Math.min(source.remaining(), target.remaining());
+        if (target.isReadOnly()) {
+            throw new java.nio.ReadOnlyBufferException();
+        }
+
+        int sourceStart = source.position();
+        int targetStart = target.position();
+        if (source.hasArray() && target.hasArray()) {
+            map(slices, table, source.array(), source.arrayOffset() + sourceStart,
+                    target.array(), target.arrayOffset() + targetStart, length);
+        } else {
+            MemorySegment from = MemorySegment.ofBuffer(source);
+            MemorySegment to = MemorySegment.ofBuffer(target);
+            // both start at the buffer's position
+            int lanes = SPECIES.length();
+            int bound = SPECIES.loopBound(length);
+
+            int i = 0;
+            for (; i < bound; i += lanes) {
+                map(slices, ByteVector.fromMemorySegment(SPECIES, from, i, ByteOrder.nativeOrder()))
+                        .intoMemorySegment(to, i, ByteOrder.nativeOrder());
+            }
+            for (; i < length; i++) {
+                target.put(targetStart + i, (byte) table.map((char) (source.get(sourceStart + i) & 0xFF)));
+            }
+        }
+        source.position(sourceStart + length);
+        target.position(targetStart + length);
+    }
+
+    /**
+     * Encrypts text with the wrapped cipher.
+     */
+    @Override
+    public String encrypt(String plaintext) {
+        return cipher.encrypt(plaintext);
+    }
+
+    /**
+     * Decrypts text with the wrapped cipher.
+     */
+    @Override
+    public String decrypt(String ciphertext) {
+        return cipher.decrypt(ciphertext);
+    }
+
+    /**
+     * Encrypts a range of characters with the wrapped cipher.
+     */
+    @Override
+    public void encrypt(char[] source, int sourceOffset, char[] target, int targetOffset, int length) {
+        cipher.encrypt(source, sourceOffset, target, targetOffset, length);
+    }
+
+    /**
+     * Decrypts a range of characters with the wrapped cipher.
+     */
+    @Override
+    public void decrypt(char[] source, int sourceOffset, char[] target, int targetOffset, int length) {
+        cipher.decrypt(source, sourceOffset, target, targetOffset, length);
+    }
+
+    /**
+     * Encrypts characters between buffers with the wrapped cipher.
+     */
+    @Override
+    public void encrypt(CharBuffer source, CharBuffer target) {
+        cipher.encrypt(source, target);
+    }
+
+    /**
+     * Decrypts characters between buffers with the wrapped cipher.
+     */
+    @Override
+    public void decrypt(CharBuffer source, CharBuffer target) {
+        cipher.decrypt(source, target);
+    }
+
+    /**
+     * Always true, the key is ASCII-only.
+     */
+    @Override
+    public boolean isSingleByte() {
+        return true;
+    }
+
+    /**
+     * Always true, the key is ASCII-only.
+     */
+    @Override
+    public boolean isAscii() {
+        return true;
+    }
+
+    /**
+     * Encrypts bytes from one buffer into another with vector instructions.
+     */
+    @Override
+    public void encrypt(ByteBuffer source, ByteBuffer target) {
+        map(encryptSlices, cipher.encryptTable(), source, target);
+    }
+
+    /**
+     * Decrypts bytes from one buffer into another with vector instructions.
+     */
+    @Override
+    public void decrypt(ByteBuffer source, ByteBuffer target) {
+        DecryptEvent event = new DecryptEvent();
+        event.begin();
+        int start = source.position();
+        map(decryptSlices, cipher.decryptTable(), source, target);
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = source.position() - start;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a zip archive whose entries are already deflated. Unlike
+ * {@link java.util.zip.ZipOutputStream}, which compresses every entry on the
+ * writing thread, the caller hands in raw deflate data, so the compression can
+ * be done elsewhere, for example chunk by chunk on several threads. Chunks
+ * compressed independently and ended with a sync flush, the last one finished,
+ * form one valid deflate stream when written one after the other.
+ *
+ * Sizes and checksums are not known when an entry begins, so they follow the
+ * entry's data in a data descriptor, the way ZipOutputStream writes entries of
+ * unknown size. Zip64 records are added where sizes, offsets or the number of
+ * entries need them.
+ */
+public final class ZipStreamWriter implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+
+    private static final int VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    private static final int FLAGS = 0x0008 | 0x0800;
+    private static final int DEFLATED = 8;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    private final OutputStream out;
+    private final List<Entry> entries = new ArrayList<>();
+    private final ByteBuffer header = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+    private long written;
+    private Entry current;
+    private boolean finished;
+
+    private static final class Entry {
+        final byte[] name;
+        final int time;
+        final int date;
+        final long offset;
+        long crc;
+        long compressedSize;
+        long size;
+
+        Entry(byte[] name, int time, int date, long offset) {
+            this.name = name;
+            this.time = time;
+            this.date = date;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Constructs a ZipStreamWriter. The stream should be buffered, headers are
+     * written to it in small pieces.
+     *
+     * @param out the stream receiving the archive
+     */
+    public ZipStreamWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts a new entry. The previous entry must have been ended.
+     *
+     * @param name     the name of the entry, stored as UTF-8
+     * @param modified the modification time in milliseconds since the epoch
+     * @throws IOException if the stream cannot be written
+     */
+    public void beginEntry(String name, long modified) throws IOException {
+        if (current != null || finished) {
+            throw new IllegalStateException("The previous entry has not been ended.");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_16) {
+            throw new IllegalArgumentException("Entry name is too long: " + name);
+        }
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(modified), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            time = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }//the earliest time zip can store
+        current = new Entry(nameBytes,
+                time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() / 2,
+                (time.getYear() - 1980) << 9 | time.getMonthValue() << 5 | time.getDayOfMonth(), written);
+
+        header.clear();
+        header.putInt(LOCAL_HEADER).putShort((short) VERSION).putShort((short) FLAGS).putShort((short) DEFLATED)
+                .putShort((short) current.time).putShort((short) current.date)
+                .putInt(0).putInt(0).putInt(0)
+                .putShort((short) nameBytes.length).putShort((short) 0);
+        writeHeader();
+        write(nameBytes, 0, nameBytes.length);
+    }
+
+    /**
+     * Writes raw deflate data of the current entry.
+     *
+     * @param deflated the compressed bytes
+     * @param offset   the offset of the first byte to write
+     * @param length   the number of bytes to write
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeDeflated(byte[] deflated, int offset, int length) throws IOException {
+        if (current == null) {
+            throw new IllegalStateException("No entry has been started.");
+        }
+        write(deflated, offset, length);
+        current.compressedSize += length;
+    }
+
+    /**
+     * Ends the current entry with its data descriptor.
+     *
+     * @param crc  the CRC-32 of the uncompressed contents
+     * @param size the length of the uncompressed contents
+     * @throws IOException if the stream cannot be written
+     */
+    public void endEntry(long crc, long size) throws IOException {
+        if (current == null) {
+            throw new IllegalStateException("No entry has been started.");
+        }
+        current.crc = crc;
+        current.size = size;
+        header.clear();
+        header.putInt(DATA_DESCRIPTOR).putInt((int) crc);
+        if (current.compressedSize >= MAX_32 || size >= MAX_32) {
+            header.putLong(current.compressedSize).putLong(size);
+        } else {
+            header.putInt((int) current.compressedSize).putInt((int) size);
+        }
+        writeHeader();
+        entries.add(current);
+        current = null;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @return the length of the archive up to now
+     */
+    public long bytesWritten() {
+        return written;
+    }
+
+    /**
+     * Writes the central directory. Nothing can be added afterwards; the
+     * stream is flushed but not closed.
+     *
+     * @throws IOException if the stream cannot be written
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (current != null) {
+            throw new IllegalStateException("The last entry has not been ended.");
+        }
+        finished = true;
+        long directoryOffset = written;
+        for (Entry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long directorySize = written - directoryOffset;
+
+        if (entries.size() >= MAX_16 || directoryOffset >= MAX_32 || directorySize >= MAX_32) {
+            long zip64End = written;
+            header.clear();
+            header.putInt(ZIP64_END).putLong(44).putShort((short) ZIP64_VERSION).putShort((short) ZIP64_VERSION)
+                    .putInt(0).putInt(0).putLong(entries.size()).putLong(entries.size())
+                    .putLong(directorySize).putLong(directoryOffset);
+            writeHeader();
+            header.clear();
+            header.putInt(ZIP64_LOCATOR).putInt(0).putLong(zip64End).putInt(1);
+            writeHeader();
+        }//the fields of the end record that overflow are set to all ones and read from here
+
+        header.clear();
+        header.putInt(END).putShort((short) 0).putShort((short) 0)
+                .putShort((short) Math.min(entries.size(), MAX_16)).putShort((short) Math.min(entries.size(), MAX_16))
+                .putInt((int) Math.min(directorySize, MAX_32)).putInt((int) Math.min(directoryOffset, MAX_32))
+                .putShort((short) 0);
+        writeHeader();
+        out.flush();
+    }
+
+    /**
+     * Finishes the archive and closes the stream.
+     *
+     * @throws IOException if the stream cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (current == null) {
+                finish();
+            }//an archive left in the middle of an entry isn't completed
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        boolean bigSize = entry.size >= MAX_32;
+        boolean bigCompressedSize = entry.compressedSize >= MAX_32;
+        boolean bigOffset = entry.offset >= MAX_32;
+        int extraLength = (bigSize ? 8 : 0) + (bigCompressedSize ? 8 : 0) + (bigOffset ? 8 : 0);
+        int version = extraLength > 0 ? ZIP64_VERSION : VERSION;
+
+        header.clear();
+        header.putInt(CENTRAL_HEADER).putShort((short) version).putShort((short) version).putShort((short) FLAGS)
+                .putShort((short) DEFLATED).putShort((short) entry.time).putShort((short) entry.date)
+                .putInt((int) entry.crc)
+                .putInt((int) Math.min(entry.compressedSize, MAX_32)).putInt((int) Math.min(entry.size, MAX_32))
+                .putShort((short) entry.name.length).putShort((short) (extraLength > 0 ? extraLength + 4 : 0))
+                .putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0)
+                .putInt((int) Math.min(entry.offset, MAX_32));
+        writeHeader();
+        write(entry.name, 0, entry.name.length);
+
+        if (extraLength > 0) {
+            header.clear();
+            header.putShort((short) 1).putShort((short) extraLength);
+            if (bigSize) {
+                header.putLong(entry.size);
+            }
+            if (bigCompressedSize) {
+                header.putLong(entry.compressedSize);
+            }
+            if (bigOffset) {
+                header.putLong(entry.offset);
+            }
+            writeHeader();
+        }//zip64 extra field, holding only the values that didn't fit, in this order
+    }
+
+    private void writeHeader() throws IOException {
+        write(header.array(), 0, header.position());
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        written += length;
+    }
+}
@@ -0,0 +1,125 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import utilities.CipherRegistry;
+
+class ArchiveExportTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileHandler fileHandler(Path data) throws IOException {
+        Path keys = Files.createDirectories(tempDir.resolve("ciphers"));
+        Files.write(keys.resolve("key.txt"), List.of("abcé一", "一écba"));
+        return new FileHandler(data.toString(), keys.toString(), ForkJoinPool.commonPool(), new CipherRegistry());
+    }//a key that isn't ASCII-only, so chunks have to be cut between characters
+
+    private String sampleText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            text.append("line ").append(i).append(": café 一二 😀 abc\r\n");
+        }
+        return text.append("no newline at the end").toString();
+    }
+
+    @Test
+    void exportsEveryFileDecrypted() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Files.writeString(data.resolve("notes.txt"), sampleText());
+        Files.write(data.resolve("empty.txt"), new byte[0]);
+        Files.write(data.resolve("raw.txt"), new byte[] { 'a', (byte) 0xFF, '\n', 'b' });
+        FileHandler fileHandler = fileHandler(data);
+        fileHandler.encryptFile("notes.txt", null);
+        Files.copy(data.resolve("notes.cip"), data.resolve("copy.cip"));
+        fileHandler.compressFile("copy.cip");
+        Files.delete(data.resolve("copy.cip"));
+        List<String> names = fileHandler.getFiles();
+
+        Path archive = tempDir.resolve("backup.zip");
+        ArchiveExport export = new ArchiveExport(3, 1, 6, 7);
+        ArchiveExport.Progress done = fileHandler.exportArchive(names, null, archive, export, progress -> { });
+        //chunks of 7 bytes with only two in flight, so every file goes through in many pieces
+
+        assertEquals(names.size(), done.files());
+        assertEquals(done.archiveBytes(), Files.size(archive));
+        long bytes = 0;
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            List<String> entries = new ArrayList<>();
+            zip.stream().forEach(entry -> entries.add(entry.getName()));
+            assertEquals(names, entries);
+            for (String name : names) {
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                fileHandler.readFile(name, null, expected);
+                byte[] contents = zip.getInputStream(zip.getEntry(name)).readAllBytes();
+                assertArrayEquals(expected.toByteArray(), contents, name);
+                bytes += contents.length;
+            }
+        }
+        assertEquals(bytes, done.bytes());
+
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive))) {
+            ZipEntry entry;
+            int count = 0;
+            while ((entry = in.getNextEntry()) != null) {
+                assertTrue(names.contains(entry.getName()));
+                in.readAllBytes();
+                count++;
+            }
+            assertEquals(names.size(), count);
+        }//read front to back too, the way a streaming unzip sees it
+
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(0, files.filter(file -> file.toString().endsWith(".tmp")).count());
+        }
+    }
+
+    @Test
+    void missingFileStopsTheExport() throws Exception {
+        Path present = Files.writeString(tempDir.resolve("present.txt"), "here");
+        List<ArchiveExport.Source> sources = List.of(
+                new ArchiveExport.Source("present.txt", present, null, 0),
+                new ArchiveExport.Source("gone.txt", tempDir.resolve("gone.txt"), null, 0),
+                new ArchiveExport.Source("present2.txt", present, null, 0));
+
+        IOException e = assertThrows(IOException.class,
+                () -> new ArchiveExport(2, 1024, 1).export(sources, new ByteArrayOutputStream(), progress -> { }));
+        assertTrue(e.getMessage().startsWith("gone.txt: "), e.getMessage());
+    }
+
+    @Test
+    void refusesToWriteIntoTheDataFolder() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Files.writeString(data.resolve("a.txt"), "a");
+        FileHandler fileHandler = fileHandler(data);
+
+        assertThrows(RuntimeException.class, () -> fileHandler.exportArchive(fileHandler.getFiles(), null,
+                data.resolve("backup.zip"), new ArchiveExport(1, 1024, 1), progress -> { }));
+        assertFalse(Files.exists(data.resolve("backup.zip")));
+    }
+
+    @Test
+    void writesUtf8Names() throws Exception {
+        Path file = Files.writeString(tempDir.resolve("a.txt"), "contents");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ArchiveExport(1, 1024, 0).export(List.of(new ArchiveExport.Source("café.txt", file, null, 0)), out,
+                progress -> { });
+
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals("café.txt", in.getNextEntry().getName());
+            assertEquals("contents", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }//level 0 still writes deflate data, in stored blocks
+    }
+}
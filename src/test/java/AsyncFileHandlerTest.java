@@ -0,0 +1,178 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import utilities.Cipher;
+
+class AsyncFileHandlerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private AsyncFileHandler handler;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        handler = new AsyncFileHandler(new FileHandler());
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        handler.close();
+        executor.shutdownNow();
+    }
+
+    // Records every signal so the test can check what arrived and when
+    private static class RecordingSubscriber implements Flow.Subscriber<ByteBuffer> {
+        final LinkedBlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ByteBuffer chunk) {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            received.writeBytes(bytes);
+            signals.add(bytes);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            signals.add(error);
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add("complete");
+        }
+
+        Object next() throws InterruptedException {
+            Object signal = signals.poll(5, TimeUnit.SECONDS);
+            assertNotNull(signal, "no signal arrived");
+            return signal;
+        }
+    }
+
+    @Test
+    void readFileMatchesBlockingRead() throws Exception {
+        FileHandler fileHandler = new FileHandler();
+        assertEquals(fileHandler.readFile("carnivore.cip", null), handler.readFile("carnivore.cip", null).get());
+        assertEquals(fileHandler.getFiles(), handler.getFiles().get());
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> handler.readFile("missing.cip", null).get());
+        assertEquals("file not found", error.getCause().getMessage());
+    }
+
+    @Test
+    void publisherOnlyReadsAsRequested() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("line ").append(i).append(" of a file too big for one chunk\n");
+        }
+        Files.writeString(data.resolve("big.cip"), new Cipher().encrypt(text.toString()));
+        AsyncFileHandler small = new AsyncFileHandler(new FileHandler(data.toString(), "ciphers"), executor, 1000);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        small.publishFile("big.cip", null).subscribe(subscriber);
+        assertNull(subscriber.signals.poll(100, TimeUnit.MILLISECONDS));
+        // nothing is sent before it is asked for
+
+        subscriber.subscription.request(2);
+        assertEquals(1000, ((byte[]) subscriber.next()).length);
+        assertEquals(1000, ((byte[]) subscriber.next()).length);
+        assertNull(subscriber.signals.poll(100, TimeUnit.MILLISECONDS));
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        Object signal;
+        while ((signal = subscriber.next()) instanceof byte[]) {
+            assertTrue(((byte[]) signal).length <= 1000);
+        }
+        assertEquals("complete", signal);
+        assertEquals(text.toString(), subscriber.received.toString());
+    }
+
+    @Test
+    void cancelStopsPublishing() throws Exception {
+        AsyncFileHandler small = new AsyncFileHandler(new FileHandler(), executor, 16);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        small.publishFile("carnivore.cip", null).subscribe(subscriber);
+
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.next() instanceof byte[]);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(5);
+        assertNull(subscriber.signals.poll(200, TimeUnit.MILLISECONDS));
+        // no more chunks and no onComplete after cancel
+    }
+
+    @Test
+    void publisherReportsErrors() throws Exception {
+        RecordingSubscriber missing = new RecordingSubscriber();
+        handler.publishFile("missing.cip", null).subscribe(missing);
+        missing.subscription.request(1);
+        assertEquals("file not found", ((Throwable) missing.next()).getMessage());
+
+        RecordingSubscriber invalid = new RecordingSubscriber();
+        handler.publishFile("carnivore.cip", null).subscribe(invalid);
+        invalid.subscription.request(0);
+        assertTrue(invalid.next() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    void cancellingFutureInterruptsRead() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        FileHandler blocking = new FileHandler() {
+            @Override
+            public String readFile(String fileName, String keyFile) {
+                started.countDown();
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return "";
+            }
+        };
+        AsyncFileHandler async = new AsyncFileHandler(blocking);
+        CompletableFuture<String> read = async.readFile("carnivore.cip", null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        read.cancel(true);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        async.close();
+    }
+
+    @Test
+    void publishedBytesMatchStream() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        handler.publishFile("carnivore.cip", null).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.next() instanceof byte[]);
+        assertEquals("complete", subscriber.next());
+        assertArrayEquals(Files.readAllBytes(Paths.get("data", "carnivore.txt")), subscriber.received.toByteArray());
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class DataIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path createData() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Files.writeString(data.resolve("b.txt"), "bb");
+        Files.writeString(data.resolve("a.cip"), "a");
+        Files.createDirectories(data.resolve("folder"));
+        return data;
+    }
+
+    @Test
+    void listsFilesInNameOrder() throws Exception {
+        DataIndex index = new DataIndex(createData());
+
+        assertEquals(List.of("a.cip", "b.txt"), index.names());
+        assertEquals("b.txt", index.resolve(2));
+        assertNull(index.resolve(3));
+        // folders are not listed
+    }
+
+    @Test
+    void keepsNumbersWhenFilesAreAdded() throws Exception {
+        Path data = createData();
+        assertEquals(List.of("a.cip", "b.txt"), new DataIndex(data).names());
+
+        Files.writeString(data.resolve("aa.txt"), "new");
+        DataIndex reloaded = new DataIndex(data);
+        // a fresh listing would put aa.txt second, the saved index keeps the old numbers
+
+        assertEquals(List.of("a.cip", "b.txt", "aa.txt"), reloaded.names());
+        assertTrue(Files.exists(DataIndex.defaultIndexFile(data)));
+    }
+
+    @Test
+    void dropsDeletedFiles() throws Exception {
+        Path data = createData();
+        DataIndex index = new DataIndex(data);
+        index.names();
+
+        Files.delete(data.resolve("a.cip"));
+        assertEquals(List.of("b.txt"), index.names());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void entryHasSizeAndCipherFlag() throws Exception {
+        Path data = createData();
+        DataIndex index = new DataIndex(data);
+
+        DataIndex.Entry entry = index.entry("a.cip");
+        assertTrue(entry.isEncrypted());
+        assertEquals(1, entry.getSize());
+
+        Files.writeString(data.resolve("a.cip"), "longer");
+        assertEquals(6, index.entry("a.cip").getSize());
+        assertFalse(index.entry("b.txt").isEncrypted());
+    }
+
+    @Test
+    void rebuildRenumbers() throws Exception {
+        Path data = createData();
+        DataIndex index = new DataIndex(data);
+        index.names();
+        Files.writeString(data.resolve("aa.txt"), "new");
+        index.names();
+
+        index.rebuild();
+        assertEquals(List.of("a.cip", "aa.txt", "b.txt"), index.names());
+    }
+
+    @Test
+    void listsWhenIndexCannotBeSaved() throws Exception {
+        Path data = createData();
+        Files.writeString(DataIndex.defaultIndexFile(data).getParent(), "not a folder");
+        DataIndex index = new DataIndex(data);
+
+        assertEquals(List.of("a.cip", "b.txt"), index.names());
+        assertEquals("a.cip", index.resolve(1));
+    }
+
+    @Test
+    void renumbersWhenIndexIsDamaged() throws Exception {
+        Path data = createData();
+        new DataIndex(data).names();
+        Path indexFile = DataIndex.defaultIndexFile(data);
+        byte[] bytes = Files.readAllBytes(indexFile);
+        bytes[bytes.length - 18] = (byte) 0xFF;
+        Files.write(indexFile, bytes);
+        // the last name is no longer valid modified UTF-8
+
+        DataIndex index = new DataIndex(data);
+        assertEquals(List.of("a.cip", "b.txt"), index.names());
+        assertEquals("b.txt", index.resolve(2));
+    }
+}
@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+class FileListingTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path write(Path folder, String name, int size, long modified) throws Exception {
+        Path file = folder.resolve(name);
+        Files.write(file, new byte[size]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+        return file;
+    }
+
+    private List<String> names(FileListing listing, FileListing.Query query) throws Exception {
+        List<String> names = new ArrayList<>();
+        long count = listing.list(query, entry -> names.add(entry.name()));
+        assertEquals(names.size(), count);
+        return names;
+    }
+
+    @Test
+    void sortsAndPages() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        for (int i = 0; i < 10; i++) {
+            write(data, "file" + i + ".cip", 100 - i, 1_000_000L + i * 60_000L);
+        }
+        Files.createDirectories(data.resolve("folder"));
+        FileListing listing = new FileListing(List.of(data));
+
+        assertEquals(List.of("file3.cip", "file4.cip", "file5.cip"),
+                names(listing, new FileListing.Query().sort(FileListing.Sort.NAME, false).page(2, 3)));
+        assertEquals(List.of("file9.cip", "file8.cip"),
+                names(listing, new FileListing.Query().sort(FileListing.Sort.SIZE, false).page(1, 2)));
+        assertEquals(List.of("file9.cip", "file8.cip", "file7.cip"),
+                names(listing, new FileListing.Query().sort(FileListing.Sort.MODIFIED, true).page(1, 3)));
+        assertEquals(List.of("file9.cip"),
+                names(listing, new FileListing.Query().sort(FileListing.Sort.NAME, false).page(4, 3)));
+        assertEquals(List.of(), names(listing, new FileListing.Query().sort(FileListing.Sort.NAME, false).page(5, 3)));
+        assertEquals(10, names(listing, new FileListing.Query().sort(FileListing.Sort.NAME, true)).size());
+        // the folder is left out
+    }
+
+    @Test
+    void unsortedPagesCoverEveryFileOnce() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        for (int i = 0; i < 2500; i++) {
+            write(data, "f" + i + ".txt", 1, 1_000_000L);
+        }
+        FileListing listing = new FileListing(List.of(data));
+
+        List<String> all = names(listing, new FileListing.Query());
+        List<String> paged = new ArrayList<>();
+        for (int page = 1; page <= 3; page++) {
+            paged.addAll(names(listing, new FileListing.Query().page(page, 1000)));
+        }
+        assertEquals(2500, all.size());
+        assertEquals(all, paged);
+        // more files than the read-ahead queue holds, in file system order
+    }
+
+    @Test
+    void filtersByGlobAndExtension() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        write(data, "a.cip", 1, 1_000_000L);
+        write(data, "b.CIPZ", 1, 1_000_000L);
+        write(data, "c.txt", 1, 1_000_000L);
+        write(data, "secret.txt", 1, 1_000_000L);
+        FileListing listing = new FileListing(List.of(data));
+        FileListing.Query byName = new FileListing.Query().sort(FileListing.Sort.NAME, false);
+
+        assertEquals(List.of("a.cip", "b.CIPZ"), names(listing, byName.extensions(List.of("cip", ".cipz"))));
+        assertEquals(List.of("secret.txt"), names(listing, new FileListing.Query().glob("s*")));
+        assertEquals(List.of("c.txt"),
+                names(listing, new FileListing.Query().glob("*.txt").extensions(List.of("txt")).page(2, 1)
+                        .sort(FileListing.Sort.NAME, true)));
+        assertThrows(IllegalArgumentException.class, () -> listing.list(new FileListing.Query().glob("["), entry -> { }));
+    }
+
+    @Test
+    void listsSeveralFolders() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Path archive = Files.createDirectories(tempDir.resolve("archive"));
+        write(data, "b.cip", 1, 1_000_000L);
+        write(archive, "a.cip", 1, 1_000_000L);
+        write(archive, "c.cip", 1, 1_000_000L);
+        FileListing listing = new FileListing(List.of(data, archive));
+
+        List<String> unsorted = names(listing, new FileListing.Query());
+        assertEquals(3, unsorted.size());
+        assertEquals("b.cip", unsorted.get(0));
+        // folders come one after the other
+
+        List<Path> sorted = new ArrayList<>();
+        listing.list(new FileListing.Query().sort(FileListing.Sort.NAME, false), entry -> sorted.add(entry.path()));
+        assertEquals(List.of(archive.resolve("a.cip"), data.resolve("b.cip"), archive.resolve("c.cip")), sorted);
+
+        FileListing missing = new FileListing(List.of(data, tempDir.resolve("missing")));
+        assertThrows(NoSuchFileException.class, () -> missing.list(new FileListing.Query(), entry -> { }));
+    }
+}
@@ -0,0 +1,83 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+class LineIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path writeLines(int count, boolean trailingBreak) throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            text.append("line ").append(i);
+            if (i < count || trailingBreak) {
+                text.append('\n');
+            }
+        }
+        Path file = tempDir.resolve("data").resolve("lines.txt");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, text);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        return file;
+    }
+
+    @Test
+    void findsLinesAcrossStoredOffsets() throws Exception {
+        Path file = writeLines(200, true);
+        LineIndex index = LineIndex.open(file);
+        String text = Files.readString(file);
+
+        assertEquals(200, index.lineCount());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int line : new int[] { 0, 1, 63, 64, 65, 128, 199 }) {
+                int start = (int) index.lineStart(channel, line);
+                assertTrue(text.startsWith("line " + (line + 1) + "\n", start), "line " + line);
+            }
+            assertEquals(Files.size(file), index.lineStart(channel, 200));
+        }
+        assertTrue(Files.exists(LineIndex.defaultSidecar(file)));
+    }
+
+    @Test
+    void countsLastLineWithoutBreak() throws Exception {
+        assertEquals(128, LineIndex.open(writeLines(128, false)).lineCount());
+    }
+
+    @Test
+    void rebuildsWhenFileChanges() throws Exception {
+        Path file = writeLines(10, true);
+        assertEquals(10, LineIndex.open(file).lineCount());
+
+        Files.writeString(file, "one\ntwo\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 30000));
+        assertEquals(2, LineIndex.open(file).lineCount());
+    }
+
+    @Test
+    void rebuildsDamagedSidecar() throws Exception {
+        Path file = writeLines(10, true);
+        LineIndex.open(file);
+        Path sidecar = LineIndex.defaultSidecar(file);
+        byte[] bytes = Files.readAllBytes(sidecar);
+        bytes[40] = (byte) 0x7F;
+        Files.write(sidecar, bytes);
+        // offset count far larger than the sidecar
+
+        assertEquals(10, LineIndex.open(file).lineCount());
+    }
+
+    @Test
+    void worksWhenSidecarCannotBeSaved() throws Exception {
+        Path file = writeLines(100, true);
+        Path sidecar = tempDir.resolve("sidecars").resolve("lines.txt.lines");
+        Files.writeString(sidecar.getParent(), "not a folder");
+
+        assertEquals(100, LineIndex.open(file, sidecar).lineCount());
+    }
+}
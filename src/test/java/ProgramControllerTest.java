@@ -1,9 +1,16 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.function.Consumer;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -64,4 +71,349 @@ class ProgramControllerTest {
         verify(fileHandler).getFiles();
         verify(fileHandler, never()).readFile(anyString(), anyString());
     }
+
+    @Test
+    void streamNoArguments() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("file1.txt", "file2.txt"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.run(new String[] {}, out);
+
+        assertEquals("1. file1.txt\n2. file2.txt\n", out.toString());
+        verify(fileHandler).getFiles();
+        verifyNoMoreInteractions(fileHandler);
+    }
+
+    @Test
+    void streamSelectedFile() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt", "b.cip"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        doAnswer(invocation -> {
+            invocation.getArgument(2, OutputStream.class).write("Hello".getBytes());
+            return null;
+        }).when(fileHandler).readFile(eq("b.cip"), eq("key2.txt"), any(OutputStream.class));
+        controller.run(new String[] { "2", "key2.txt" }, out);
+
+        assertEquals("Hello", out.toString());
+        verify(fileHandler).readFile(eq("b.cip"), eq("key2.txt"), any(OutputStream.class));
+    }
+
+    @Test
+    void streamOutOfRange() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.run(new String[] { "5" }, out);
+
+        assertEquals("Error: out of range\n", out.toString());
+        verify(fileHandler, never()).readFile(anyString(), any(), any(OutputStream.class));
+    }
+
+    @Test
+    void batchKeepsSelectionOrder() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt", "b.txt", "c.txt", "d.txt"));
+        doAnswer(invocation -> {
+            invocation.getArgument(2, OutputStream.class).write(invocation.getArgument(0, String.class).getBytes());
+            return null;
+        }).when(fileHandler).readFile(anyString(), any(), any(OutputStream.class));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.run(new String[] { "4,1-2", "--concurrency=2" }, out);
+
+        assertEquals("==> 4. d.txt <==\nd.txt\n==> 1. a.txt <==\na.txt\n==> 2. b.txt <==\nb.txt\n", out.toString());
+    }
+
+    @Test
+    void batchReportsErrorsPerFile() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt", "b.txt"));
+        doThrow(new RuntimeException("file not found"))
+                .when(fileHandler).readFile(eq("a.txt"), any(), any(OutputStream.class));
+        doAnswer(invocation -> {
+            invocation.getArgument(2, OutputStream.class).write("B\n".getBytes());
+            return null;
+        }).when(fileHandler).readFile(eq("b.txt"), any(), any(OutputStream.class));
+
+        String result = controller.run(new String[] { "all" });
+
+        assertEquals("==> 1. a.txt <==\nError: file not found\n==> 2. b.txt <==\nB\n", result);
+    }
+
+    @Test
+    void batchNamesErrorsWithoutMessage() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt", "b.txt"));
+        doThrow(new IllegalStateException())
+                .when(fileHandler).readFile(eq("a.txt"), any(), any(OutputStream.class));
+        doAnswer(invocation -> {
+            invocation.getArgument(2, OutputStream.class).write("partial".getBytes());
+            throw new IOException("read failed");
+        }).when(fileHandler).readFile(eq("b.txt"), any(), any(OutputStream.class));
+
+        String result = controller.run(new String[] { "all" });
+
+        assertEquals("==> 1. a.txt <==\nError: IllegalStateException\n"
+                + "==> 2. b.txt <==\npartial\nError: read failed\n", result);
+    }
+
+    @Test
+    void batchOutOfRange() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt"));
+        String result = controller.run(new String[] { "1-3" });
+
+        assertEquals("Error: out of range\n", result);
+        verify(fileHandler, never()).readFile(anyString(), any(), any(OutputStream.class));
+    }
+
+    @Test
+    void encryptAllSkipsCipFiles() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt", "a.cip", "b.txt"));
+        when(fileHandler.encryptFile("a.txt", "key2.txt")).thenReturn("a.cip");
+        when(fileHandler.encryptFile("b.txt", "key2.txt")).thenReturn("b.cip");
+        String result = controller.run(new String[] { "encrypt", "all", "key2.txt" });
+
+        assertEquals("a.txt -> a.cip\nb.txt -> b.cip\n", result);
+        verify(fileHandler, never()).encryptFile(eq("a.cip"), any());
+    }
+
+    @Test
+    void encryptReportsErrorsPerFile() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.cip", "b.txt"));
+        when(fileHandler.encryptFile("a.cip", null)).thenThrow(new RuntimeException("file is already encrypted"));
+        when(fileHandler.encryptFile("b.txt", null)).thenReturn("b.cip");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.run(new String[] { "encrypt", "1-2" }, out);
+
+        assertEquals("a.cip: Error: file is already encrypted\nb.txt -> b.cip\n", out.toString());
+    }
+
+    @Test
+    void compressAllOnlyPicksCipFiles() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt", "a.cip", "b.cipz", "c.cip"));
+        when(fileHandler.compressFile("a.cip")).thenReturn("a.cipz");
+        when(fileHandler.compressFile("c.cip")).thenReturn("c.cipz");
+        String result = controller.run(new String[] { "compress", "all" });
+
+        assertEquals("a.cip -> a.cipz\nc.cip -> c.cipz\n", result);
+        verify(fileHandler, never()).compressFile("a.txt");
+        verify(fileHandler, never()).compressFile("b.cipz");
+    }
+
+    @Test
+    void compileDefaultsToKeyAndReportsErrors() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt"));
+        when(fileHandler.compileKey("key.txt")).thenReturn("key.tsk");
+        when(fileHandler.compileKey("bad.txt")).thenThrow(new RuntimeException("Cipher key lines must be of equal length."));
+
+        assertEquals("key.txt -> key.tsk\n", controller.run(new String[] { "compile" }));
+        assertEquals("bad.txt: Error: Cipher key lines must be of equal length.\nkey.txt -> key.tsk\n",
+                controller.run(new String[] { "compile", "bad.txt", "key.txt" }));
+    }
+
+    @Test
+    void encryptNeedsSelection() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt"));
+        String result = controller.run(new String[] { "encrypt" });
+
+        assertEquals("Error: encrypt needs a file number, a selection or all\n", result);
+        verify(fileHandler, never()).encryptFile(anyString(), any());
+    }
+
+    @Test
+    void rekeyAllFinishesJournal() throws Exception {
+
+        RekeyJournal journal = mock(RekeyJournal.class);
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt", "a.cip", "b.cip"));
+        when(fileHandler.openRekeyJournal("key.txt", "key2.txt")).thenReturn(journal);
+        when(fileHandler.rekeyFile("a.cip", "key.txt", "key2.txt", journal)).thenReturn("re-keyed");
+        when(fileHandler.rekeyFile("b.cip", "key.txt", "key2.txt", journal)).thenReturn("already re-keyed");
+        String result = controller.run(new String[] { "rekey", "all", "key.txt", "key2.txt" });
+
+        assertEquals("a.cip: re-keyed\nb.cip: already re-keyed\n", result);
+        verify(journal).finish();
+    }
+
+    @Test
+    void rekeyKeepsJournalAfterFailure() throws Exception {
+
+        RekeyJournal journal = mock(RekeyJournal.class);
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.cip"));
+        when(fileHandler.openRekeyJournal("key.txt", "key2.txt")).thenReturn(journal);
+        when(fileHandler.rekeyFile("a.cip", "key.txt", "key2.txt", journal)).thenThrow(new RuntimeException("disk full"));
+        String result = controller.run(new String[] { "rekey", "1", "key.txt", "key2.txt" });
+
+        assertEquals("a.cip: Error: disk full\n", result);
+        verify(journal, never()).finish();
+        verify(journal).close();
+    }
+
+    @Test
+    void rekeyNeedsBothKeys() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.cip"));
+        String result = controller.run(new String[] { "rekey", "all", "key.txt" });
+
+        assertEquals("Error: rekey needs a file selection, the old key and the new key\n", result);
+        verify(fileHandler, never()).openRekeyJournal(anyString(), anyString());
+    }
+
+    @Test
+    void searchPrintsMatchesPerFile() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.cip", "b.cip", "c.cip"));
+        when(fileHandler.searchCandidates("spy", null, true)).thenReturn(Arrays.asList("a.cip", "c.cip"));
+        when(fileHandler.searchFile("a.cip", "spy", null)).thenReturn(Arrays.asList("2: a spy"));
+        when(fileHandler.searchFile("c.cip", "spy", null)).thenReturn(Arrays.asList("1: spy one", "4: spy two"));
+        String result = controller.run(new String[] { "search", "spy" });
+
+        assertEquals("a.cip:2: a spy\nc.cip:1: spy one\nc.cip:4: spy two\n", result);
+        verify(fileHandler, never()).searchFile(eq("b.cip"), anyString(), any());
+    }
+
+    @Test
+    void searchWithoutIndex() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.cip"));
+        when(fileHandler.searchCandidates("spy", "key2.txt", false)).thenReturn(Arrays.asList("a.cip"));
+        when(fileHandler.searchFile("a.cip", "spy", "key2.txt")).thenReturn(Arrays.asList());
+        String result = controller.run(new String[] { "search", "spy", "key2.txt", "--no-index" });
+
+        assertEquals("", result);
+    }
+
+    @Test
+    void searchReportsIndexErrors() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.cip"));
+        when(fileHandler.searchCandidates("spy", null, true)).thenThrow(new IOException("index unreadable"));
+        String result = controller.run(new String[] { "search", "spy" });
+
+        assertEquals("Error: index unreadable\n", result);
+    }
+
+    @Test
+    void tailReadsLastLines() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.cip"));
+        when(fileHandler.lineCount("a.cip")).thenReturn(100L);
+        controller.run(new String[] { "1", "--tail=10" }, new ByteArrayOutputStream());
+
+        verify(fileHandler).readLines(eq("a.cip"), isNull(), eq(91L), eq(10L), any(OutputStream.class));
+        verify(fileHandler, never()).readFile(anyString(), any(), any(OutputStream.class));
+    }
+
+    @Test
+    void lineReadErrorsArePrinted() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.cip"));
+        when(fileHandler.lineCount("a.cip")).thenThrow(new IOException("sidecar unreadable"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.run(new String[] { "1", "--tail=10" }, out);
+
+        assertEquals("Error: sidecar unreadable\n", out.toString());
+    }
+
+    @Test
+    void lineRangeReadsOnlyThoseLines() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.cip"));
+        controller.run(new String[] { "1", "key2.txt", "--lines=1000000-1000050" }, new ByteArrayOutputStream());
+
+        verify(fileHandler).readLines(eq("a.cip"), eq("key2.txt"), eq(1000000L), eq(51L), any(OutputStream.class));
+    }
+
+    @Test
+    void invalidLineRange() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.cip"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.run(new String[] { "1", "--lines=20-5" }, out);
+
+        assertEquals("Error: line options need positive numbers, like --head=10 or --lines=5-20\n", out.toString());
+    }
+
+    @Test
+    void listPassesOptionsAndSkipsIndex() throws Exception {
+
+        when(fileHandler.getFilesFolders()).thenReturn(Arrays.asList(Paths.get("data")));
+        when(fileHandler.listFiles(any(FileListing.Query.class), any())).thenAnswer(invocation -> {
+            Consumer<FileListing.Entry> sink = invocation.getArgument(1);
+            sink.accept(new FileListing.Entry(Paths.get("data"), "a.cip", 12, 0));
+            return 1L;
+        });
+        String result = controller.run(new String[] { "list", "--sort=size", "--page=2", "--ext=cip" });
+
+        assertTrue(result.startsWith("a.cip  12  "));
+        verify(fileHandler, never()).getFiles();
+    }
+
+    @Test
+    void invalidListOptions() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        controller.run(new String[] { "list", "--sort=colour" }, out);
+        controller.run(new String[] { "list", "--page-size=0" }, out);
+
+        assertEquals(("Error: list needs --sort=name, size or mtime and positive numbers for --page= and --page-size=\n")
+                .repeat(2), out.toString());
+        verify(fileHandler, never()).listFiles(any(), any());
+    }
+
+    @Test
+    void syncPrintsOnlyChanges(@TempDir Path tempDir) throws Exception {
+
+        SyncManifest manifest = new SyncManifest(tempDir.resolve("data"), "key.txt", 0);
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt", "a.cip", "b.txt", "c.txt"));
+        when(fileHandler.openSyncManifest(null)).thenReturn(manifest);
+        when(fileHandler.syncFile("a.txt", null, manifest)).thenReturn(null);
+        when(fileHandler.syncFile("b.txt", null, manifest)).thenReturn("b.cip");
+        when(fileHandler.syncFile("c.txt", null, manifest)).thenThrow(new RuntimeException("disk full"));
+        when(fileHandler.removeSyncOrphans(manifest)).thenReturn(Arrays.asList("d.cip"));
+        String result = controller.run(new String[] { "sync" });
+
+        assertEquals("b.txt -> b.cip\nc.txt: Error: disk full\nd.cip: deleted\n"
+                + "synced: 1 encrypted, 1 unchanged, 1 deleted, 1 failed\n", result);
+        verify(fileHandler, never()).syncFile(eq("a.cip"), any(), any());
+    }
+
+    @Test
+    void exportPrintsProgressAndSummary() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt", "a.cip"));
+        when(fileHandler.exportArchive(eq(Arrays.asList("a.txt", "a.cip")), eq("key2.txt"),
+                eq(Paths.get("backup.zip")), any(), any())).thenAnswer(invocation -> {
+                    Consumer<ArchiveExport.Progress> progress = invocation.getArgument(4);
+                    progress.accept(new ArchiveExport.Progress(1, 2, 1_500_000, 400_000, 1_000_000_000L));
+                    return new ArchiveExport.Progress(2, 2, 3_000_000, 800_000, 2_000_000_000L);
+                });
+        String result = controller.run(new String[] { "export", "backup.zip", "key2.txt", "--memory-mb=16",
+                "--level=6", "--concurrency=2" });
+
+        assertEquals("exported 1/2 files, 1.5 MB, 1.5 MB/s\n"
+                + "exported 2 files to backup.zip: 3.0 MB in a 0.8 MB archive, 2.0 s, 1.5 MB/s\n", result);
+    }
+
+    @Test
+    void invalidExport() throws Exception {
+
+        when(fileHandler.getFiles()).thenReturn(Arrays.asList("a.txt"));
+
+        assertEquals("Error: export needs the archive to write, like backup.zip\n",
+                controller.run(new String[] { "export" }));
+        assertEquals("Error: export needs a positive number for --memory-mb= and 0 to 9 for --level=\n",
+                controller.run(new String[] { "export", "backup.zip", "--level=12" }));
+        assertEquals("Error: export needs a positive number for --memory-mb= and 0 to 9 for --level=\n",
+                controller.run(new String[] { "export", "backup.zip", "--memory-mb=0" }));
+
+        when(fileHandler.exportArchive(any(), any(), any(), any(), any()))
+                .thenThrow(new IOException("a.txt: broken"));
+        assertEquals("Error: a.txt: broken\n", controller.run(new String[] { "export", "backup.zip" }));
+    }
 }
@@ -0,0 +1,71 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+class SearchIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path write(Path data, String name, String contents) throws Exception {
+        Path file = data.resolve(name);
+        Files.writeString(file, contents);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        return file;
+    }
+
+    @Test
+    void skipsFilesWithoutEveryTrigram() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        write(data, "a.cip", "xyzzy plugh");
+        write(data, "b.cip", "xyz\nzy");
+        write(data, "c.cip", "nothing here");
+        SearchIndex index = new SearchIndex(data);
+        List<String> files = List.of("a.cip", "b.cip", "c.cip");
+
+        assertEquals(List.of("a.cip", "b.cip"), index.candidates(files, "xyz"));
+        assertEquals(List.of("a.cip"), index.candidates(files, "xyzzy"));
+        // b.cip has zzy only across a line break, which can't match
+        assertEquals(List.of(), index.candidates(files, "qqq"));
+        assertEquals(files, index.candidates(files, "zy"));
+        // too short for a trigram, every file is a candidate
+    }
+
+    @Test
+    void picksUpChangedAndRemovedFiles() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Path a = write(data, "a.cip", "first");
+        write(data, "b.cip", "second");
+        assertEquals(List.of("a.cip"), new SearchIndex(data).candidates(List.of("a.cip", "b.cip"), "fir"));
+
+        Files.writeString(a, "third version");
+        Files.setLastModifiedTime(a, FileTime.fromMillis(System.currentTimeMillis() - 30000));
+        SearchIndex reloaded = new SearchIndex(data);
+        assertEquals(List.of(), reloaded.candidates(List.of("a.cip", "b.cip"), "fir"));
+        assertEquals(List.of("a.cip"), reloaded.candidates(List.of("a.cip", "b.cip"), "ver"));
+        assertEquals(List.of(), reloaded.candidates(List.of("b.cip"), "ver"));
+        // a.cip is no longer listed, so it is dropped from the index
+    }
+
+    @Test
+    void reindexesWhenIndexIsDamaged() throws Exception {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        write(data, "a.cip", "xyzzy plugh");
+        write(data, "b.cip", "plugh xyzzy");
+        List<String> files = List.of("a.cip", "b.cip");
+        assertEquals(files, new SearchIndex(data).candidates(files, "xyzzy"));
+
+        Path indexFile = DataIndex.defaultIndexFile(data).resolveSibling("trigrams");
+        byte[] bytes = Files.readAllBytes(indexFile);
+        bytes[bytes.length - 12] = (byte) 0x80;
+        Files.write(indexFile, bytes);
+        // the last posting, one word long, now has a negative length
+
+        assertEquals(files, new SearchIndex(data).candidates(files, "xyzzy"));
+        assertEquals(files, new SearchIndex(data).candidates(files, "plugh"));
+    }
+}
@@ -0,0 +1,33 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayOutputStream;
+
+class SpoolOutputStreamTest {
+
+    @Test
+    void keepsOutputUntilForwarded() throws Exception {
+        SpoolOutputStream spool = new SpoolOutputStream(4);
+        spool.write("abc".getBytes());
+        spool.write("defgh".getBytes());
+        spool.write('i');
+        //past the memory limit, the rest goes to a temp file
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        spool.forwardTo(out);
+        assertEquals("abcdefghi", out.toString());
+
+        spool.write("jk".getBytes());
+        assertEquals("abcdefghijk", out.toString());
+        assertEquals('k', spool.lastByte());
+    }
+
+    @Test
+    void nothingWritten() throws Exception {
+        SpoolOutputStream spool = new SpoolOutputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        spool.forwardTo(out);
+
+        assertEquals(0, out.size());
+        assertEquals(-1, spool.lastByte());
+    }
+}
@@ -0,0 +1,27 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+class StageStatsTest {
+
+    @Test
+    void countsEachStage() throws Exception {
+        FileHandler handler = new FileHandler();
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+
+        try (StageStats stats = new StageStats()) {
+            handler.getFiles();
+            handler.readFile("carnivore.cip", null, new ByteArrayOutputStream());
+            handler.readFile("carnivore.txt", null, new ByteArrayOutputStream());
+            stats.print(new PrintStream(summary, true));
+        }
+
+        String[] lines = summary.toString().split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[1].matches("list files +1 .*"), lines[1]);
+        assertTrue(lines[2].matches("read file +1 .*"), lines[2]);
+        // the .cip file is read while it is decrypted, only the plain copy is a read
+        assertTrue(lines[4].matches("decrypt +[1-9][0-9]* .*"), lines[4]);
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+class TopSecretDaemonTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void forwardWithoutDaemon() throws Exception {
+        assertFalse(TopSecretDaemon.forward(new String[] { "1" }, tempDir.resolve("none.sock"), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void servesSameOutputAsCommandLine() throws Exception {
+        Path socket = tempDir.resolve("test.sock");
+        ProgramController controller = new ProgramController(new FileHandler());
+        TopSecretDaemon daemon = new TopSecretDaemon(controller, socket);
+        Thread server = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        server.start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean served = false;
+        for (int i = 0; i < 100 && !served; i++) {
+            served = TopSecretDaemon.forward(new String[] { "1" }, socket, out);
+            if (!served) {
+                Thread.sleep(20);
+            }
+        }//the daemon starts listening on its own thread
+        assertTrue(served);
+        assertArrayEquals(Files.readAllBytes(Paths.get("data", "carnivore.txt")), out.toByteArray());
+
+        ByteArrayOutputStream listing = new ByteArrayOutputStream();
+        assertTrue(TopSecretDaemon.forward(new String[] {}, socket, listing));
+        assertEquals(controller.run(new String[] {}), listing.toString());
+
+        daemon.stop();
+        server.join(5000);
+        assertFalse(server.isAlive());
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    void reportsFailedRequests() throws Exception {
+        Path socket = tempDir.resolve("error.sock");
+        ProgramController controller = new ProgramController(new FileHandler()) {
+            @Override
+            public void run(String[] args, OutputStream out) {
+                throw new RuntimeException("not a compressed cipher file");
+            }
+        };
+        TopSecretDaemon daemon = new TopSecretDaemon(controller, socket);
+        Thread server = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        server.start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean served = false;
+        for (int i = 0; i < 100 && !served; i++) {
+            served = TopSecretDaemon.forward(new String[] { "1" }, socket, out);
+            if (!served) {
+                Thread.sleep(20);
+            }
+        }
+        assertTrue(served);
+        assertEquals("Error: not a compressed cipher file\n", out.toString());
+
+        daemon.stop();
+        server.join(5000);
+    }
+}
@@ -1,5 +1,19 @@
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ForkJoinPool;
+import utilities.CipherRegistry;
+import utilities.ContentCache;
 import java.util.List;
 
 public class FileHandlerTest {
@@ -47,4 +61,274 @@ public class FileHandlerTest {
         assertNotNull(encryptedFile);
         assertEquals(testedFile.trim(), encryptedFile.trim());
     }// check to see if the encrypted file is decryped after read.readFile is called.
+
+    @Test
+    void streamKeepsExactContents() throws IOException {
+        FileHandler filehandler = new FileHandler();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filehandler.readFile("carnivore.cip", null, out);
+
+        assertArrayEquals(Files.readAllBytes(Paths.get("data", "carnivore.txt")), out.toByteArray());
+        // streamed output matches the plain file byte for byte, without an added newline
+    }
+
+    @Test
+    void openFileDecrypts() throws IOException {
+        FileHandler filehandler = new FileHandler();
+        StringBuilder contents = new StringBuilder();
+        try (Reader reader = filehandler.openFile("cointelpro.cip", null)) {
+            int character;
+            while ((character = reader.read()) != -1) {
+                contents.append((char) character);
+            }
+        }
+        assertEquals(Files.readString(Paths.get("data", "cointelpro.txt")), contents.toString());
+    }// check the reader decrypts one character at a time too
+
+    @Test
+    void streamMissingFile() {
+        FileHandler filehandler = new FileHandler();
+        assertThrows(RuntimeException.class, () -> filehandler.readFile("test.txt", null, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void encryptWritesCipFile(@TempDir Path tempDir) throws IOException {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Files.copy(Paths.get("data", "carnivore.txt"), data.resolve("carnivore.txt"));
+        FileHandler filehandler = new FileHandler(data.toString(), "ciphers");
+
+        assertEquals("carnivore.cip", filehandler.encryptFile("carnivore.txt", null));
+        assertArrayEquals(Files.readAllBytes(Paths.get("data", "carnivore.cip")),
+                Files.readAllBytes(data.resolve("carnivore.cip")));
+        // same bytes as the checked in encrypted file
+
+        assertEquals(List.of("carnivore.cip", "carnivore.txt"), filehandler.getFiles());
+        // no temp file is left in the data folder
+    }
+
+    @Test
+    void encryptRejectsCipFile() {
+        FileHandler filehandler = new FileHandler();
+        assertThrows(RuntimeException.class, () -> filehandler.encryptFile("carnivore.cip", null));
+    }
+
+    @Test
+    void rekeyMovesFileToNewKey(@TempDir Path tempDir) throws IOException {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Path keys = Files.createDirectories(tempDir.resolve("ciphers"));
+        Files.copy(Paths.get("data", "carnivore.cip"), data.resolve("carnivore.cip"));
+        Files.copy(Paths.get("ciphers", "key.txt"), keys.resolve("key.txt"));
+        Files.write(keys.resolve("reversed.txt"), List.of("abcdefghijklmnopqrstuvwxyz", "zyxwvutsrqponmlkjihgfedcba"));
+        FileHandler filehandler = new FileHandler(data.toString(), keys.toString());
+
+        RekeyJournal journal = filehandler.openRekeyJournal("key.txt", "reversed.txt");
+        assertEquals("re-keyed", filehandler.rekeyFile("carnivore.cip", "key.txt", "reversed.txt", journal));
+        assertEquals("already re-keyed", filehandler.rekeyFile("carnivore.cip", "key.txt", "reversed.txt", journal));
+        journal.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filehandler.readFile("carnivore.cip", "reversed.txt", out);
+        assertArrayEquals(Files.readAllBytes(Paths.get("data", "carnivore.txt")), out.toByteArray());
+    }
+
+    @Test
+    void rekeyResumesStagedFile(@TempDir Path tempDir) throws IOException {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Files.copy(Paths.get("data", "carnivore.cip"), data.resolve("carnivore.cip"));
+        FileHandler filehandler = new FileHandler(data.toString(), "ciphers");
+
+        RekeyJournal journal = filehandler.openRekeyJournal("key.txt", "key2.txt");
+        Files.copy(Paths.get("data", "carnivore.cip"), journal.tempFile("carnivore.cip"));
+        journal.staged("carnivore.cip");
+        journal.close();
+        Files.writeString(journal.tempFile("carnivore.cip"), "new");
+        // pretend the run stopped after the temp file was written but before the rename
+
+        RekeyJournal resumed = filehandler.openRekeyJournal("key.txt", "key2.txt");
+        assertEquals(RekeyJournal.State.STAGED, resumed.state("carnivore.cip"));
+        filehandler.rekeyFile("carnivore.cip", "key.txt", "key2.txt", resumed);
+        assertEquals("new", Files.readString(data.resolve("carnivore.cip")));
+        resumed.close();
+
+        assertThrows(RuntimeException.class, () -> filehandler.openRekeyJournal("key2.txt", "key.txt"));
+        // a different re-key can't start while this one is unfinished
+    }
+
+    @Test
+    void compressedFileReadsLikeCipFile(@TempDir Path tempDir) throws IOException {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Files.copy(Paths.get("data", "carnivore.cip"), data.resolve("carnivore.cip"));
+        FileHandler filehandler = new FileHandler(data.toString(), "ciphers");
+
+        assertEquals("carnivore.cipz", filehandler.compressFile("carnivore.cip"));
+        assertThrows(RuntimeException.class, () -> filehandler.compressFile("carnivore.cipz"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filehandler.readFile("carnivore.cipz", null, out);
+        assertArrayEquals(Files.readAllBytes(Paths.get("data", "carnivore.txt")), out.toByteArray());
+        assertEquals(filehandler.readFile("carnivore.cip", null), filehandler.readFile("carnivore.cipz", null));
+
+        List<String> lines = Files.readAllLines(Paths.get("data", "carnivore.txt"));
+        out = new ByteArrayOutputStream();
+        filehandler.readLines("carnivore.cipz", null, 2, 2, out);
+        assertEquals(lines.get(1) + "\n" + lines.get(2) + "\n", out.toString());
+        assertEquals(lines.size(), filehandler.lineCount("carnivore.cipz"));
+
+        assertEquals(filehandler.searchFile("carnivore.cip", "Carnivore", null),
+                filehandler.searchFile("carnivore.cipz", "Carnivore", null));
+        assertTrue(filehandler.searchCandidates("Carnivore", null, true).contains("carnivore.cipz"));
+    }
+
+    @Test
+    void cacheServesUnchangedFile(@TempDir Path tempDir) throws IOException {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Path file = data.resolve("carnivore.cip");
+        Files.copy(Paths.get("data", "carnivore.cip"), file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        ContentCache cache = new ContentCache(1024 * 1024);
+        FileHandler filehandler = new FileHandler(data.toString(), "ciphers", ForkJoinPool.commonPool(),
+                new CipherRegistry(), cache);
+
+        byte[] expected = Files.readAllBytes(Paths.get("data", "carnivore.txt"));
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            filehandler.readFile("carnivore.cip", null, out);
+            assertArrayEquals(expected, out.toByteArray());
+        }
+        assertEquals(new FileHandler().readFile("carnivore.cip", null), filehandler.readFile("carnivore.cip", null));
+        assertEquals(1, cache.getMisses());
+        assertEquals(3, cache.getHits());
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 30000));
+        filehandler.readFile("carnivore.cip", null, new ByteArrayOutputStream());
+        assertEquals(2, cache.getMisses());
+        // a changed file is decrypted again
+    }
+
+    @Test
+    void searchDecryptsOnlyMatchingLines() throws IOException {
+        FileHandler filehandler = new FileHandler();
+        List<String> matches = filehandler.searchFile("carnivore.cip", "Carnivore", null);
+        List<String> lines = Files.readAllLines(Paths.get("data", "carnivore.txt"));
+
+        assertEquals(List.of("1: " + lines.get(0), "3: " + lines.get(2)), matches);
+        assertTrue(filehandler.searchCandidates("Carnivore", null, true).contains("carnivore.cip"));
+        assertFalse(filehandler.searchCandidates("Carnivore", null, true).contains("carnivore.txt"));
+    }
+
+    @Test
+    void readLinesDecryptsRange() throws IOException {
+        FileHandler filehandler = new FileHandler();
+        List<String> lines = Files.readAllLines(Paths.get("data", "carnivore.txt"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filehandler.readLines("carnivore.cip", null, 2, 2, out);
+
+        assertEquals(lines.get(1) + "\n" + lines.get(2) + "\n", out.toString());
+        assertEquals(lines.size(), filehandler.lineCount("carnivore.cip"));
+    }
+
+    @Test
+    void syncEncryptsOnlyChangedFiles(@TempDir Path tempDir) throws IOException {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        long old = System.currentTimeMillis() - 60000;
+        for (String name : List.of("carnivore.txt", "cointelpro.txt", "new.cip")) {
+            Files.copy(Paths.get("data", name), data.resolve(name));
+            Files.setLastModifiedTime(data.resolve(name), FileTime.fromMillis(old));
+        }
+        FileHandler filehandler = new FileHandler(data.toString(), "ciphers");
+
+        SyncManifest manifest = filehandler.openSyncManifest(null);
+        assertEquals("carnivore.cip", filehandler.syncFile("carnivore.txt", null, manifest));
+        assertEquals("cointelpro.cip", filehandler.syncFile("cointelpro.txt", null, manifest));
+        assertArrayEquals(Files.readAllBytes(Paths.get("data", "carnivore.cip")),
+                Files.readAllBytes(data.resolve("carnivore.cip")));
+        manifest.save();
+
+        manifest = filehandler.openSyncManifest(null);
+        assertNull(filehandler.syncFile("carnivore.txt", null, manifest));
+        Files.setLastModifiedTime(data.resolve("cointelpro.txt"), FileTime.fromMillis(old + 1000));
+        assertNull(filehandler.syncFile("cointelpro.txt", null, manifest));
+        // touched but the same contents
+
+        Files.writeString(data.resolve("carnivore.txt"), "changed\n");
+        assertEquals("carnivore.cip", filehandler.syncFile("carnivore.txt", null, manifest));
+        assertEquals("changed\n", filehandler.readFile("carnivore.cip", null));
+
+        Files.delete(data.resolve("cointelpro.txt"));
+        assertEquals(List.of("cointelpro.cip"), filehandler.removeSyncOrphans(manifest));
+        assertFalse(Files.exists(data.resolve("cointelpro.cip")));
+        assertTrue(Files.exists(data.resolve("new.cip")));
+        // new.cip wasn't written by sync, so it stays
+        manifest.save();
+
+        SyncManifest otherKey = filehandler.openSyncManifest("key2.txt");
+        assertNull(otherKey.get("cointelpro.txt"));
+        assertEquals("carnivore.cip", filehandler.syncFile("carnivore.txt", "key2.txt", otherKey));
+        // a different key encrypts again
+    }
+
+    @Test
+    void syncChecksEverythingWhenManifestIsDamaged(@TempDir Path tempDir) throws IOException {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Files.copy(Paths.get("data", "carnivore.txt"), data.resolve("carnivore.txt"));
+        Files.setLastModifiedTime(data.resolve("carnivore.txt"), FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        FileHandler filehandler = new FileHandler(data.toString(), "ciphers");
+
+        SyncManifest manifest = filehandler.openSyncManifest(null);
+        assertEquals("carnivore.cip", filehandler.syncFile("carnivore.txt", null, manifest));
+        manifest.save();
+
+        Path manifestFile = DataIndex.defaultIndexFile(data).resolveSibling("sync.manifest");
+        byte[] bytes = Files.readAllBytes(manifestFile);
+        bytes[14] = (byte) 0xFF;
+        Files.write(manifestFile, bytes);
+        // the name of the first entry is no longer valid modified UTF-8
+
+        manifest = filehandler.openSyncManifest(null);
+        assertNull(manifest.get("carnivore.txt"));
+        assertEquals("carnivore.cip", filehandler.syncFile("carnivore.txt", null, manifest));
+        assertEquals(List.of(), filehandler.removeSyncOrphans(manifest));
+    }
+
+    @Test
+    void plainFileIsCopiedExactly(@TempDir Path tempDir) throws IOException {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        byte[] contents = { 'a', '\r', '\n', 'b', (byte) 0xFF, '\n', 'c' };
+        Files.write(data.resolve("raw.txt"), contents);
+        FileHandler filehandler = new FileHandler(data.toString(), "ciphers");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filehandler.readFile("raw.txt", null, out);
+        assertArrayEquals(contents, out.toByteArray());
+        // no newline added at the end, invalid UTF-8 and \r kept
+
+        Path copy = tempDir.resolve("copy");
+        try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            filehandler.readFile("raw.txt", null, channel);
+            filehandler.readFile("raw.txt", null, channel);
+        }
+        // straight into a file channel, the way stdout is written, twice to check the position moves on
+
+        byte[] expected = new byte[contents.length * 2];
+        System.arraycopy(contents, 0, expected, 0, contents.length);
+        System.arraycopy(contents, 0, expected, contents.length, contents.length);
+        assertArrayEquals(expected, Files.readAllBytes(copy));
+    }
+
+    @Test
+    void channelOutputKeepsOrder(@TempDir Path tempDir) throws IOException {
+        Path data = Files.createDirectories(tempDir.resolve("data"));
+        Files.writeString(data.resolve("plain.txt"), "body");
+        FileHandler filehandler = new FileHandler(data.toString(), "ciphers");
+
+        Path target = tempDir.resolve("out");
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ChannelOutputStream out = new ChannelOutputStream(channel);
+            out.write("header ".getBytes(StandardCharsets.UTF_8));
+            filehandler.readFile("plain.txt", null, out);
+            out.write(" footer".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+        assertEquals("header body footer", Files.readString(target));
+    }
 }
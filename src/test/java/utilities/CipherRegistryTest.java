@@ -0,0 +1,100 @@
+package utilities;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CipherRegistryTest {
+    @TempDir
+    Path tempDir;
+
+    private Path writeKey(String filename, String original, String cipher) throws Exception {
+        Path keyFile = tempDir.resolve(filename);
+        Files.write(keyFile, List.of(original, cipher));
+        return keyFile;
+    }
+
+    @Test
+    void testSameInstanceWhileUnchanged() throws Exception {
+        Path keyFile = writeKey("key.txt", "abc", "bca");
+        CipherRegistry registry = new CipherRegistry();
+
+        Cipher first = registry.get(keyFile.toString());
+        assertSame(first, registry.get(keyFile.toString()));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void testReloadsWhenKeyFileChanges() throws Exception {
+        Path keyFile = writeKey("key.txt", "abc", "bca");
+        CipherRegistry registry = new CipherRegistry();
+        Cipher first = registry.get(keyFile.toString());
+        assertEquals("bca", first.encrypt("abc"));
+
+        Files.write(keyFile, List.of("abc", "cab"));
+        Files.setLastModifiedTime(keyFile, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+
+        Cipher second = registry.get(keyFile.toString());
+        assertNotSame(first, second);
+        assertEquals("cab", second.encrypt("abc"));
+    }
+
+    @Test
+    void testConcurrentLoadsShareOneCipher() throws Exception {
+        Path keyFile = writeKey("key.txt", "abc", "bca");
+        CipherRegistry registry = new CipherRegistry();
+
+        List<Future<Cipher>> loads = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 16; i++) {
+                loads.add(executor.submit(() -> registry.get(keyFile.toString())));
+            }
+        }
+        Cipher cached = registry.get(keyFile.toString());
+        for (Future<Cipher> load : loads) {
+            assertSame(cached, load.get());
+        }
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() throws Exception {
+        Path a = writeKey("a.txt", "ab", "ba");
+        Path b = writeKey("b.txt", "ab", "ba");
+        Path c = writeKey("c.txt", "ab", "ba");
+        CipherRegistry registry = new CipherRegistry(2);
+
+        Cipher cipherA = registry.get(a.toString());
+        registry.get(b.toString());
+        registry.get(a.toString());
+        registry.get(c.toString());
+        // b was used least recently, so it is the one evicted
+
+        assertEquals(2, registry.size());
+        assertSame(cipherA, registry.get(a.toString()));
+    }
+
+    @Test
+    void testMissingKeyFile() {
+        CipherRegistry registry = new CipherRegistry();
+        assertThrows(InvalidCipherKeyFileException.class,
+                () -> registry.get(tempDir.resolve("missing.txt").toString()));
+    }
+
+    @Test
+    void testPreloadSkipsInvalidKeys() throws Exception {
+        writeKey("a.txt", "ab", "ba");
+        writeKey("b.txt", "ab", "bb");
+        CipherRegistry registry = new CipherRegistry();
+
+        assertEquals(1, registry.preload(tempDir));
+        assertEquals(1, registry.size());
+    }
+}
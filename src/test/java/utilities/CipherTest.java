@@ -4,6 +4,12 @@ import org.junit.jupiter.api.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.List;
 
@@ -39,6 +45,7 @@ public class CipherTest {
         deleteIfExists("duplicate_original.txt");
         deleteIfExists("duplicate_cipher.txt");
         deleteIfExists("standard_key.txt");
+        deleteIfExists("unicode_key.txt");
     }
 
     @Test
@@ -155,6 +162,95 @@ public class CipherTest {
         assertEquals("A", cipher.encrypt("A"));
     }
 
+    @Test
+    void testNonLatinCharacters() throws Exception {
+        Path keyFile = createTempKeyFile("unicode_key.txt", List.of(
+                "ab\u03b1\u03b2\u4e00",
+                "\u03b2\u03b1\u4e00ba"));
+        Cipher cipher = new Cipher(keyFile.toString());
+        assertEquals("\u03b2\u03b1\u4e00ba\u03b3", cipher.encrypt("ab\u03b1\u03b2\u4e00\u03b3"));
+        assertEquals("ab\u03b1\u03b2\u4e00\u03b3", cipher.decrypt("\u03b2\u03b1\u4e00ba\u03b3"));
+    }
+
+    @Test
+    void testCharArrayInPlace() throws Exception {
+        Cipher cipher = createStandardCipher();
+        char[] buffer = "xxabcxx".toCharArray();
+        cipher.encrypt(buffer, 2, 3);
+        assertArrayEquals("xxbcdxx".toCharArray(), buffer);
+        cipher.decrypt(buffer, 2, 3);
+        assertArrayEquals("xxabcxx".toCharArray(), buffer);
+    }
+
+    @Test
+    void testCharBufferTransfer() throws Exception {
+        Cipher cipher = createStandardCipher();
+        CharBuffer source = CharBuffer.wrap("hello world");
+        CharBuffer target = CharBuffer.allocate(5);
+        cipher.encrypt(source, target);
+
+        assertEquals(5, source.position());
+        assertEquals("ifmmp", target.flip().toString());
+
+        CharBuffer readOnly = CharBuffer.wrap("ifmmp").asReadOnlyBuffer();
+        CharBuffer plain = CharBuffer.allocate(5);
+        cipher.decrypt(readOnly, plain);
+        assertEquals("hello", plain.flip().toString());
+    }
+
+    @Test
+    void testByteBufferTransfer() throws Exception {
+        Cipher cipher = createStandardCipher();
+        assertTrue(cipher.isSingleByte());
+
+        ByteBuffer source = ByteBuffer.wrap("hello world".getBytes(StandardCharsets.ISO_8859_1));
+        ByteBuffer target = ByteBuffer.allocateDirect(source.remaining());
+        cipher.encrypt(source, target);
+        target.flip();
+
+        ByteBuffer plain = ByteBuffer.allocate(target.remaining());
+        cipher.decrypt(target, plain);
+        assertEquals("hello world", new String(plain.array(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void testByteBufferRejectsMultiByteKey() throws Exception {
+        Path keyFile = createTempKeyFile("unicode_key.txt", List.of(
+                "ab\u03b1\u03b2\u4e00",
+                "\u03b2\u03b1\u4e00ba"));
+        Cipher cipher = new Cipher(keyFile.toString());
+        assertFalse(cipher.isSingleByte());
+        assertThrows(UnsupportedOperationException.class,
+                () -> cipher.decrypt(ByteBuffer.allocate(1), ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    void testEncryptingWriter() throws Exception {
+        Cipher cipher = createStandardCipher();
+        String text = "hello world ".repeat(1000);
+        StringWriter encrypted = new StringWriter();
+        try (Writer writer = new EncryptingWriter(encrypted, cipher)) {
+            writer.write('x');
+            writer.write(text);
+            writer.write(text.toCharArray(), 6, 5);
+        }
+        assertEquals(cipher.encrypt("x" + text + "world"), encrypted.toString());
+
+        char[] source = "hello".toCharArray();
+        new EncryptingWriter(new StringWriter(), cipher).write(source, 0, source.length);
+        assertArrayEquals("hello".toCharArray(), source);
+        // the caller's buffer is left alone
+
+        StringBuilder decrypted = new StringBuilder();
+        try (DecryptingReader reader = new DecryptingReader(new StringReader(encrypted.toString()), cipher)) {
+            int character;
+            while ((character = reader.read()) != -1) {
+                decrypted.append((char) character);
+            }
+        }
+        assertEquals("x" + text + "world", decrypted.toString());
+    }
+
     @Test
     void testEncryptionChangesText() throws Exception {
         Cipher cipher = createStandardCipher();
@@ -0,0 +1,122 @@
+package utilities;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+public class CompiledKeyTest {
+    @TempDir
+    Path tempDir;
+
+    private static final String SAMPLE = "The quick brown fox jumps over the lazy dog. café 一二 😀\n";
+
+    private Path writeKey(String name, String from, String to) throws Exception {
+        Path keyFile = tempDir.resolve(name);
+        Files.write(keyFile, List.of(from, to));
+        Files.setLastModifiedTime(keyFile, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        return keyFile;
+    }
+
+    private void assertSameCipher(Cipher expected, Cipher actual) {
+        assertEquals(expected.encrypt(SAMPLE), actual.encrypt(SAMPLE));
+        assertEquals(expected.decrypt(SAMPLE), actual.decrypt(SAMPLE));
+        assertEquals(expected.isAscii(), actual.isAscii());
+        assertEquals(expected.isSingleByte(), actual.isSingleByte());
+    }
+
+    @Test
+    void testCompiledKeyMatchesTextKey() throws Exception {
+        Path asciiKey = writeKey("key.txt", "abcdefghijklmnopqrstuvwxyz", "zyxwvutsrqponmlkjihgfedcba");
+        Path unicodeKey = writeKey("unicode.txt", "abcé一", "一écba");
+        Path latinKey = writeKey("latin.txt", "abcé", "éabc");
+
+        for (Path keyFile : List.of(asciiKey, unicodeKey, latinKey)) {
+            Cipher text = new Cipher(keyFile.toString());
+            Path compiled = CompiledKey.compile(keyFile);
+            assertEquals(CompiledKey.compiledPath(keyFile), compiled);
+            assertFalse(text.isCompiled());
+
+            Cipher fromSibling = new Cipher(keyFile.toString());
+            assertTrue(fromSibling.isCompiled());
+            assertSameCipher(text, fromSibling);
+
+            Cipher direct = new Cipher(compiled.toString());
+            assertTrue(direct.isCompiled());
+            assertSameCipher(text, direct);
+        }
+
+        Cipher ascii = new Cipher(asciiKey.toString());
+        ByteBuffer decrypted = ByteBuffer.allocate(5);
+        ascii.decrypt(ByteBuffer.wrap("svool".getBytes(StandardCharsets.US_ASCII)), decrypted);
+        assertEquals("hello", new String(decrypted.array(), StandardCharsets.US_ASCII));
+        // byte table survives compiling
+    }
+
+    @Test
+    void testEditedKeyIgnoresStaleCompiledKey() throws Exception {
+        Path keyFile = writeKey("key.txt", "abc", "bca");
+        CompiledKey.compile(keyFile);
+
+        Files.write(keyFile, List.of("abc", "cab"));
+        Cipher cipher = new Cipher(keyFile.toString());
+        assertFalse(cipher.isCompiled());
+        assertEquals("cab", cipher.encrypt("abc"));
+    }
+
+    @Test
+    void testSameSizeEditInSameTickIgnoresCompiledKey() throws Exception {
+        Path keyFile = writeKey("key.txt", "abc", "bca");
+        FileTime modified = Files.getLastModifiedTime(keyFile);
+        CompiledKey.compile(keyFile);
+
+        Files.write(keyFile, List.of("abc", "cab"));
+        Files.setLastModifiedTime(keyFile, modified);
+        // same size and mtime as the key that was compiled
+        Cipher cipher = new Cipher(keyFile.toString());
+        assertFalse(cipher.isCompiled());
+        assertEquals("cab", cipher.encrypt("abc"));
+    }
+
+    @Test
+    void testCorruptCompiledKey() throws Exception {
+        Path keyFile = writeKey("key.txt", "abc", "bca");
+        Path compiled = CompiledKey.compile(keyFile);
+        byte[] bytes = Files.readAllBytes(compiled);
+        bytes[30] ^= 1;
+        Files.write(compiled, bytes);
+
+        Cipher cipher = new Cipher(keyFile.toString());
+        assertFalse(cipher.isCompiled());
+        assertEquals("bca", cipher.encrypt("abc"));
+        // the text key is used instead
+
+        assertThrows(InvalidCipherKeyFileException.class, () -> new Cipher(compiled.toString()));
+    }
+
+    @Test
+    void testInvalidKeyIsNotCompiled() throws Exception {
+        Path keyFile = writeKey("key.txt", "abca", "bcad");
+
+        assertThrows(InvalidCipherKeyException.class, () -> CompiledKey.compile(keyFile));
+        assertFalse(Files.exists(CompiledKey.compiledPath(keyFile)));
+        assertThrows(InvalidCipherKeyFileException.class, () -> CompiledKey.compile(tempDir.resolve("missing.txt")));
+    }
+
+    @Test
+    void testPreloadSkipsCompiledSibling() throws Exception {
+        Path keyFile = writeKey("key.txt", "abc", "bca");
+        CompiledKey.compile(keyFile);
+        Path onlyCompiled = CompiledKey.compile(writeKey("other.txt", "xyz", "zxy"));
+        Files.delete(tempDir.resolve("other.txt"));
+
+        CipherRegistry registry = new CipherRegistry();
+        assertEquals(2, registry.preload(tempDir));
+        assertEquals("zxy", registry.get(onlyCompiled.toString()).encrypt("xyz"));
+    }
+}
@@ -0,0 +1,172 @@
+package utilities;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class CompressedCipherFileTest {
+    @TempDir
+    Path tempDir;
+
+    private ForkJoinPool pool;
+
+    @BeforeEach
+    void createPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterEach
+    void shutdownPool() {
+        pool.shutdownNow();
+    }
+
+    private String sampleText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("line ").append(i).append(": café 一二 😀 abc xyz\r\n");
+        }
+        return text.toString();
+    }
+
+    private Cipher unicodeCipher() throws IOException {
+        Path keyFile = tempDir.resolve("unicode_key.txt");
+        Files.write(keyFile, List.of("abcé一", "一écba"));
+        return new Cipher(keyFile.toString());
+    }
+
+    private Path compress(Cipher cipher, String plaintext, int blockSize) throws IOException {
+        Path source = tempDir.resolve("sample.cip");
+        Files.writeString(source, cipher.encrypt(plaintext));
+        Path target = tempDir.resolve("sample.cipz");
+        CompressedCipherFile.compress(source, target, blockSize, pool);
+        return target;
+    }
+
+    private byte[] decrypt(Path file, long position, long length, CipherInterface cipher) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CompressedCipherFile compressed = CompressedCipherFile.open(file)) {
+            compressed.decrypt(position, length, Channels.newChannel(out), cipher, pool);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void testRoundTripIsSmallerAndExact() throws Exception {
+        Cipher cipher = new Cipher("ciphers/key.txt");
+        String plaintext = sampleText();
+        Path file = compress(cipher, plaintext, 1024);
+
+        assertTrue(Files.size(file) < Files.size(tempDir.resolve("sample.cip")) / 4);
+        try (CompressedCipherFile compressed = CompressedCipherFile.open(file)) {
+            assertEquals(Files.size(tempDir.resolve("sample.cip")), compressed.length());
+            assertTrue(compressed.blockCount() > 1);
+        }
+        assertArrayEquals(plaintext.getBytes(StandardCharsets.UTF_8), decrypt(file, 0, Long.MAX_VALUE, cipher));
+    }
+
+    @Test
+    void testBlocksEndBetweenCharacters() throws Exception {
+        Cipher cipher = unicodeCipher();
+        String plaintext = sampleText();
+
+        // every small block size would cut some characters in half
+        for (int blockSize = 1; blockSize <= 9; blockSize++) {
+            Path file = compress(cipher, plaintext, blockSize);
+            assertArrayEquals(plaintext.getBytes(StandardCharsets.UTF_8), decrypt(file, 0, Long.MAX_VALUE, cipher),
+                    "block size " + blockSize);
+        }
+    }
+
+    @Test
+    void testRangeMatchesUncompressedRange() throws Exception {
+        Cipher cipher = unicodeCipher();
+        Path file = compress(cipher, sampleText(), 100);
+        Path source = tempDir.resolve("sample.cip");
+        ParallelFileCipher parallelCipher = new ParallelFileCipher(pool, 64, 0);
+
+        long[][] ranges = { { 0, 10 }, { 95, 20 }, { 101, 350 }, { 1000, 0 }, { 5000, Long.MAX_VALUE },
+                { Files.size(source) + 10, 5 } };
+        for (long[] range : ranges) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            parallelCipher.decrypt(source, range[0], range[1], Channels.newChannel(expected), cipher);
+            assertArrayEquals(expected.toByteArray(), decrypt(file, range[0], range[1], cipher),
+                    "range " + Arrays.toString(range));
+        }
+    }
+
+    @Test
+    void testChannelReadsCiphertext() throws Exception {
+        Cipher cipher = new Cipher("ciphers/key.txt");
+        Path file = compress(cipher, sampleText(), 64);
+        byte[] ciphertext = Files.readAllBytes(tempDir.resolve("sample.cip"));
+
+        try (SeekableByteChannel channel = CompressedCipherFile.openContents(file)) {
+            assertEquals(ciphertext.length, channel.size());
+            channel.position(130);
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            while (buffer.hasRemaining()) {
+                channel.read(buffer);
+            }
+            assertArrayEquals(Arrays.copyOfRange(ciphertext, 130, 230), buffer.array());
+
+            channel.position(ciphertext.length);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+        assertArrayEquals(ciphertext, Channels.newInputStream(CompressedCipherFile.openContents(file)).readAllBytes());
+    }
+
+    @Test
+    void testRecodeMovesToNewKey() throws Exception {
+        Cipher oldCipher = new Cipher("ciphers/key.txt");
+        Cipher newCipher = unicodeCipher();
+        String plaintext = sampleText();
+        Path file = compress(oldCipher, plaintext, 50);
+        Path rekeyed = tempDir.resolve("rekeyed.cipz");
+
+        try (CompressedCipherFile compressed = CompressedCipherFile.open(file)) {
+            compressed.recode(rekeyed, new RekeyCipher(oldCipher, newCipher), pool);
+        }
+        assertArrayEquals(plaintext.getBytes(StandardCharsets.UTF_8), decrypt(rekeyed, 0, Long.MAX_VALUE, newCipher));
+    }
+
+    @Test
+    void testEmptyFile() throws Exception {
+        Cipher cipher = new Cipher("ciphers/key.txt");
+        Path file = compress(cipher, "", 1024);
+
+        try (CompressedCipherFile compressed = CompressedCipherFile.open(file)) {
+            assertEquals(0, compressed.length());
+            assertEquals(0, compressed.blockCount());
+        }
+        assertEquals(0, decrypt(file, 0, Long.MAX_VALUE, cipher).length);
+    }
+
+    @Test
+    void testRejectsCorruptFiles() throws Exception {
+        Cipher cipher = new Cipher("ciphers/key.txt");
+        Path file = compress(cipher, sampleText(), 1024);
+        byte[] bytes = Files.readAllBytes(file);
+
+        Path truncated = tempDir.resolve("truncated.cipz");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 5));
+        assertThrows(IOException.class, () -> CompressedCipherFile.open(truncated));
+
+        Path damaged = tempDir.resolve("damaged.cipz");
+        bytes[40] ^= 0x55;
+        Files.write(damaged, bytes);
+        assertThrows(IOException.class, () -> decrypt(damaged, 0, Long.MAX_VALUE, cipher));
+
+        assertThrows(IOException.class, () -> CompressedCipherFile.open(tempDir.resolve("sample.cip")));
+    }
+}
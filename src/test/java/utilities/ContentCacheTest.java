@@ -0,0 +1,75 @@
+package utilities;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+public class ContentCacheTest {
+
+    private ContentCache.Key key(String name, long modified) {
+        return new ContentCache.Key(Paths.get("/data", name), modified, 10, Paths.get("/ciphers/key.txt"), 1);
+    }
+
+    private byte[] bytes(int length, int value) {
+        byte[] bytes = new byte[length];
+        java.util.Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    @Test
+    void testHitAndMiss() {
+        ContentCache cache = new ContentCache(1000);
+        assertNull(cache.get(key("a.cip", 1)));
+        assertTrue(cache.put(key("a.cip", 1), bytes(10, 'a')));
+
+        ByteBuffer contents = cache.get(key("a.cip", 1));
+        assertNotNull(contents);
+        assertTrue(contents.isReadOnly());
+        assertEquals(10, contents.remaining());
+        assertNull(cache.get(key("a.cip", 2)));
+        // a new modification time is a different version of the file
+
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        ContentCache cache = new ContentCache(1000);
+        cache.put(key("a.cip", 1), bytes(250, 'a'));
+        cache.put(key("b.cip", 1), bytes(250, 'b'));
+        cache.put(key("c.cip", 1), bytes(250, 'c'));
+        cache.put(key("d.cip", 1), bytes(250, 'd'));
+        cache.get(key("a.cip", 1));
+        cache.put(key("e.cip", 1), bytes(250, 'e'));
+
+        assertNotNull(cache.get(key("a.cip", 1)));
+        assertNull(cache.get(key("b.cip", 1)));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1000, cache.getBytes());
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    void testRejectsLargeEntries() {
+        ContentCache cache = new ContentCache(1000);
+        assertFalse(cache.accepts(251));
+        assertFalse(cache.put(key("a.cip", 1), bytes(251, 'a')));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testOffHeap() {
+        ContentCache cache = new ContentCache(1000, true);
+        byte[] contents = bytes(10, 'a');
+        cache.put(key("a.cip", 1), contents);
+        contents[0] = 'b';
+
+        ByteBuffer cached = cache.get(key("a.cip", 1));
+        assertTrue(cached.isDirect());
+        assertEquals('a', cached.get(0));
+        // off the heap the contents are copied
+    }
+}
@@ -0,0 +1,65 @@
+package utilities;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+
+public class MappedFileCipherTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testDecryptToChannelMatchesCharPath() throws Exception {
+        Cipher cipher = new Cipher("ciphers/key.txt");
+        assertTrue(cipher.isAscii());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = MappedFileCipher.decrypt(Paths.get("data", "carnivore.cip"), Channels.newChannel(out), cipher);
+
+        byte[] expected = Files.readAllBytes(Paths.get("data", "carnivore.txt"));
+        assertEquals(expected.length, written);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    void testDecryptToMappedFile() throws Exception {
+        Cipher cipher = new Cipher("ciphers/key.txt");
+        Path target = tempDir.resolve("cointelpro.txt");
+        Files.writeString(target, "stale contents that are longer than the real file will ever be".repeat(10));
+
+        MappedFileCipher.decrypt(Paths.get("data", "cointelpro.cip"), target, cipher);
+
+        assertArrayEquals(Files.readAllBytes(Paths.get("data", "cointelpro.txt")), Files.readAllBytes(target));
+    }
+
+    @Test
+    void testMultiByteTextIsUntouched() throws Exception {
+        Cipher cipher = new Cipher("ciphers/key.txt");
+        String plaintext = "caf\u00e9 \u4e00 done";
+        Path source = tempDir.resolve("unicode.cip");
+        Files.writeString(source, cipher.encrypt(plaintext));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MappedFileCipher.decrypt(source, Channels.newChannel(out), cipher);
+        assertEquals(plaintext, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testRejectsNonAsciiKey() throws IOException {
+        Path keyFile = tempDir.resolve("latin_key.txt");
+        Files.write(keyFile, List.of("ab\u00e9", "\u00e9ba"));
+        Cipher cipher = new Cipher(keyFile.toString());
+
+        assertTrue(cipher.isSingleByte());
+        assertFalse(cipher.isAscii());
+        assertThrows(UnsupportedOperationException.class,
+                () -> MappedFileCipher.decrypt(Paths.get("data", "carnivore.cip"), tempDir.resolve("out.txt"), cipher));
+    }
+}
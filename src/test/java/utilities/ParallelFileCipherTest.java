@@ -0,0 +1,126 @@
+package utilities;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelFileCipherTest {
+    @TempDir
+    Path tempDir;
+
+    private ForkJoinPool pool;
+
+    @BeforeEach
+    void createPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterEach
+    void shutdownPool() {
+        pool.shutdownNow();
+    }
+
+    private String sampleText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("line ").append(i).append(": caf\u00e9 \u4e00\u4e8c \ud83d\ude00 abc xyz\r\n");
+        }
+        return text.toString();
+    }
+
+    private byte[] decrypt(ParallelFileCipher parallelCipher, Path source, Cipher cipher) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parallelCipher.decrypt(source, Channels.newChannel(out), cipher);
+        return out.toByteArray();
+    }
+
+    @Test
+    void testParallelMatchesSequentialForAsciiKey() throws Exception {
+        Cipher cipher = new Cipher("ciphers/key.txt");
+        String plaintext = sampleText();
+        Path source = tempDir.resolve("sample.cip");
+        Files.writeString(source, cipher.encrypt(plaintext));
+
+        byte[] decrypted = decrypt(new ParallelFileCipher(pool, 7, 0), source, cipher);
+        assertArrayEquals(plaintext.getBytes(StandardCharsets.UTF_8), decrypted);
+    }
+
+    @Test
+    void testChunkBoundariesInsideMultiByteCharacters() throws Exception {
+        Path keyFile = tempDir.resolve("unicode_key.txt");
+        Files.write(keyFile, List.of("abc\u00e9\u4e00", "\u4e00\u00e9cba"));
+        Cipher cipher = new Cipher(keyFile.toString());
+        assertFalse(cipher.isAscii());
+
+        String plaintext = sampleText();
+        Path source = tempDir.resolve("sample.cip");
+        Files.writeString(source, cipher.encrypt(plaintext));
+
+        // every small chunk size puts boundaries in the middle of some characters
+        for (int chunkSize = 1; chunkSize <= 9; chunkSize++) {
+            byte[] decrypted = decrypt(new ParallelFileCipher(pool, chunkSize, 0), source, cipher);
+            assertArrayEquals(plaintext.getBytes(StandardCharsets.UTF_8), decrypted, "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    void testBelowThresholdRunsSequentially() throws Exception {
+        Cipher cipher = new Cipher("ciphers/key.txt");
+        ForkJoinPool unused = new ForkJoinPool(1);
+        unused.shutdown();
+        // a shut down pool rejects work, so this only passes if nothing is submitted
+
+        byte[] decrypted = decrypt(new ParallelFileCipher(unused, 16, Long.MAX_VALUE),
+                Paths.get("data", "carnivore.cip"), cipher);
+        assertArrayEquals(Files.readAllBytes(Paths.get("data", "carnivore.txt")), decrypted);
+    }
+
+    @Test
+    void testEmptyFile() throws Exception {
+        Cipher cipher = new Cipher("ciphers/key.txt");
+        Path source = tempDir.resolve("empty.cip");
+        Files.createFile(source);
+
+        assertEquals(0, decrypt(new ParallelFileCipher(pool, 4, 0), source, cipher).length);
+    }
+
+    @Test
+    void testRangeDecryptsOnlyRequestedBytes() throws Exception {
+        Path keyFile = tempDir.resolve("unicode_key.txt");
+        Files.write(keyFile, List.of("abc\u00e9\u4e00", "\u4e00\u00e9cba"));
+        String plaintext = "caf\u00e9 abc\n";
+        Path source = tempDir.resolve("range.cip");
+
+        for (Cipher cipher : List.of(new Cipher(keyFile.toString()), new Cipher("ciphers/key.txt"))) {
+            String ciphertext = cipher.encrypt(plaintext);
+            Files.writeString(source, ciphertext);
+            int space = ciphertext.substring(0, ciphertext.indexOf(' ')).getBytes(StandardCharsets.UTF_8).length;
+            int abc = cipher.encrypt("abc").getBytes(StandardCharsets.UTF_8).length;
+            ParallelFileCipher parallelCipher = new ParallelFileCipher(pool, 4, 0);
+            // offsets are positions in the ciphertext
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            parallelCipher.decrypt(source, space + 1, abc, Channels.newChannel(out), cipher);
+            assertEquals("abc", out.toString(StandardCharsets.UTF_8));
+
+            out.reset();
+            parallelCipher.decrypt(source, space + 1, Long.MAX_VALUE, Channels.newChannel(out), cipher);
+            assertEquals("abc\n", out.toString(StandardCharsets.UTF_8));
+
+            if (!cipher.isAscii()) {
+                out.reset();
+                parallelCipher.decrypt(source, 2, space, Channels.newChannel(out), cipher);
+                assertEquals("f\u00e9 a", out.toString(StandardCharsets.UTF_8));
+                // a is encrypted to a three byte character, so both ends of this range fall
+                // inside one and are moved forward to the next character
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package utilities;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+
+public class RekeyCipherTest {
+    @TempDir
+    Path tempDir;
+
+    private Cipher writeKey(String filename, String original, String cipher) throws Exception {
+        Path keyFile = tempDir.resolve(filename);
+        Files.write(keyFile, List.of(original, cipher), StandardCharsets.UTF_8);
+        return new Cipher(keyFile.toString());
+    }
+
+    @Test
+    void testMatchesDecryptThenEncrypt() throws Exception {
+        Cipher oldCipher = writeKey("old.txt", "abcdefgh", "bcdefgha");
+        Cipher newCipher = writeKey("new.txt", "abcdxyz", "zyxdcba");
+        RekeyCipher rekey = new RekeyCipher(oldCipher, newCipher);
+
+        String text = "the quick brown fox jumps over the lazy dog";
+        String oldCiphertext = oldCipher.encrypt(text);
+        String newCiphertext = rekey.decrypt(oldCiphertext);
+
+        assertEquals(newCipher.encrypt(text), newCiphertext);
+        assertEquals(oldCiphertext, rekey.encrypt(newCiphertext));
+        assertTrue(rekey.isAscii());
+    }
+
+    @Test
+    void testNonLatinKeys() throws Exception {
+        Cipher oldCipher = writeKey("old.txt", "abαβ", "βαba");
+        Cipher newCipher = writeKey("new.txt", "a一α", "一αa");
+        RekeyCipher rekey = new RekeyCipher(oldCipher, newCipher);
+
+        String text = "abαβ一c";
+        assertEquals(newCipher.encrypt(text), rekey.decrypt(oldCipher.encrypt(text)));
+        assertFalse(rekey.isSingleByte());
+    }
+
+    @Test
+    void testByteBufferForAsciiKeys() throws Exception {
+        Cipher oldCipher = writeKey("old.txt", "abc", "cab");
+        Cipher newCipher = writeKey("new.txt", "abc", "bca");
+        RekeyCipher rekey = new RekeyCipher(oldCipher, newCipher);
+
+        ByteBuffer source = ByteBuffer.wrap(oldCipher.encrypt("abcd").getBytes(StandardCharsets.US_ASCII));
+        ByteBuffer target = ByteBuffer.allocate(4);
+        rekey.decrypt(source, target);
+        assertEquals(newCipher.encrypt("abcd"), new String(target.array(), StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,126 @@
+package utilities;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class VectorCipherTest {
+
+    private Cipher scalar;
+    private VectorCipher vector;
+
+    @BeforeEach
+    void loadCiphers() {
+        Assumptions.assumeTrue(Ciphers.isVectorAvailable(), "needs --add-modules jdk.incubator.vector --enable-preview");
+        scalar = new Cipher("ciphers/key.txt");
+        vector = new VectorCipher(scalar);
+    }
+
+    private byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private ByteBuffer buffer(byte[] contents, boolean direct, int offset) {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(contents.length + offset)
+                : ByteBuffer.allocate(contents.length + offset);
+        buffer.position(offset);
+        buffer.put(contents);
+        buffer.position(offset);
+        return buffer;
+    }
+
+    private byte[] remaining(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return bytes;
+    }
+
+    @Test
+    void testEveryByteValue() {
+        byte[] all = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            all[i] = (byte) i;
+        }
+        ByteBuffer expected = ByteBuffer.allocate(256);
+        ByteBuffer actual = ByteBuffer.allocate(256);
+        scalar.decrypt(ByteBuffer.wrap(all), expected);
+        vector.decrypt(ByteBuffer.wrap(all), actual);
+        assertArrayEquals(expected.array(), actual.array());
+
+        expected.clear();
+        actual.clear();
+        scalar.encrypt(ByteBuffer.wrap(all), expected);
+        vector.encrypt(ByteBuffer.wrap(all), actual);
+        assertArrayEquals(expected.array(), actual.array());
+    }
+
+    @Test
+    void testMatchesScalarForAnyLengthAndBuffer() {
+        for (int length = 0; length < 300; length += 7) {
+            byte[] input = randomBytes(length, length);
+            for (boolean sourceDirect : new boolean[] { false, true }) {
+                for (boolean targetDirect : new boolean[] { false, true }) {
+                    ByteBuffer source = buffer(input, sourceDirect, 3);
+                    ByteBuffer target = buffer(new byte[length], targetDirect, 5);
+                    vector.decrypt(source, target);
+
+                    ByteBuffer expected = ByteBuffer.allocate(length);
+                    scalar.decrypt(ByteBuffer.wrap(input), expected);
+                    assertArrayEquals(expected.array(), remaining(target, 5, length), "length " + length);
+                    assertEquals(3 + length, source.position());
+                    assertEquals(5 + length, target.position());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testDirectSourceIntoDirectTarget() {
+        byte[] input = randomBytes(200_003, 1);
+        ByteBuffer source = buffer(input, true, 3);
+        ByteBuffer target = ByteBuffer.allocateDirect(input.length + 5);
+        target.position(5);
+        vector.decrypt(source, target);
+        // read and written in place, at offsets that aren't vector aligned
+
+        ByteBuffer expected = ByteBuffer.allocate(input.length);
+        scalar.decrypt(ByteBuffer.wrap(input), expected);
+        assertArrayEquals(expected.array(), remaining(target, 5, input.length));
+        assertFalse(source.hasRemaining());
+        assertFalse(target.hasRemaining());
+
+        source.position(3);
+        ByteBuffer encrypted = ByteBuffer.allocateDirect(input.length);
+        vector.encrypt(source, encrypted);
+        expected.clear();
+        scalar.encrypt(ByteBuffer.wrap(input), expected);
+        assertArrayEquals(expected.array(), remaining(encrypted, 0, input.length));
+    }
+
+    @Test
+    void testStopsAtSmallerBuffer() {
+        ByteBuffer source = ByteBuffer.wrap(randomBytes(100, 2));
+        ByteBuffer target = ByteBuffer.allocate(40);
+        vector.decrypt(source, target);
+        assertEquals(40, source.position());
+        assertFalse(target.hasRemaining());
+    }
+
+    @Test
+    void testTextMatchesScalar() {
+        String text = "Carnivore, later renamed DCS1000, é一";
+        assertEquals(scalar.encrypt(text), vector.encrypt(text));
+        assertEquals(scalar.decrypt(text), vector.decrypt(text));
+    }
+
+    @Test
+    void testFastestIsBuiltOncePerCipher() {
+        CipherInterface fastest = Ciphers.fastest(scalar);
+        assertInstanceOf(VectorCipher.class, fastest);
+        assertSame(fastest, Ciphers.fastest(scalar));
+    }
+}
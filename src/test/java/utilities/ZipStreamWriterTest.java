@@ -0,0 +1,91 @@
+package utilities;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+public class ZipStreamWriterTest {
+    @TempDir
+    Path tempDir;
+
+    private byte[] deflate(byte[] plain, boolean last) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput(plain);
+        if (last) {
+            deflater.finish();
+        }
+        byte[] out = new byte[plain.length + 64];
+        int length = deflater.deflate(out, 0, out.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+        assertTrue(!last || deflater.finished());
+        deflater.end();
+        return Arrays.copyOf(out, length);
+    }
+
+    private void writeEntry(ZipStreamWriter zip, String name, String... chunks) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        zip.beginEntry(name, 0);
+        for (int i = 0; i < chunks.length; i++) {
+            byte[] plain = chunks[i].getBytes(StandardCharsets.UTF_8);
+            byte[] deflated = deflate(plain, i == chunks.length - 1);
+            zip.writeDeflated(deflated, 0, deflated.length);
+            crc.update(plain);
+            size += plain.length;
+        }
+        zip.endEntry(crc.getValue(), size);
+    }
+
+    @Test
+    void testChunksDeflatedSeparatelyReadAsOneEntry() throws Exception {
+        Path archive = tempDir.resolve("test.zip");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(archive));
+                ZipStreamWriter zip = new ZipStreamWriter(out)) {
+            writeEntry(zip, "a.txt", "first chunk, ", "second chunk, ", "last chunk");
+            writeEntry(zip, "empty.txt", "");
+            writeEntry(zip, "一二.txt", "café");
+            assertThrows(IllegalStateException.class, () -> zip.endEntry(0, 0));
+        }
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(3, zip.size());
+            assertEquals("first chunk, second chunk, last chunk",
+                    new String(zip.getInputStream(zip.getEntry("a.txt")).readAllBytes(), StandardCharsets.UTF_8));
+            assertEquals(0, zip.getInputStream(zip.getEntry("empty.txt")).readAllBytes().length);
+            assertEquals("café", new String(zip.getInputStream(zip.getEntry("一二.txt")).readAllBytes(),
+                    StandardCharsets.UTF_8));
+        }
+
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive))) {
+            assertEquals("a.txt", in.getNextEntry().getName());
+            assertEquals("first chunk, second chunk, last chunk",
+                    new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testManyEntriesUseZip64End() throws Exception {
+        Path archive = tempDir.resolve("many.zip");
+        int entries = 70_000;
+        try (ZipStreamWriter zip = new ZipStreamWriter(new BufferedOutputStream(Files.newOutputStream(archive)))) {
+            for (int i = 0; i < entries; i++) {
+                writeEntry(zip, "file" + i, "");
+            }
+        }
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(entries, zip.size());
+            assertNotNull(zip.getEntry("file" + (entries - 1)));
+        }//more entries than the end record can count
+    }
+}